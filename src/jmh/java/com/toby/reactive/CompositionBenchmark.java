@@ -0,0 +1,149 @@
+package com.toby.reactive;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 비동기 조합 방식 비교 : stages 개의 단계를 이어서 값을 전달하는 비용
+ * - completion : Completion.from().andApply()...andAccept()  (V2/V3)
+ * - nested     : ListenableFuture.addCallback 안에서 다음 addCallback  (/rest5)
+ * - cf         : CompletableFuture.thenCompose
+ * - mono       : Reactor Mono.flatMap
+ *
+ * completed = true  : 모든 future 가 체인을 만들기 전에 이미 완료되어 있음 (결과가 먼저 도착하는 경우)
+ * completed = false : 체인을 다 만든 뒤에 future 를 순서대로 완료시킴 (I/O 콜백으로 이어지는 실제 경우)
+ *
+ * AverageTime 을 stages 로 나누면 단계당 지연, gc 프로파일러의 gc.alloc.rate.norm 이 호출당 할당량이다.
+ * 잴 때 : ./gradlew jmh -PjmhInclude=CompositionBenchmark -PjmhThreads=<1|4> -> build/results/jmh/results.json (반복 횟수는 build.gradle 의 jmh 블록)
+ * 베이스라인은 두지 않는다 : 쓰레드 수에 따른 변화는 코어가 쓰레드 수 이상인 곳에서만 보인다. 코어 수를 같이 적을 것
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompositionBenchmark {
+
+	@Param({"2", "4", "8", "16"})
+	int stages;
+
+	@Param({"true", "false"})
+	boolean completed;
+
+	@Benchmark
+	public void completion(Blackhole bh) {
+		@SuppressWarnings("unchecked")
+		SettableListenableFuture<Integer>[] fs = (SettableListenableFuture<Integer>[]) new SettableListenableFuture<?>[stages];
+		for (int i = 0; i < stages; i++) {
+			fs[i] = new SettableListenableFuture<>();
+			if (completed) {
+				fs[i].set(i);
+			}
+		}
+
+		Completion<?, Integer> c = Completion.from(fs[0]);
+		for (int i = 1; i < stages; i++) {
+			SettableListenableFuture<Integer> next = fs[i];
+			c = c.andApply(v -> next);
+		}
+		c.andAccept(bh::consume);
+
+		completeAll(fs);
+	}
+
+	@Benchmark
+	public void nested(Blackhole bh) {
+		@SuppressWarnings("unchecked")
+		SettableListenableFuture<Integer>[] fs = (SettableListenableFuture<Integer>[]) new SettableListenableFuture<?>[stages];
+		for (int i = 0; i < stages; i++) {
+			fs[i] = new SettableListenableFuture<>();
+			if (completed) {
+				fs[i].set(i);
+			}
+		}
+
+		nest(fs, 0, bh);
+
+		completeAll(fs);
+	}
+
+	private void nest(ListenableFuture<Integer>[] fs, int i, Blackhole bh) {
+		fs[i].addCallback(v -> {
+			if (i == fs.length - 1) {
+				bh.consume(v);
+			} else {
+				nest(fs, i + 1, bh);
+			}
+		}, bh::consume);
+	}
+
+	@Benchmark
+	public void cf(Blackhole bh) {
+		@SuppressWarnings("unchecked")
+		CompletableFuture<Integer>[] fs = (CompletableFuture<Integer>[]) new CompletableFuture<?>[stages];
+		for (int i = 0; i < stages; i++) {
+			fs[i] = completed ? CompletableFuture.completedFuture(i) : new CompletableFuture<>();
+		}
+
+		CompletableFuture<Integer> c = fs[0];
+		for (int i = 1; i < stages; i++) {
+			CompletableFuture<Integer> next = fs[i];
+			c = c.thenCompose(v -> next);
+		}
+		c.thenAccept(bh::consume);
+
+		if (!completed) {
+			for (int i = 0; i < stages; i++) {
+				fs[i].complete(i);
+			}
+		}
+	}
+
+	@Benchmark
+	public void mono(Blackhole bh) {
+		if (completed) {
+			Mono<Integer> m = Mono.just(0);
+			for (int i = 1; i < stages; i++) {
+				Mono<Integer> next = Mono.just(i);
+				m = m.flatMap(v -> next);
+			}
+			m.subscribe(bh::consume);
+			return;
+		}
+
+		@SuppressWarnings("unchecked")
+		Sinks.One<Integer>[] sinks = (Sinks.One<Integer>[]) new Sinks.One<?>[stages];
+		for (int i = 0; i < stages; i++) {
+			sinks[i] = Sinks.one();
+		}
+		Mono<Integer> m = sinks[0].asMono();
+		for (int i = 1; i < stages; i++) {
+			Mono<Integer> next = sinks[i].asMono();
+			m = m.flatMap(v -> next);
+		}
+		m.subscribe(bh::consume);
+
+		for (int i = 0; i < stages; i++) {
+			sinks[i].tryEmitValue(i);
+		}
+	}
+
+	private void completeAll(SettableListenableFuture<Integer>[] fs) {
+		if (!completed) {
+			for (int i = 0; i < fs.length; i++) {
+				fs[i].set(i);
+			}
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package com.toby.reactive;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpVersion;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.AsyncRestTemplate;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 클라이언트 이벤트 루프 구성별 응답 콜백 처리량 (reactive.client.transport / event-loop-threads / assignment)
+ *
+ * 같은 JVM 의 netty HTTP 서버(항상 같은 구성 : epoll 이 되면 epoll, 코어 수만큼 루프)에 /v3/rest6 처럼 두 번 이어지는 호출 체인을
+ * IN_FLIGHT 개씩 동시에 보내고 다 끝날 때까지를 한 번으로 잰다. 점수(ops/s)는 초당 끝난 체인 수 (체인 하나 = 요청 2 + 콜백 3)
+ * callbackTokens 는 각 콜백에서 쓰는 CPU (Blackhole.consumeCPU) : 0 이면 I/O 처리 비용만, 클수록 콜백의 일이 이벤트 루프를 채운다.
+ *
+ * 읽는 법 : eventLoops=1 의 점수가 callbackTokens 가 커질 때 얼마나 빨리 떨어지는지가 루프 하나의 한계.
+ * 코어가 여럿이면 eventLoops 를 늘릴 때 그 한계가 코어 수까지 늘어나는지, AFFINITY 가 ROUND_ROBIN 보다 나은지(체인이 루프를 옮겨 다니지 않는다) 본다.
+ * offload=true 는 콜백을 andApplyAsync / andAcceptAsync 로 별도 풀(코어 수만큼)에서 돌린다 : callbackTokens=0 에서는 쓰레드 전환 비용, 클수록 루프가 I/O 만 하게 된 효과.
+ * 베이스라인은 두지 않는다 : 1 vCPU 에서는 루프를 늘려도 나아지지 않아 비교할 값이 못 된다. 코어가 여러 개인 곳에서 재고, 코어 수를 같이 적을 것
+ * 다시 잴 때 : ./gradlew jmh -PjmhInclude=EventLoopBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EventLoopBenchmark {
+	private static final int IN_FLIGHT = 256;
+	private static final String URL = "http://127.0.0.1:{port}/service?req={req}";
+
+	@Param({"NIO", "EPOLL"})
+	AsyncClientProperties.Transport transport;
+
+	@Param({"1", "2", "4"})
+	int eventLoops;
+
+	@Param({"ROUND_ROBIN", "AFFINITY"})
+	AsyncClientProperties.Assignment assignment;
+
+	@Param({"0", "2000"})
+	int callbackTokens;
+
+	@Param({"false", "true"})
+	boolean offload;
+
+	private EventLoopGroup serverGroup;
+	private Channel server;
+	private int port;
+	private EventLoopGroup clientGroup;
+	private PooledNettyClientHttpRequestFactory factory;
+	private AsyncRestTemplate rt;
+	private ExecutorService offloadPool;
+	private Executor stageExecutor;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		boolean epoll = Epoll.isAvailable();
+		serverGroup = epoll ? new EpollEventLoopGroup() : new NioEventLoopGroup();
+		server = new ServerBootstrap()
+				.group(serverGroup)
+				.channel(epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class)
+				.childHandler(new ChannelInitializer<Channel>() {
+					@Override
+					protected void initChannel(Channel ch) {
+						ch.pipeline().addLast(new HttpServerCodec(), new HttpObjectAggregator(1024), EchoHandler.INSTANCE);
+					}
+				})
+				.bind(0).sync().channel();
+		port = ((InetSocketAddress) server.localAddress()).getPort();
+
+		AsyncClientProperties properties = new AsyncClientProperties();
+		properties.setAssignment(assignment);
+		properties.setMaxConnectionsPerHost(IN_FLIGHT);
+		clientGroup = ClientTransport.eventLoopGroup(transport, eventLoops);
+		factory = new PooledNettyClientHttpRequestFactory(clientGroup, properties);
+		rt = new AsyncRestTemplate(factory, new SimpleClientHttpRequestFactory());
+		offloadPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		stageExecutor = offload ? offloadPool : StageExecutors.INLINE;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		offloadPool.shutdown();
+		factory.destroy();
+		clientGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+		server.close().sync();
+		serverGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(IN_FLIGHT)
+	public void chains(Blackhole bh) throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(IN_FLIGHT);
+		AtomicInteger errors = new AtomicInteger();
+		for (int i = 0; i < IN_FLIGHT; i++) {
+			Completion
+					.from(rt.getForEntity(URL, String.class, port, "hello" + i))
+					.andApplyAsync(s -> {
+						Blackhole.consumeCPU(callbackTokens);
+						return rt.getForEntity(URL, String.class, port, s.getBody());
+					}, stageExecutor)
+					.andError(e -> {
+						errors.incrementAndGet();
+						done.countDown();
+					})
+					.andAcceptAsync(s -> {
+						Blackhole.consumeCPU(callbackTokens);
+						bh.consume(s.getBody());
+						done.countDown();
+					}, stageExecutor);
+		}
+		if (!done.await(30, TimeUnit.SECONDS) || errors.get() > 0) {
+			throw new IllegalStateException("chains did not complete: errors=" + errors.get() + ", pending=" + done.getCount());
+		}
+	}
+
+	/**
+	 * req 를 그대로 돌려준다 (RemoteService 의 /service 에서 지연을 뺀 것)
+	 */
+	@ChannelHandler.Sharable
+	static class EchoHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+		static final EchoHandler INSTANCE = new EchoHandler();
+
+		@Override
+		protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) {
+			String uri = request.uri();
+			ByteBuf body = Unpooled.copiedBuffer(uri.substring(uri.indexOf('=') + 1) + "/service", StandardCharsets.UTF_8);
+			DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, body);
+			response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain;charset=UTF-8");
+			response.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, body.readableBytes());
+			ctx.writeAndFlush(response);
+		}
+	}
+}
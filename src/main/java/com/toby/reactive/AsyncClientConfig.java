@@ -0,0 +1,57 @@
+package com.toby.reactive;
+
+import io.netty.channel.EventLoopGroup;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.AsyncClientHttpRequestFactory;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.AsyncRestTemplate;
+
+/**
+ * 모든 컨트롤러가 공유하는 비동기 HTTP 클라이언트
+ * 컨트롤러마다 NioEventLoopGroup 을 만들고 요청마다 새 커넥션을 맺던 것을
+ * 하나의 이벤트 루프 + 호스트별 keep-alive 커넥션 풀로 바꾼다.
+ */
+@Slf4j
+@Configuration
+@EnableConfigurationProperties({AsyncClientProperties.class, CachingAsyncClientProperties.class, MicroBatcherProperties.class})
+public class AsyncClientConfig {
+
+	@Bean(destroyMethod = "shutdownGracefully")
+	public EventLoopGroup clientEventLoopGroup(AsyncClientProperties properties) {
+		EventLoopGroup group = ClientTransport.eventLoopGroup(properties.getTransport(), properties.getEventLoopThreads()); // nio / epoll
+		log.info("client transport {} ({}), assignment {}", properties.getTransport(), group.getClass().getSimpleName(), properties.getAssignment());
+		return group;
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "reactive.client.http2", name = "enabled", havingValue = "false", matchIfMissing = true)
+	public PooledNettyClientHttpRequestFactory pooledNettyClientHttpRequestFactory(EventLoopGroup clientEventLoopGroup, AsyncClientProperties properties) {
+		return new PooledNettyClientHttpRequestFactory(clientEventLoopGroup, properties);
+	}
+
+	// reactive.client.http2.enabled=true : 호스트마다 커넥션 몇 개에 요청을 stream 으로 다중화 (RemoteService 도 remote.http2.enabled=true 로 띄운다)
+	@Bean
+	@ConditionalOnProperty(prefix = "reactive.client.http2", name = "enabled", havingValue = "true")
+	public Http2ClientHttpRequestFactory http2ClientHttpRequestFactory(EventLoopGroup clientEventLoopGroup, AsyncClientProperties properties) {
+		return new Http2ClientHttpRequestFactory(clientEventLoopGroup, properties);
+	}
+
+	@Bean
+	public AsyncRestTemplate asyncRestTemplate(AsyncClientHttpRequestFactory requestFactory) {
+		return new AsyncRestTemplate(requestFactory, new SimpleClientHttpRequestFactory()); // 동기 팩토리는 AsyncRestTemplate 내부 RestTemplate 용 (쓰이지 않음)
+	}
+
+	@Bean
+	public CachingAsyncClient cachingAsyncClient(AsyncRestTemplate asyncRestTemplate, CachingAsyncClientProperties properties) {
+		return new CachingAsyncClient(asyncRestTemplate, properties);
+	}
+
+	@Bean
+	public MicroBatcherRegistry microBatcherRegistry(AsyncRestTemplate asyncRestTemplate, EventLoopGroup clientEventLoopGroup, MicroBatcherProperties properties) {
+		return new MicroBatcherRegistry(asyncRestTemplate, clientEventLoopGroup, properties);
+	}
+}
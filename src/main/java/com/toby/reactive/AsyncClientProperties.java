@@ -0,0 +1,51 @@
+package com.toby.reactive;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * 공용 비동기 HTTP 클라이언트 설정 (application.yml 의 reactive.client.*)
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "reactive.client")
+public class AsyncClientProperties {
+	private String remoteUrl = "http://localhost:8081"; // 컨트롤러들이 부르는 RemoteService 의 주소 (테스트는 임의 포트에 띄운 RemoteService 를 가리킨다)
+	private int eventLoopThreads = 1;               // 0 이면 netty 기본값(코어 수 * 2)
+	private Transport transport = Transport.NIO;    // 이벤트 루프 구현 (ClientTransport)
+	private Assignment assignment = Assignment.ROUND_ROBIN; // 커넥션(과 그 응답 콜백)을 어느 이벤트 루프에 둘지
+	private int maxConnectionsPerHost = 500;        // 호스트(host:port)당 최대 커넥션 수
+	private int maxPendingAcquires = 10000;         // 커넥션이 모두 사용 중일 때 대기할 수 있는 요청 수 (넘으면 바로 실패)
+	private Duration acquireTimeout = Duration.ofSeconds(5);
+	private Duration connectTimeout = Duration.ofSeconds(3);
+	private Duration idleTimeout = Duration.ofSeconds(15); // 이 시간동안 쓰이지 않은 커넥션은 닫는다. 서버의 keep-alive timeout (Tomcat 20s) 보다 짧아야 서버가 이미 닫은 커넥션을 꺼내지 않는다
+	private Duration responseTimeout = Duration.ofSeconds(10); // 요청을 보낸 뒤 응답이 없으면 커넥션(h2c 는 stream)을 닫고 TimeoutException (멈춘 다운스트림이 커넥션을 계속 쥐고 있지 않게)
+	private DataSize maxResponseSize = DataSize.ofMegabytes(10);
+	private Http2 http2 = new Http2();
+
+	public enum Transport { NIO, EPOLL, AUTO }
+
+	/**
+	 * ROUND_ROBIN : 호스트마다 풀 하나. 새 커넥션은 이벤트 루프를 돌아가면서 고른다 (netty 기본). 어느 커넥션을 받을지는 정해져 있지 않다
+	 * AFFINITY    : 호스트 x 이벤트 루프마다 풀 하나. 이벤트 루프(앞 단계의 응답 콜백)에서 보내는 호출은 같은 루프의 커넥션으로,
+	 *               그 밖의 쓰레드(Tomcat 요청 쓰레드)는 쓰레드마다 정해진 루프로. 한 요청의 체인이 한 쓰레드에 머문다 (커넥션 수 한도는 루프 수로 나눈다)
+	 */
+	public enum Assignment { ROUND_ROBIN, AFFINITY }
+
+	/**
+	 * HTTP/2 cleartext (h2c, prior knowledge) 로 보낼 때 (Http2ClientHttpRequestFactory)
+	 */
+	@Getter
+	@Setter
+	public static class Http2 {
+		private boolean enabled = false;                              // true 면 keep-alive 커넥션 풀 대신 h2c 커넥션에 stream 으로 다중화
+		private int connectionsPerHost = 8;                           // 호스트당 커넥션 수 (요청은 돌아가면서 나눠 싣는다). 서버는 커넥션 하나의 프레임을 차례로 처리하므로 한두 개면 꼬리 지연이 커진다
+		private DataSize initialWindowSize = DataSize.ofMegabytes(1); // stream 별 수신 윈도우 (SETTINGS_INITIAL_WINDOW_SIZE)
+		private DataSize connectionWindowSize = DataSize.ofMegabytes(16); // 커넥션 전체 수신 윈도우 (모든 stream 이 나눠 쓴다)
+		private DataSize maxFrameSize = DataSize.ofKilobytes(16);     // SETTINGS_MAX_FRAME_SIZE
+	}
+}
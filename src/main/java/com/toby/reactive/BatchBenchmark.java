@@ -0,0 +1,259 @@
+package com.toby.reactive;
+
+import io.netty.channel.EventLoopGroup;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.web.client.AsyncRestTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * micro-batching 지연시간 / 처리량 비교 (MicroBatcher)
+ *
+ * 실행 중인 RemoteService 에 windows x rates 조합마다 open-loop 로 호출을 보내고
+ * 호출 하나의 지연시간(보냈어야 하는 시각부터)과 실제로 다운스트림에 나간 요청 수를 CSV 로 낸다.
+ * maxInFlight 를 넘어서 보내지 못한 호출(dropped)도 requestTimeout 만큼 걸린 실패로 지연시간에 넣는다.
+ * (빼면 가장 밀린 순간의 호출들이 통째로 빠져서 percentile 이 좋게 나온다)
+ * window 마다 batcher 하나를 만들어 그 window 의 rate 들에 같이 쓰고, 다음 window 로 넘어가기 전에 닫는다.
+ * - none : 배치 없이 /service 를 호출마다 (기존 방식)
+ * - 0ms  : 배치 엔드포인트를 항목 1개씩 (배치 엔드포인트 자체의 비용)
+ * - Nms  : window N 으로 모아서
+ *
+ * RemoteService 의 지연이 2초(기본값)면 그 차이에 묻히므로 짧게 두고 잰다.
+ *   RemoteService --remote.endpoints.service.delay=fixed:5
+ *   BatchBenchmark --windows=none,0ms,1ms,2ms,5ms --rates=1000,5000,10000 --duration=15s --out=batch.csv
+ */
+@Slf4j
+public class BatchBenchmark {
+	private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+	public static void main(String[] args) throws Exception {
+		Config config = Config.parse(args);
+
+		AsyncClientProperties clientProperties = new AsyncClientProperties();
+		clientProperties.setMaxConnectionsPerHost(config.getMaxConnections());
+		clientProperties.setMaxPendingAcquires(config.getMaxInFlight());
+		EventLoopGroup group = ClientTransport.eventLoopGroup(clientProperties.getTransport(), clientProperties.getEventLoopThreads());
+		PooledNettyClientHttpRequestFactory factory = new PooledNettyClientHttpRequestFactory(group, clientProperties);
+		AsyncRestTemplate rt = new AsyncRestTemplate(factory, new SimpleClientHttpRequestFactory());
+
+		StringBuilder csv = new StringBuilder("window,max_batch_size,rate,requests,ok,errors,dropped,downstream_requests,avg_batch_size,throughput,p50_ms,p90_ms,p99_ms,p999_ms,max_ms\n");
+		try {
+			for (String window : config.getWindows()) {
+				Target target = target(rt, group, config, window);
+				try {
+					for (double rate : config.getRates()) {
+						if (!config.getWarmup().isZero()) {
+							log.info("warmup window={} rate={} ...", window, rate);
+							run(target, rate, config.getWarmup(), config);
+						}
+						log.info("measurement window={} rate={} ...", window, rate);
+						String row = run(target, rate, config.getDuration(), config).toCsv(window, config.getMaxBatchSize(), rate);
+						System.out.print(row);
+						csv.append(row);
+					}
+				} finally {
+					target.close();
+				}
+			}
+		} finally {
+			factory.destroy();
+			group.shutdownGracefully();
+		}
+		if (config.getOut() != null) {
+			Files.write(Paths.get(config.getOut()), csv.toString().getBytes(StandardCharsets.UTF_8));
+		}
+		System.out.println();
+		System.out.print(csv);
+	}
+
+	/**
+	 * 측정 대상 : 호출 하나를 보내는 방법과 지금까지 다운스트림에 나간 요청 수
+	 */
+	interface Target {
+		ListenableFuture<ResponseEntity<String>> call(String req);
+
+		long downstreamRequests();
+
+		default void close() {
+		}
+	}
+
+	static Target target(AsyncRestTemplate rt, EventLoopGroup group, Config config, String window) {
+		String base = config.getRemote() + "/" + config.getEndpoint();
+		if ("none".equalsIgnoreCase(window)) {
+			LongAdder calls = new LongAdder();
+			return new Target() {
+				@Override
+				public ListenableFuture<ResponseEntity<String>> call(String req) {
+					calls.increment();
+					return rt.getForEntity(base + "?req={req}", String.class, req);
+				}
+
+				@Override
+				public long downstreamRequests() {
+					return calls.sum();
+				}
+			};
+		}
+		MicroBatcher batcher = new MicroBatcher(rt, base + "/batch", group, config.getMaxBatchSize(), LoadTest.Config.parseDuration(window));
+		return new Target() {
+			@Override
+			public ListenableFuture<ResponseEntity<String>> call(String req) {
+				return batcher.submit(req);
+			}
+
+			@Override
+			public long downstreamRequests() {
+				return batcher.getBatches();
+			}
+
+			@Override
+			public void close() {
+				batcher.close();
+			}
+		};
+	}
+
+	/**
+	 * constant arrival rate : LoadTest 의 OpenLoopRunner 와 같은 방식 (지연시간은 예정 시각 기준)
+	 */
+	static Result run(Target target, double rate, Duration duration, Config config) throws InterruptedException {
+		Result result = new Result();
+		Semaphore inFlight = new Semaphore(config.getMaxInFlight());
+		long downstreamBefore = target.downstreamRequests();
+		long intervalNanos = (long) (1e9 / rate);
+		long start = System.nanoTime();
+		long end = start + duration.toNanos();
+		long intended = start;
+		int seq = 0;
+
+		while (intended < end) {
+			long now = System.nanoTime();
+			if (intended > now) {
+				LockSupport.parkNanos(intended - now);
+				continue;
+			}
+			long intendedStart = intended;
+			if (!inFlight.tryAcquire()) {
+				result.drop(config.getRequestTimeout()); // 생성기 보호 : maxInFlight 를 넘으면 보내지 않는다
+			} else {
+				target.call("b" + seq++).addCallback(r -> {
+					result.record(intendedStart, true);
+					inFlight.release();
+				}, e -> {
+					result.record(intendedStart, false);
+					inFlight.release();
+				});
+			}
+			intended += intervalNanos;
+		}
+		result.elapsedSeconds = (System.nanoTime() - start) / 1e9; // 측정 구간만 : 남은 호출을 기다리는 시간까지 나누면 처리량이 낮게 나온다
+		if (inFlight.tryAcquire(config.getMaxInFlight(), config.getRequestTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+			inFlight.release(config.getMaxInFlight());
+		}
+		result.downstreamRequests = target.downstreamRequests() - downstreamBefore;
+		return result;
+	}
+
+	static class Result {
+		final Histogram latency = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+		final LongAdder ok = new LongAdder();
+		final LongAdder errors = new LongAdder();
+		final LongAdder dropped = new LongAdder();
+		double elapsedSeconds;
+		long downstreamRequests;
+
+		void record(long intendedStartNanos, boolean success) {
+			latency.recordValue(Math.min((System.nanoTime() - intendedStartNanos) / 1000, HIGHEST_TRACKABLE_MICROS));
+			(success ? ok : errors).increment();
+		}
+
+		/**
+		 * 보내지 못한 호출 : 응답을 받지 못했으므로 timeout 만큼 걸린 실패로 센다
+		 */
+		void drop(Duration timeout) {
+			latency.recordValue(Math.min(timeout.toNanos() / 1000, HIGHEST_TRACKABLE_MICROS));
+			errors.increment();
+			dropped.increment();
+		}
+
+		String toCsv(String window, int maxBatchSize, double rate) {
+			long requests = ok.sum() + errors.sum();
+			long sent = requests - dropped.sum();
+			return String.format("%s,%d,%.0f,%d,%d,%d,%d,%d,%.2f,%.1f,%.3f,%.3f,%.3f,%.3f,%.3f%n",
+					window, maxBatchSize, rate, requests, ok.sum(), errors.sum(), dropped.sum(), downstreamRequests,
+					downstreamRequests == 0 ? 0 : (double) sent / downstreamRequests,
+					requests / elapsedSeconds,
+					latency.getValueAtPercentile(50) / 1000.0, latency.getValueAtPercentile(90) / 1000.0,
+					latency.getValueAtPercentile(99) / 1000.0, latency.getValueAtPercentile(99.9) / 1000.0,
+					latency.getMaxValue() / 1000.0);
+		}
+	}
+
+	@Getter
+	@Setter
+	public static class Config {
+		private String remote = "http://localhost:8081";
+		private String endpoint = "service";
+		private List<String> windows = List.of("none", "0ms", "1ms", "2ms", "5ms", "10ms");
+		private List<Double> rates = List.of(1000.0, 5000.0);
+		private int maxBatchSize = 50;
+		private int maxConnections = 500;
+		private Duration warmup = Duration.ofSeconds(5);
+		private Duration duration = Duration.ofSeconds(15);
+		private Duration requestTimeout = Duration.ofSeconds(30);
+		private int maxInFlight = 50_000;
+		private String out;
+
+		public static Config parse(String[] args) {
+			Config config = new Config();
+			for (String arg : args) {
+				int eq = arg.indexOf('=');
+				if (!arg.startsWith("--") || eq < 0) {
+					throw new IllegalArgumentException("expected --key=value but was " + arg);
+				}
+				String key = arg.substring(2, eq);
+				String value = arg.substring(eq + 1);
+				switch (key) {
+					case "remote": config.remote = value; break;
+					case "endpoint": config.endpoint = value; break;
+					case "windows": config.windows = List.of(value.split(",")); break;
+					case "rates": config.rates = parseRates(value); break;
+					case "max-batch-size": config.maxBatchSize = Integer.parseInt(value); break;
+					case "max-connections": config.maxConnections = Integer.parseInt(value); break;
+					case "warmup": config.warmup = LoadTest.Config.parseDuration(value); break;
+					case "duration": config.duration = LoadTest.Config.parseDuration(value); break;
+					case "request-timeout": config.requestTimeout = LoadTest.Config.parseDuration(value); break;
+					case "max-in-flight": config.maxInFlight = Integer.parseInt(value); break;
+					case "out": config.out = value; break;
+					default: throw new IllegalArgumentException("unknown option --" + key);
+				}
+			}
+			return config;
+		}
+
+		private static List<Double> parseRates(String value) {
+			List<Double> rates = new ArrayList<>();
+			for (String r : value.split(",")) {
+				rates.add(Double.parseDouble(r));
+			}
+			return rates;
+		}
+	}
+}
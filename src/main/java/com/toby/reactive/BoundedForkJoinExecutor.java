@@ -0,0 +1,76 @@
+package com.toby.reactive;
+
+import io.netty.util.concurrent.FastThreadLocalThread;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * CPU 작업용 work-stealing executor (ExecutorProperties.Type.FORK_JOIN)
+ *
+ * ForkJoinPool 의 submission 큐는 상한이 없어서, 실행 중 + 대기 중인 작업 수를 세고
+ * parallelism + queueCapacity 를 넘으면 rejection 정책을 따른다. (ThreadPoolTaskExecutor 프로필과 같은 동작)
+ * 워커 쓰레드는 "이름-번호" 로 만들어서 스레드 덤프 / 로그에서 구분된다.
+ */
+public class BoundedForkJoinExecutor implements Executor {
+	private final String name;
+	private final ForkJoinPool pool;
+	private final int limit;
+	private final ExecutorProperties.Rejection rejection;
+	private final AtomicInteger pending = new AtomicInteger();
+
+	public BoundedForkJoinExecutor(String name, int parallelism, int queueCapacity, ExecutorProperties.Rejection rejection) {
+		this.name = name;
+		int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+		AtomicInteger index = new AtomicInteger(1);
+		this.pool = new ForkJoinPool(threads, p -> {
+			ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+			t.setName(name + "-" + index.getAndIncrement());
+			return t;
+		}, null, true); // asyncMode : join 하지 않는 독립 작업들이라서 FIFO
+		this.limit = threads + queueCapacity;
+		this.rejection = rejection;
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		if (pending.incrementAndGet() > limit) {
+			pending.decrementAndGet();
+			reject(name, rejection, task);
+			return;
+		}
+		pool.execute(() -> {
+			try {
+				task.run();
+			} finally {
+				pending.decrementAndGet();
+			}
+		});
+	}
+
+	/**
+	 * 두 종류의 프로필(THREAD_POOL / FORK_JOIN)이 같이 쓰는 rejection 처리
+	 * CALLER_RUNS 라도 이벤트 루프(netty 쓰레드)에서 제출한 작업은 실행하지 않는다 - 이벤트 루프가 막히면 모든 커넥션이 멈춘다.
+	 */
+	static void reject(String name, ExecutorProperties.Rejection rejection, Runnable task) {
+		if (rejection == ExecutorProperties.Rejection.CALLER_RUNS && !(Thread.currentThread() instanceof FastThreadLocalThread)) {
+			task.run();
+			return;
+		}
+		throw new ExecutorRejectedException(name, "queue full");
+	}
+
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+
+	public int getPending() {
+		return pending.get();
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+}
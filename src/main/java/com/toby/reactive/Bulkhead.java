@@ -0,0 +1,48 @@
+package com.toby.reactive;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 다운스트림 하나에 동시에 나가 있을 수 있는 호출 수의 상한
+ * 한 다운스트림이 느려져도 그쪽 호출이 커넥션 풀 / 대기열 / DeferredResult 를 전부 차지하지 못하게 격리한다.
+ * 기다리지 않고 바로 거절한다. (대기는 곧 지연이므로)
+ */
+public class Bulkhead {
+	private final int maxConcurrentCalls;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final LongAdder rejected = new LongAdder();
+
+	public Bulkhead(int maxConcurrentCalls) {
+		this.maxConcurrentCalls = maxConcurrentCalls;
+	}
+
+	public boolean tryAcquire() {
+		for (;;) {
+			int current = inFlight.get();
+			if (current >= maxConcurrentCalls) {
+				rejected.increment();
+				return false;
+			}
+			if (inFlight.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	public void release() {
+		inFlight.decrementAndGet();
+	}
+
+	public int getMaxConcurrentCalls() {
+		return maxConcurrentCalls;
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	public long getRejected() {
+		return rejected.sum();
+	}
+}
@@ -0,0 +1,93 @@
+package com.toby.reactive;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.AsyncClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.StreamUtils;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+import org.springframework.web.client.DefaultResponseErrorHandler;
+import org.springframework.web.client.ResponseErrorHandler;
+import org.springframework.web.util.DefaultUriBuilderFactory;
+import org.springframework.web.util.UriTemplateHandler;
+
+import java.io.IOException;
+import java.util.function.Function;
+
+/**
+ * 응답 body 를 String 으로 바꾸지 않는 다운스트림 클라이언트 (/v3/rest9)
+ *
+ * AsyncRestTemplate.getForEntity(.., String.class) 는 응답마다 ByteBuf -> InputStream -> byte[] -> String 으로 복사한 다음 ResponseEntity 로 감싼다.
+ * 여기서는 커넥션이 받은 pooled ByteBuf 에 참조 하나를 더해서 그대로 넘긴다. (PooledNettyClientHttpResponse.retainedContent, 다른 팩토리면 한 번 복사)
+ *
+ * 참조 카운트 규칙 : future 로 받은 ByteBuf 는 받은 쪽이 참조 하나를 가진다. 다음 단계로 넘기거나(handOff) 다 읽고 release 해야 한다(use).
+ * - 4xx / 5xx 는 AsyncRestTemplate 과 같은 예외(HttpClientErrorException / HttpServerErrorException)로 실패하고 body 는 여기서 정리된다
+ * - Completion.timeout / hedge 에서 늦게 도착한 ByteBuf 는 Completion 이 release 한다
+ * - 마지막 단계는 ByteBufHttpMessageConverter 가 응답에 쓰고 release 한다
+ */
+public class ByteBufClient {
+	private final AsyncClientHttpRequestFactory requestFactory;
+	private final UriTemplateHandler uriTemplateHandler = new DefaultUriBuilderFactory();
+	private final ResponseErrorHandler errorHandler = new DefaultResponseErrorHandler();
+
+	public ByteBufClient(AsyncClientHttpRequestFactory requestFactory) {
+		this.requestFactory = requestFactory;
+	}
+
+	public ListenableFuture<ByteBuf> get(String url, Object... uriVariables) {
+		SettableListenableFuture<ByteBuf> result = new SettableListenableFuture<>();
+		ListenableFuture<ClientHttpResponse> response;
+		try {
+			response = requestFactory.createAsyncRequest(uriTemplateHandler.expand(url, uriVariables), HttpMethod.GET).executeAsync();
+		} catch (IOException e) {
+			result.setException(e);
+			return result;
+		}
+		Completion.forwardCancel(result, response); // 취소되면 커넥션을 정리한다 (늦게 온 body 는 setOrRelease 가 release)
+		response.addCallback(r -> {
+			try {
+				if (errorHandler.hasError(r)) {
+					errorHandler.handleError(r); // 항상 던진다
+				}
+				Completion.setOrRelease(result, body(r));
+			} catch (IOException | RuntimeException e) {
+				result.setException(e);
+			} finally {
+				r.close(); // 응답이 가진 참조를 반납 (넘겨준 body 는 retain 해 두었다)
+			}
+		}, result::setException);
+		return result;
+	}
+
+	private static ByteBuf body(ClientHttpResponse response) throws IOException {
+		if (response instanceof PooledNettyClientHttpRequestFactory.PooledNettyClientHttpResponse) {
+			return ((PooledNettyClientHttpRequestFactory.PooledNettyClientHttpResponse) response).retainedContent();
+		}
+		return Unpooled.wrappedBuffer(StreamUtils.copyToByteArray(response.getBody()));
+	}
+
+	/**
+	 * buf 를 읽기만 하는 단계 : fn 은 buf 를 동기적으로 다 읽어야 한다. fn 이 끝나면 (예외여도) release 한다.
+	 */
+	public static <V> ListenableFuture<V> use(ByteBuf buf, Function<ByteBuf, ListenableFuture<V>> fn) {
+		try {
+			return fn.apply(buf);
+		} finally {
+			buf.release();
+		}
+	}
+
+	/**
+	 * buf 를 넘겨받는 단계 : fn 이 정상적으로 리턴하면 buf 의 참조는 fn 이 만든 작업의 것이다. fn 이 던지면(executor 거절 등) 여기서 release 한다.
+	 */
+	public static <V> ListenableFuture<V> handOff(ByteBuf buf, Function<ByteBuf, ListenableFuture<V>> fn) {
+		try {
+			return fn.apply(buf);
+		} catch (RuntimeException e) {
+			buf.release();
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package com.toby.reactive;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.AsyncClientHttpRequestFactory;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+/**
+ * 응답 body 를 pooled ByteBuf 그대로 다루는 경로 (/v3/rest9)
+ * - ByteBufClient : AsyncClientConfig 의 공용 팩토리(HTTP/1.1 풀 또는 h2c)로 호출하고 body 를 ByteBuf 로 돌려준다
+ * - ByteBufHttpMessageConverter : 핸들러가 돌려준 ByteBuf 를 응답에 쓰고 release
+ * 누수는 netty 의 ResourceLeakDetector 가 잡는다. (기본 SIMPLE, -Dio.netty.leakDetection.level=paranoid 로 모든 버퍼 추적)
+ */
+@Configuration
+public class ByteBufConfig implements WebMvcConfigurer {
+
+	@Bean
+	public ByteBufClient byteBufClient(AsyncClientHttpRequestFactory requestFactory) {
+		return new ByteBufClient(requestFactory);
+	}
+
+	@Override
+	public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+		converters.add(0, new ByteBufHttpMessageConverter()); // Jackson 보다 먼저 (ByteBuf 를 bean 으로 직렬화하지 않도록)
+	}
+}
@@ -0,0 +1,51 @@
+package com.toby.reactive;
+
+import io.netty.buffer.ByteBuf;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 핸들러가 돌려준 ByteBuf 를 응답에 그대로 쓰고 release 한다. (DeferredResult<ByteBuf>, /v3/rest9)
+ * String 으로 바꾸지 않고 ByteBuf 의 바이트를 서블릿 OutputStream 으로 바로 옮긴다. 쓰기만 지원한다.
+ */
+public class ByteBufHttpMessageConverter extends AbstractHttpMessageConverter<ByteBuf> {
+
+	public ByteBufHttpMessageConverter() {
+		super(new MediaType(MediaType.TEXT_PLAIN, StandardCharsets.UTF_8), MediaType.APPLICATION_OCTET_STREAM);
+	}
+
+	@Override
+	protected boolean supports(Class<?> clazz) {
+		return ByteBuf.class.isAssignableFrom(clazz);
+	}
+
+	@Override
+	protected boolean canRead(MediaType mediaType) {
+		return false;
+	}
+
+	@Override
+	protected ByteBuf readInternal(Class<? extends ByteBuf> clazz, HttpInputMessage inputMessage) {
+		throw new HttpMessageNotReadableException("ByteBuf request bodies are not supported", inputMessage);
+	}
+
+	@Override
+	protected Long getContentLength(ByteBuf buf, MediaType contentType) {
+		return (long) buf.readableBytes();
+	}
+
+	@Override
+	protected void writeInternal(ByteBuf buf, HttpOutputMessage outputMessage) throws IOException {
+		try {
+			buf.getBytes(buf.readerIndex(), outputMessage.getBody(), buf.readableBytes());
+		} finally {
+			buf.release();
+		}
+	}
+}
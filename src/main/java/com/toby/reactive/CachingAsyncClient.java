@@ -0,0 +1,231 @@
+package com.toby.reactive;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+import org.springframework.web.client.AsyncRestTemplate;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 공용 AsyncRestTemplate 앞단의 캐시
+ *
+ * - single-flight : 같은 URI 로 이미 나가 있는 호출이 있으면 새로 호출하지 않고 그 future 를 같이 기다린다. (coalesced)
+ * - 결과 캐시     : 2xx 응답은 ttl 동안 재사용한다. 크기가 maxSize 를 넘으면 가장 오래 안 쓰인 것부터 버린다. (LRU)
+ *
+ * 같은 req 로 몰리는 요청이 많을수록 다운스트림 호출 수와 꼬리 지연이 줄어든다.
+ * 실패 응답(5xx, 연결 실패 등)은 캐시하지 않는다. 기다리던 호출자들은 같은 에러를 받는다.
+ *
+ * 취소 : 같은 호출을 기다리는 호출자마다 따로 future 를 준다. 한 호출자가 취소해도 다른 호출자는 계속 기다리고,
+ * 모두 취소하면 그때 다운스트림 호출을 취소한다. (Completion.cancel 이 공유된 호출을 끊지 않도록)
+ */
+public class CachingAsyncClient {
+	private final AsyncRestTemplate rt;
+	private final boolean coalesce;
+	private final long ttlNanos;
+
+	private final Map<String, Flight> inFlight = new ConcurrentHashMap<>();
+	private final LruCache cache;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	public CachingAsyncClient(AsyncRestTemplate rt, CachingAsyncClientProperties properties) {
+		this.rt = rt;
+		this.coalesce = properties.isCoalesce();
+		this.ttlNanos = properties.getTtl().toNanos();
+		this.cache = new LruCache(properties.getMaxSize());
+	}
+
+	public ListenableFuture<ResponseEntity<String>> getForEntity(String url, Object... uriVariables) {
+		URI uri = rt.getUriTemplateHandler().expand(url, uriVariables);
+		String key = uri.toString();
+
+		ResponseEntity<String> cached = cache.get(key);
+		if (cached != null) {
+			hits.increment();
+			SettableListenableFuture<ResponseEntity<String>> f = new SettableListenableFuture<>();
+			f.set(cached);
+			return f;
+		}
+
+		if (!coalesce) {
+			misses.increment();
+			ListenableFuture<ResponseEntity<String>> f = rt.getForEntity(uri, String.class); // 호출자 혼자 쓰므로 취소도 그대로 전달된다
+			f.addCallback(r -> cache.put(key, r), e -> { });
+			return f;
+		}
+
+		for (;;) {
+			Flight existing = inFlight.get(key);
+			if (existing != null) {
+				if (existing.join()) {
+					coalesced.increment();
+					return existing.view();
+				}
+				inFlight.remove(key, existing); // 모두 취소해서 끝나가는 호출 : 새로 보낸다
+				continue;
+			}
+			Flight flight = new Flight(key);
+			if (inFlight.putIfAbsent(key, flight) == null) {
+				misses.increment();
+				flight.call(uri);
+				return flight.view();
+			}
+		}
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getCoalesced() {
+		return coalesced.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public int getSize() {
+		return cache.size();
+	}
+
+	public int getInFlight() {
+		return inFlight.size();
+	}
+
+	/**
+	 * 같은 URI 로 나가 있는 호출 하나와 그것을 기다리는 호출자 수
+	 */
+	private class Flight {
+		final String key;
+		final SettableListenableFuture<ResponseEntity<String>> result = new SettableListenableFuture<>();
+		final AtomicInteger waiters = new AtomicInteger(1); // 0 이 되면(모두 취소) 더 이상 join 할 수 없다
+		volatile ListenableFuture<ResponseEntity<String>> call;
+
+		Flight(String key) {
+			this.key = key;
+		}
+
+		void call(URI uri) {
+			try {
+				call = rt.getForEntity(uri, String.class);
+			} catch (RuntimeException e) {
+				inFlight.remove(key, this);
+				result.setException(e);
+				return;
+			}
+			call.addCallback(r -> {
+				cache.put(key, r); // 캐시에 먼저 넣고 inFlight 에서 빼야 그 사이에 들어온 요청이 다시 호출하지 않는다
+				inFlight.remove(key, this);
+				result.set(r);
+			}, e -> {
+				inFlight.remove(key, this);
+				result.setException(e);
+			});
+		}
+
+		boolean join() {
+			for (;;) {
+				int n = waiters.get();
+				if (n == 0) {
+					return false;
+				}
+				if (waiters.compareAndSet(n, n + 1)) {
+					return true;
+				}
+			}
+		}
+
+		ListenableFuture<ResponseEntity<String>> view() {
+			SettableListenableFuture<ResponseEntity<String>> v = new SettableListenableFuture<>();
+			result.addCallback(v::set, v::setException);
+			v.addCallback(r -> { }, e -> {
+				if (v.isCancelled()) {
+					leave();
+				}
+			});
+			return v;
+		}
+
+		private void leave() {
+			if (waiters.decrementAndGet() == 0) {
+				inFlight.remove(key, this);
+				if (call != null) {
+					call.cancel(false);
+				}
+			}
+		}
+	}
+
+	private static class CachedResponse {
+		final ResponseEntity<String> value;
+		final long expireAt;
+
+		CachedResponse(ResponseEntity<String> value, long expireAt) {
+			this.value = value;
+			this.expireAt = expireAt;
+		}
+	}
+
+	/**
+	 * accessOrder LinkedHashMap : get 할 때마다 맨 뒤로 옮겨지고, 넘치면 맨 앞(가장 오래 안 쓰인 것)을 버린다.
+	 * 읽기도 순서를 바꾸기 때문에 전부 synchronized. (임계구역이 짧아서 호출 빈도에 비해 경합은 작다)
+	 */
+	private class LruCache {
+		private final int maxSize;
+		private final LinkedHashMap<String, CachedResponse> map;
+
+		LruCache(int maxSize) {
+			this.maxSize = maxSize;
+			this.map = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+					if (size() > LruCache.this.maxSize) {
+						evictions.increment();
+						return true;
+					}
+					return false;
+				}
+			};
+		}
+
+		synchronized ResponseEntity<String> get(String key) {
+			if (maxSize <= 0) {
+				return null;
+			}
+			CachedResponse e = map.get(key);
+			if (e == null) {
+				return null;
+			}
+			if (e.expireAt - System.nanoTime() < 0) {
+				map.remove(key);
+				return null;
+			}
+			return e.value;
+		}
+
+		synchronized void put(String key, ResponseEntity<String> value) {
+			if (maxSize <= 0 || ttlNanos <= 0) {
+				return;
+			}
+			map.put(key, new CachedResponse(value, System.nanoTime() + ttlNanos));
+		}
+
+		synchronized int size() {
+			return map.size();
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package com.toby.reactive;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * 다운스트림 호출 캐시 설정 (application.yml 의 reactive.cache.*)
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "reactive.cache")
+public class CachingAsyncClientProperties {
+	private boolean coalesce = true;              // 같은 URI 로 동시에 나가는 호출을 하나로 합친다 (single-flight)
+	private int maxSize = 10000;                  // 결과 캐시 최대 항목 수 (0 이면 결과 캐시를 쓰지 않음)
+	private Duration ttl = Duration.ofSeconds(5); // 결과 캐시 유지 시간
+}
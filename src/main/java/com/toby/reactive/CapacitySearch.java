@@ -0,0 +1,313 @@
+package com.toby.reactive;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 설정 조합별 최대 처리량 탐색 (application.yml 에 주석으로 남아 있는 tomcat 설정들을 손으로 바꿔 보던 것을 대신한다)
+ *
+ * RemoteService 를 하나 띄워 두고, 앱(V1, V2, V3) x 설정 행렬(matrix)의 조합마다
+ * 1. 앱을 그 설정으로 새 JVM 에 띄우고 (이전 조합의 커넥션 / 쓰레드 / JIT 상태가 섞이지 않도록)
+ * 2. LoadTest(open-loop) 로 start-rate 부터 step-factor 배씩 올리면서 단계마다 p99 와 에러율을 SLO 와 비교하고
+ * 3. 처음 SLO 를 넘은 단계와 그 전 단계 사이를 refine 번 반으로 나눠서 좁힌다.
+ * SLO 를 지킨 가장 높은 rate 가 그 조합의 최대 처리량(max_rate). 단계별 결과와 조합별 요약을 CSV 로 낸다.
+ *
+ * 앱들은 다운스트림을 reactive.client.remote-url (기본 localhost:8081) 로 부르므로 RemoteService 는 8081 에 띄운다. (이미 떠 있으면 --boot-remote=false)
+ * 앱의 로그는 log-dir 에 조합마다 남는다.
+ *
+ *   CapacitySearch --apps=v3 --matrix="server.tomcat.threads.max=10,200;reactive.client.event-loop-threads=1,4" \
+ *                  --slo-p99=3000ms --slo-error-rate=0.01 --start-rate=20 --max-rate=2000 --out=capacity.csv
+ */
+@Slf4j
+public class CapacitySearch {
+	// 앱 이름 -> (main class, 부하를 줄 경로). V1 은 DeferredResult 콜백 버전, V2/V3 는 Completion 체인
+	static final Map<String, String[]> APPS = new LinkedHashMap<>();
+
+	static {
+		APPS.put("v1", new String[] {ReactiveApplication.class.getName(), "/rest4?idx={idx}"});
+		APPS.put("v2", new String[] {ReactiveApplicationV2.class.getName(), "/v2/rest6?idx={idx}"});
+		APPS.put("v3", new String[] {ReactiveApplicationV3.class.getName(), "/v3/rest6?idx={idx}"});
+	}
+
+	private static final int REMOTE_PORT = 8081;
+
+	public static void main(String[] args) throws Exception {
+		Config config = Config.parse(args);
+		List<Map<String, String>> combinations = combinations(config.getMatrix());
+		new File(config.getLogDir()).mkdirs();
+
+		StringBuilder steps = new StringBuilder("app,config,rate,requests,error_rate,throughput,p50_ms,p99_ms,max_ms,pass\n");
+		StringBuilder summary = new StringBuilder("app,config,max_rate,p99_ms,error_rate,first_failing_rate\n");
+
+		Process remote = config.isBootRemote()
+				? start("remote", RemoteService.class.getName(), REMOTE_PORT, config.getRemoteArgs(), config)
+				: null;
+		try {
+			for (String app : config.getApps()) {
+				String[] target = APPS.get(app);
+				if (target == null) {
+					throw new IllegalArgumentException("unknown app " + app + " (one of " + APPS.keySet() + ")");
+				}
+				for (Map<String, String> combination : combinations) {
+					String label = label(combination);
+					List<String> appArgs = new ArrayList<>(config.getAppArgs());
+					combination.forEach((k, v) -> appArgs.add("--" + k + "=" + v));
+
+					Process process = start(app + "-" + label.replaceAll("[^A-Za-z0-9.=-]", "_"), target[0], config.getAppPort(), appArgs, config);
+					try {
+						String url = "http://localhost:" + config.getAppPort() + target[1];
+						Search search = search(url, config, (rate, report, pass) -> {
+							String row = stepCsv(app, label, rate, report, pass);
+							System.out.print(row);
+							steps.append(row);
+						});
+						summary.append(app).append(',').append(label).append(',')
+								.append(String.format("%.1f", search.maxRate)).append(',')
+								.append(search.best == null ? "" : String.format("%.1f", search.best.percentileMillis(99))).append(',')
+								.append(search.best == null ? "" : String.format("%.5f", search.best.errorRate())).append(',')
+								.append(search.firstFailingRate == 0 ? "" : String.format("%.1f", search.firstFailingRate))
+								.append('\n');
+						log.info("{} [{}] max sustainable rate {}/s", app, label, String.format("%.1f", search.maxRate));
+					} finally {
+						stop(process);
+					}
+				}
+			}
+		} finally {
+			if (remote != null) {
+				stop(remote);
+			}
+		}
+
+		if (config.getOut() != null) {
+			Files.write(Paths.get(config.getOut()), (steps + "\n" + summary).getBytes(StandardCharsets.UTF_8));
+		}
+		System.out.println();
+		System.out.print(summary);
+	}
+
+	interface StepListener {
+		void step(double rate, LoadTest.Report report, boolean pass);
+	}
+
+	static class Search {
+		double maxRate;           // SLO 를 지킨 가장 높은 rate (0 이면 start-rate 부터 넘었다)
+		LoadTest.Report best;     // maxRate 단계의 결과
+		double firstFailingRate;  // SLO 를 넘은 가장 낮은 rate (0 이면 max-rate 까지 다 지켰다)
+	}
+
+	/**
+	 * start-rate 부터 step-factor 배씩 올리다가 SLO 를 넘으면 [마지막으로 지킨 rate, 넘은 rate] 를 refine 번 반으로 나눈다.
+	 */
+	static Search search(String url, Config config, StepListener listener) throws InterruptedException {
+		Search search = new Search();
+		double rate = config.getStartRate();
+		while (rate <= config.getMaxRate()) {
+			if (!step(url, rate, config, search, listener)) {
+				break;
+			}
+			rate *= config.getStepFactor();
+		}
+		for (int i = 0; i < config.getRefine() && search.firstFailingRate > 0; i++) {
+			double mid = (search.maxRate + search.firstFailingRate) / 2;
+			if (search.firstFailingRate - mid < config.getStartRate() / 10) {
+				break; // 충분히 좁혀졌다
+			}
+			step(url, mid, config, search, listener);
+		}
+		return search;
+	}
+
+	private static boolean step(String url, double rate, Config config, Search search, StepListener listener) throws InterruptedException {
+		LoadTest.Config load = new LoadTest.Config();
+		load.setUrl(url);
+		load.setMode("rate");
+		load.setRate(rate);
+		load.setWarmup(config.getWarmup());
+		load.setDuration(config.getDuration());
+		load.setRequestTimeout(config.getRequestTimeout());
+		LoadTest.Report report = LoadTest.run(load);
+
+		boolean pass = report.percentileMillis(99) <= config.getSloP99().toMillis() && report.errorRate() <= config.getSloErrorRate();
+		if (pass && rate > search.maxRate) {
+			search.maxRate = rate;
+			search.best = report;
+		} else if (!pass && (search.firstFailingRate == 0 || rate < search.firstFailingRate)) {
+			search.firstFailingRate = rate;
+		}
+		listener.step(rate, report, pass);
+		return pass;
+	}
+
+	private static String stepCsv(String app, String label, double rate, LoadTest.Report report, boolean pass) {
+		return String.format("%s,%s,%.1f,%d,%.5f,%.1f,%.3f,%.3f,%.3f,%s%n",
+				app, label, rate, report.getRequests(), report.errorRate(), report.getThroughput(),
+				report.percentileMillis(50), report.percentileMillis(99), report.getLatency().getMaxValue() / 1000.0, pass);
+	}
+
+	/**
+	 * "a=1,2;b=x,y" -> [{a=1,b=x}, {a=1,b=y}, {a=2,b=x}, {a=2,b=y}]
+	 */
+	static List<Map<String, String>> combinations(String matrix) {
+		List<Map<String, String>> result = new ArrayList<>();
+		result.add(new LinkedHashMap<>());
+		if (matrix == null || matrix.isEmpty()) {
+			return result;
+		}
+		for (String axis : matrix.split(";")) {
+			int eq = axis.indexOf('=');
+			if (eq < 0) {
+				throw new IllegalArgumentException("expected property=v1,v2 but was " + axis);
+			}
+			String key = axis.substring(0, eq).trim();
+			List<Map<String, String>> next = new ArrayList<>();
+			for (Map<String, String> partial : result) {
+				for (String value : axis.substring(eq + 1).split(",")) {
+					Map<String, String> m = new LinkedHashMap<>(partial);
+					m.put(key, value.trim());
+					next.add(m);
+				}
+			}
+			result = next;
+		}
+		return result;
+	}
+
+	private static String label(Map<String, String> combination) {
+		if (combination.isEmpty()) {
+			return "default";
+		}
+		StringBuilder sb = new StringBuilder();
+		combination.forEach((k, v) -> sb.append(sb.length() == 0 ? "" : " ").append(k).append('=').append(v));
+		return sb.toString();
+	}
+
+	/**
+	 * 같은 classpath 로 새 JVM 을 띄우고 포트가 응답할 때까지 기다린다.
+	 */
+	private static Process start(String name, String mainClass, int port, List<String> args, Config config) throws IOException, InterruptedException {
+		List<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		command.addAll(config.getJvmArgs());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(mainClass);
+		command.add("--server.port=" + port);
+		command.addAll(args);
+
+		File logFile = Paths.get(config.getLogDir(), name + ".log").toFile();
+		log.info("starting {} : {} (log {})", name, String.join(" ", command.subList(command.indexOf(mainClass), command.size())), logFile);
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(logFile).start();
+		Runtime.getRuntime().addShutdownHook(new Thread(process::destroyForcibly)); // 중간에 ctrl-c 로 끊어도 남지 않도록
+
+		HttpClient client = HttpClient.newHttpClient();
+		long deadline = System.nanoTime() + config.getStartupTimeout().toNanos();
+		while (System.nanoTime() < deadline) {
+			if (!process.isAlive()) {
+				throw new IllegalStateException(name + " exited with " + process.exitValue() + " (see " + logFile + ")");
+			}
+			try {
+				client.send(HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/actuator/health")).timeout(Duration.ofSeconds(2)).build(),
+						HttpResponse.BodyHandlers.discarding());
+				return process; // 상태 코드와 관계없이 응답하면 떠 있다
+			} catch (ConnectException | java.net.http.HttpTimeoutException e) {
+				TimeUnit.MILLISECONDS.sleep(500);
+			}
+		}
+		stop(process);
+		throw new IllegalStateException(name + " did not start within " + config.getStartupTimeout() + " (see " + logFile + ")");
+	}
+
+	private static void stop(Process process) throws InterruptedException {
+		process.destroy(); // SIGTERM : spring 이 정상 종료
+		if (!process.waitFor(15, TimeUnit.SECONDS)) {
+			process.destroyForcibly().waitFor();
+		}
+	}
+
+	@Getter
+	@Setter
+	public static class Config {
+		private List<String> apps = List.of("v1", "v2", "v3");
+		private String matrix = "server.tomcat.threads.max=10,200;reactive.client.event-loop-threads=1,4"; // property=v1,v2;property=...
+		private List<String> appArgs = List.of();          // 모든 조합에 공통으로 줄 앱 인자 (예 : --reactive.limit.enabled=false)
+		private List<String> remoteArgs = List.of();       // RemoteService 인자 (예 : --remote.endpoints.service.delay=fixed:200)
+		private List<String> jvmArgs = List.of("-Xmx1g");
+		private boolean bootRemote = true;
+		private int appPort = 8083;
+		private double startRate = 10;                     // 초당 요청 수
+		private double stepFactor = 2;
+		private double maxRate = 5000;
+		private int refine = 3;                            // SLO 경계를 반으로 나누는 횟수
+		private Duration sloP99 = Duration.ofSeconds(5);   // rest6 는 2초 + 2초 직렬이라 기본 지연만 4초
+		private double sloErrorRate = 0.01;
+		private Duration warmup = Duration.ofSeconds(5);
+		private Duration duration = Duration.ofSeconds(15);
+		private Duration requestTimeout = Duration.ofSeconds(30);
+		private Duration startupTimeout = Duration.ofSeconds(120);
+		private String logDir = "build/capacity";
+		private String out;
+
+		public static Config parse(String[] args) {
+			Config config = new Config();
+			for (String arg : args) {
+				int eq = arg.indexOf('=');
+				if (!arg.startsWith("--") || eq < 0) {
+					throw new IllegalArgumentException("expected --key=value but was " + arg);
+				}
+				String key = arg.substring(2, eq);
+				String value = arg.substring(eq + 1);
+				switch (key) {
+					case "apps": config.apps = List.of(value.split(",")); break;
+					case "matrix": config.matrix = value; break;
+					case "app-args": config.appArgs = splitArgs(value); break;
+					case "remote-args": config.remoteArgs = splitArgs(value); break;
+					case "jvm-args": config.jvmArgs = splitArgs(value); break;
+					case "boot-remote": config.bootRemote = Boolean.parseBoolean(value); break;
+					case "app-port": config.appPort = Integer.parseInt(value); break;
+					case "start-rate": config.startRate = Double.parseDouble(value); break;
+					case "step-factor": config.stepFactor = Double.parseDouble(value); break;
+					case "max-rate": config.maxRate = Double.parseDouble(value); break;
+					case "refine": config.refine = Integer.parseInt(value); break;
+					case "slo-p99": config.sloP99 = LoadTest.Config.parseDuration(value); break;
+					case "slo-error-rate": config.sloErrorRate = Double.parseDouble(value); break;
+					case "warmup": config.warmup = LoadTest.Config.parseDuration(value); break;
+					case "duration": config.duration = LoadTest.Config.parseDuration(value); break;
+					case "request-timeout": config.requestTimeout = LoadTest.Config.parseDuration(value); break;
+					case "startup-timeout": config.startupTimeout = LoadTest.Config.parseDuration(value); break;
+					case "log-dir": config.logDir = value; break;
+					case "out": config.out = value; break;
+					default: throw new IllegalArgumentException("unknown option --" + key);
+				}
+			}
+			if (config.stepFactor <= 1) {
+				throw new IllegalArgumentException("--step-factor must be greater than 1");
+			}
+			return config;
+		}
+
+		// 공백으로 나눈 인자 목록 : --app-args="--reactive.limit.enabled=false --reactive.cache.coalesce=false"
+		private static List<String> splitArgs(String value) {
+			return value.trim().isEmpty() ? List.of() : Arrays.asList(value.trim().split("\\s+"));
+		}
+	}
+}
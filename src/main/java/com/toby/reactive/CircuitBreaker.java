@@ -0,0 +1,173 @@
+package com.toby.reactive;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 다운스트림 하나에 대한 circuit breaker
+ *
+ * 최근 windowSize 번의 호출 결과(실패 / 느림)를 링 버퍼에 기록한다.
+ * - CLOSED    : 정상. 최근 호출의 실패율 또는 느린 호출 비율이 임계치를 넘으면 OPEN
+ * - OPEN      : 네트워크를 건드리지 않고 바로 실패. openDuration 이 지나면 HALF_OPEN
+ * - HALF_OPEN : halfOpenCalls 개만 시험 삼아 보내고, 그 결과가 임계치 아래면 CLOSED, 아니면 다시 OPEN
+ *
+ * tryAcquire 의 CLOSED 경로는 volatile 읽기 하나, 결과 기록과 상태 전이만 synchronized.
+ */
+public class CircuitBreaker {
+	public enum State { CLOSED, OPEN, HALF_OPEN }
+
+	private final int minimumCalls;
+	private final double failureRateThreshold;
+	private final double slowCallRateThreshold;
+	private final long slowCallNanos;
+	private final long openNanos;
+	private final int halfOpenCalls;
+
+	private volatile State state = State.CLOSED;
+	private volatile long openedAt;
+	private final AtomicInteger halfOpenPermits = new AtomicInteger();
+	private final LongAdder notPermitted = new LongAdder();
+
+	// 아래는 synchronized(this) 안에서만 접근
+	private final byte[] window; // 0 : 정상, FAILED / SLOW 비트
+	private int position;
+	private int recorded;
+	private int failures;
+	private int slowCalls;
+
+	private static final byte FAILED = 1;
+	private static final byte SLOW = 2;
+
+	/**
+	 * @param failureRateThreshold  0 ~ 100 (%)
+	 * @param slowCallRateThreshold 0 ~ 100 (%)
+	 */
+	public CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold, double slowCallRateThreshold,
+			long slowCall, long open, TimeUnit unit, int halfOpenCalls) {
+		this.minimumCalls = Math.min(minimumCalls, windowSize);
+		this.failureRateThreshold = failureRateThreshold;
+		this.slowCallRateThreshold = slowCallRateThreshold;
+		this.slowCallNanos = unit.toNanos(slowCall);
+		this.openNanos = unit.toNanos(open);
+		this.halfOpenCalls = halfOpenCalls;
+		this.window = new byte[windowSize];
+	}
+
+	/**
+	 * @return 호출해도 되면 true (이 경우 반드시 onSuccess / onError / onIgnore 중 하나를 호출해야 한다)
+	 */
+	public boolean tryAcquire() {
+		State s = state;
+		if (s == State.CLOSED) {
+			return true;
+		}
+		if (s == State.OPEN) {
+			if (System.nanoTime() - openedAt < openNanos) {
+				notPermitted.increment();
+				return false;
+			}
+			toHalfOpen();
+		}
+		// HALF_OPEN : 시험 호출 개수만큼만 통과
+		for (;;) {
+			int permits = halfOpenPermits.get();
+			if (permits <= 0 || state != State.HALF_OPEN) {
+				notPermitted.increment();
+				return false;
+			}
+			if (halfOpenPermits.compareAndSet(permits, permits - 1)) {
+				return true;
+			}
+		}
+	}
+
+	public void onSuccess(long latencyNanos) {
+		record(latencyNanos >= slowCallNanos ? SLOW : 0);
+	}
+
+	public void onError(long latencyNanos) {
+		record((byte) (FAILED | (latencyNanos >= slowCallNanos ? SLOW : 0)));
+	}
+
+	/**
+	 * 4xx 처럼 다운스트림 상태와 무관한 결과 : 기록하지 않고 HALF_OPEN 의 시험 호출 자리만 돌려준다.
+	 */
+	public void onIgnore() {
+		if (state == State.HALF_OPEN) {
+			halfOpenPermits.incrementAndGet();
+		}
+	}
+
+	private synchronized void record(byte outcome) {
+		if (recorded == window.length) {
+			byte old = window[position];
+			failures -= old & FAILED;
+			slowCalls -= (old & SLOW) >> 1;
+		} else {
+			recorded++;
+		}
+		window[position] = outcome;
+		failures += outcome & FAILED;
+		slowCalls += (outcome & SLOW) >> 1;
+		position = (position + 1) % window.length;
+
+		if (state == State.HALF_OPEN) {
+			if (recorded >= halfOpenCalls) {
+				if (exceeded()) {
+					toOpen();
+				} else {
+					toClosed();
+				}
+			}
+		} else if (state == State.CLOSED && recorded >= minimumCalls && exceeded()) {
+			toOpen();
+		}
+	}
+
+	private boolean exceeded() {
+		return failures * 100.0 / recorded >= failureRateThreshold
+				|| slowCalls * 100.0 / recorded >= slowCallRateThreshold;
+	}
+
+	private synchronized void toHalfOpen() {
+		if (state == State.OPEN) {
+			resetWindow();
+			halfOpenPermits.set(halfOpenCalls);
+			state = State.HALF_OPEN;
+		}
+	}
+
+	private void toOpen() {
+		openedAt = System.nanoTime();
+		state = State.OPEN;
+	}
+
+	private void toClosed() {
+		resetWindow();
+		state = State.CLOSED;
+	}
+
+	private void resetWindow() {
+		position = 0;
+		recorded = 0;
+		failures = 0;
+		slowCalls = 0;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	public long getNotPermitted() {
+		return notPermitted.sum();
+	}
+
+	public synchronized double getFailureRate() {
+		return recorded == 0 ? 0 : failures * 100.0 / recorded;
+	}
+
+	public synchronized double getSlowCallRate() {
+		return recorded == 0 ? 0 : slowCalls * 100.0 / recorded;
+	}
+}
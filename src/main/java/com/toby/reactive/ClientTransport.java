@@ -0,0 +1,55 @@
+package com.toby.reactive;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 클라이언트 이벤트 루프 구현 (reactive.client.transport)
+ * - NIO   : JDK Selector. 어디서나 동작한다
+ * - EPOLL : netty native epoll (리눅스). JDK selector 의 SelectionKey 집합 / 래퍼 객체 없이 epoll_wait 결과를 바로 처리한다
+ * - AUTO  : 쓸 수 있으면 EPOLL, 아니면 NIO
+ * 명시한 transport 를 쓸 수 없으면 (다른 OS 등) 시작할 때 실패한다.
+ * io_uring 은 받지 않는다 : netty 4.1.69 에 맞는 netty-incubator-transport-native-io_uring 을 고정하고 로딩을 확인할 때까지.
+ *
+ * 소켓 채널 클래스는 그룹의 종류로 정한다(socketChannel). 팩토리들이 transport 설정을 따로 들고 다니지 않도록.
+ */
+public final class ClientTransport {
+
+	private ClientTransport() {
+	}
+
+	public static EventLoopGroup eventLoopGroup(AsyncClientProperties.Transport transport, int threads) {
+		AsyncClientProperties.Transport resolved = resolve(transport);
+		ThreadFactory threadFactory = new DefaultThreadFactory("client-" + resolved.name().toLowerCase());
+		if (resolved == AsyncClientProperties.Transport.EPOLL) {
+			return new EpollEventLoopGroup(threads, threadFactory);
+		}
+		return new NioEventLoopGroup(threads, threadFactory);
+	}
+
+	public static Class<? extends SocketChannel> socketChannel(EventLoopGroup group) {
+		return group instanceof EpollEventLoopGroup ? EpollSocketChannel.class : NioSocketChannel.class;
+	}
+
+	static AsyncClientProperties.Transport resolve(AsyncClientProperties.Transport transport) {
+		switch (transport) {
+			case AUTO:
+				return Epoll.isAvailable() ? AsyncClientProperties.Transport.EPOLL : AsyncClientProperties.Transport.NIO;
+			case EPOLL:
+				if (!Epoll.isAvailable()) {
+					throw new IllegalStateException("epoll transport is not available", Epoll.unavailabilityCause());
+				}
+				return transport;
+			default:
+				return transport;
+		}
+	}
+}
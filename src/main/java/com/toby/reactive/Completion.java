@@ -0,0 +1,877 @@
+package com.toby.reactive;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.Timer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 비동기 작업 체인의 한 단계.
+ * S : 앞 단계에서 전달받는 값의 타입, T : 이 단계가 만들어 다음 단계로 넘기는 값의 타입
+ *
+ * 결과(또는 에러)가 다음 단계가 붙기 전에 도착할 수 있기 때문에 (ReactiveApplicationV3 의 기존 구현은 이 경우 결과가 유실됨)
+ * state 하나를 CAS 로 전이시키는 lock-free 상태 머신으로 관리한다.
+ * - null      : 아무것도 도착하지 않음
+ * - Completion: 다음 단계가 먼저 등록됨 -> 결과가 오면 바로 전달
+ * - Outcome   : 결과가 먼저 도착함 -> 다음 단계가 등록될 때 전달
+ * - DONE      : 다음 단계에 전달 완료 (이후의 결과는 무시 - 먼저 온 결과가 이긴다)
+ * - CANCELLED : cancel() 됨. 이후에 오는 결과는 다음 단계로 넘기지 않고 버린다 (참조 카운트 객체면 release)
+ *
+ * cancel() 은 체인의 뒤에서 앞으로 (prev) 거슬러 가면서 모든 단계를 CANCELLED 로 만들고, 각 단계가 기다리던 호출(pending)을 취소한다.
+ * DeferredResult 가 timeout 되거나 클라이언트가 끊으면 andAccept 가 돌려준 마지막 단계를 cancel 해서
+ * 나가 있는 호출(과 그 커넥션)을 정리하고 남은 단계가 실행되지 않게 한다. (dr.onCompletion(chain::cancel))
+ *
+ * 다음 단계는 결과를 전달한 쓰레드(대개 netty 이벤트 루프)에서 바로 실행된다. 가벼운 단계는 그대로 두고(쓰레드 전환 비용이 없다)
+ * CPU 를 많이 쓰거나 블로킹하는 단계는 andApplyAsync / andAcceptAsync 로 실행할 executor 를 고른다. (StageExecutors 참고)
+ */
+@Slf4j
+public class Completion<S, T> {
+	private static final Object DONE = new Object();
+	private static final Object CANCELLED = new Object();
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<Completion, Object> STATE =
+			AtomicReferenceFieldUpdater.newUpdater(Completion.class, Object.class, "state");
+
+	private volatile Object state;
+	private volatile Completion<?, ?> prev; // 앞 단계 (cancel 을 거슬러 전달). attach 에서 정해진다
+	private volatile Object pending;        // 이 단계가 기다리는 호출 : Future 또는 List<Future> (cancel 할 때 취소)
+	long trace; // TimelineRecorder 의 trace id (0 이면 기록하지 않음). attach 에서 다음 단계로 물려준다
+
+	/**
+	 * 단계 종류 (StageObserver 에 넘기는 값)
+	 */
+	public enum Stage { FROM, APPLY, APPLY_ALL, ACCEPT, ERROR }
+
+	/**
+	 * 단계별 소요시간을 받는 hook. 단계가 끝날 때마다 호출되므로 가벼워야 한다. (CompletionMetrics 가 Micrometer Timer 로 기록)
+	 * - FROM, APPLY, APPLY_ALL : 호출을 보낸 시점부터 결과가 도착할 때까지
+	 * - ACCEPT, ERROR          : consumer 실행 시간
+	 */
+	public interface StageObserver {
+		StageObserver NONE = (stage, nanos, success) -> { };
+
+		void record(Stage stage, long nanos, boolean success);
+	}
+
+	// hook 은 JVM 에 하나라서 바꾸는 쪽(set / clear)만 Completion.class 로 순서를 맞추고, 읽는 쪽은 volatile 읽기 하나
+	private static volatile StageObserver observer = StageObserver.NONE;
+
+	public static synchronized void setObserver(StageObserver stageObserver) {
+		observer = stageObserver != null ? stageObserver : StageObserver.NONE;
+	}
+
+	/**
+	 * hook 이 아직 expected 일 때만 되돌린다. 나중에 뜬 컨텍스트가 자기 것으로 바꿔 놓았으면 그대로 둔다.
+	 */
+	public static synchronized void clearObserver(StageObserver expected) {
+		if (observer == expected) {
+			observer = StageObserver.NONE;
+		}
+	}
+
+	static void observe(Stage stage, long startNanos, boolean success) {
+		observer.record(stage, System.nanoTime() - startNanos, success);
+	}
+
+	private static volatile PipelineLog pipelineLog = PipelineLog.OFF; // 콜백 로그 정책 (PipelineLogConfig 가 설정)
+
+	public static synchronized void setPipelineLog(PipelineLog log) {
+		pipelineLog = log != null ? log : PipelineLog.OFF;
+	}
+
+	/**
+	 * hook 이 아직 expected 일 때만 OFF 로 되돌린다. (clearObserver 참고)
+	 */
+	public static synchronized void clearPipelineLog(PipelineLog expected) {
+		if (pipelineLog == expected) {
+			pipelineLog = PipelineLog.OFF;
+		}
+	}
+
+	static PipelineLog pipelineLog() {
+		return pipelineLog;
+	}
+
+	private static volatile TimelineRecorder recorder; // null 이면 timeline 을 기록하지 않는다
+
+	public static synchronized void setRecorder(TimelineRecorder timelineRecorder) {
+		recorder = timelineRecorder;
+	}
+
+	/**
+	 * hook 이 아직 expected 일 때만 끈다. (clearObserver 참고)
+	 */
+	public static synchronized void clearRecorder(TimelineRecorder expected) {
+		if (recorder == expected) {
+			recorder = null;
+		}
+	}
+
+	static TimelineRecorder recorder() {
+		return recorder;
+	}
+
+	/**
+	 * 체인의 첫 단계에서 trace 를 시작한다.
+	 */
+	void beginTrace() {
+		TimelineRecorder r = recorder;
+		if (r != null) {
+			trace = r.begin();
+			r.stamp(trace, TimelineRecorder.Event.START, stage());
+		}
+	}
+
+	void stamp(TimelineRecorder.Event event) {
+		TimelineRecorder r = recorder;
+		if (r != null && trace != 0) {
+			r.stamp(trace, event, stage());
+		}
+	}
+
+	void finishTrace() {
+		TimelineRecorder r = recorder;
+		if (r != null && trace != 0) {
+			r.stamp(trace, TimelineRecorder.Event.RESULT_SET, stage());
+			r.finish(trace);
+		}
+	}
+
+	Stage stage() {
+		return Stage.FROM;
+	}
+
+	public static <S, T> Completion<S, T> from(ListenableFuture<T> lf) { //비동기 작업의 결과를 담는 용도
+		Completion<S, T> completion = new Completion<>();
+		completion.beginTrace();
+		completion.pending = lf;
+
+		long start = System.nanoTime();
+		lf.addCallback(s -> {
+			long nanos = System.nanoTime() - start;
+			observer.record(Stage.FROM, nanos, true);
+			pipelineLog.success(Stage.FROM, nanos, s);
+			completion.stamp(TimelineRecorder.Event.CALLBACK);
+			completion.complete(s);
+		}, e -> {
+			if (!completion.cancelledBy(e)) {
+				long nanos = System.nanoTime() - start;
+				observer.record(Stage.FROM, nanos, false);
+				pipelineLog.error(Stage.FROM, nanos, e);
+				completion.stamp(TimelineRecorder.Event.ERROR);
+			}
+			completion.error(e);
+		});
+
+		return completion;
+	}
+
+	/**
+	 * fan-out / join : 서로 독립적인 호출들을 동시에 보내고 모두 끝났을 때 결과를 (입력 순서대로) 모아서 넘긴다.
+	 * 하나라도 실패하면 먼저 온 에러로 끝나고 나머지 호출은 취소한다.
+	 */
+	public static <S, T> Completion<S, List<T>> allOf(List<? extends ListenableFuture<? extends T>> lfs) {
+		Completion<S, List<T>> completion = new Completion<>();
+		completion.beginTrace();
+		completion.pending = lfs;
+		joinAll(lfs, completion);
+		return completion;
+	}
+
+	/**
+	 * 가장 먼저 성공한 결과를 넘긴다. 모두 실패한 경우에만 마지막 에러로 끝난다.
+	 * 결과가 정해지면 나머지 호출은 취소하고(커넥션 / bulkhead 자리를 바로 돌려받는다), 그래도 늦게 도착한 값은 release 한다. (hedge 와 같다)
+	 */
+	public static <S, T> Completion<S, T> anyOf(List<? extends ListenableFuture<? extends T>> lfs) {
+		Completion<S, T> completion = new Completion<>();
+		completion.beginTrace();
+		completion.pending = lfs;
+		int n = lfs.size();
+		if (n == 0) {
+			completion.error(new IllegalArgumentException("anyOf requires at least one future"));
+			return completion;
+		}
+		AtomicInteger failures = new AtomicInteger(n);
+		AtomicBoolean won = new AtomicBoolean();
+		for (ListenableFuture<? extends T> lf : lfs) {
+			lf.addCallback(s -> {
+				if (!won.compareAndSet(false, true)) {
+					ReferenceCountUtil.release(s); // 진 쪽 : 받을 곳이 없다
+					return;
+				}
+				completion.stamp(TimelineRecorder.Event.CALLBACK);
+				completion.complete(s);
+				cancelAll(lfs);
+			}, e -> {
+				completion.stamp(TimelineRecorder.Event.ERROR);
+				if (failures.decrementAndGet() == 0) {
+					completion.error(e);
+				}
+			});
+		}
+		return completion;
+	}
+
+	/**
+	 * 타입이 다른 두 호출을 동시에 보내고 두 결과를 fn 으로 합친다.
+	 */
+	public static <S, A, B, T> Completion<S, T> zip(ListenableFuture<A> lf1, ListenableFuture<B> lf2, BiFunction<A, B, T> fn) {
+		Completion<S, List<Object>> joined = new Completion<>();
+		joined.beginTrace();
+		List<ListenableFuture<?>> lfs = Arrays.asList(lf1, lf2);
+		joined.pending = lfs;
+		joinAll(lfs, joined);
+
+		Completion<S, T> completion = new Completion<>();
+		completion.trace = joined.trace;
+		completion.prev = joined;
+		joined.attach(new Completion<List<Object>, Void>() {
+			@Override
+			@SuppressWarnings("unchecked")
+			void run(List<Object> value) {
+				T zipped;
+				try {
+					zipped = fn.apply((A) value.get(0), (B) value.get(1));
+				} catch (RuntimeException e) {
+					completion.error(e);
+					return;
+				}
+				completion.complete(zipped);
+			}
+
+			@Override
+			void error(Throwable e) {
+				completion.error(e);
+			}
+		});
+		return completion;
+	}
+
+	@SuppressWarnings("unchecked")
+	static <T> void joinAll(List<? extends ListenableFuture<? extends T>> lfs, Completion<?, List<T>> target) {
+		int n = lfs.size();
+		if (n == 0) {
+			target.complete(Collections.emptyList());
+			return;
+		}
+		// 각 슬롯은 한 콜백만 쓰고, 마지막 decrementAndGet 이 앞선 쓰기들을 모두 볼 수 있게 해준다(happens-before)
+		Object[] results = new Object[n];
+		AtomicInteger remaining = new AtomicInteger(n);
+		AtomicBoolean failed = new AtomicBoolean();
+		for (int i = 0; i < n; i++) {
+			int idx = i;
+			lfs.get(i).addCallback(s -> {
+				target.stamp(TimelineRecorder.Event.CALLBACK); // 호출마다 하나씩 : 어느 쪽이 늦었는지
+				results[idx] = s;
+				if (remaining.decrementAndGet() == 0) {
+					target.complete((List<T>) Arrays.asList(results));
+				}
+			}, e -> {
+				target.stamp(TimelineRecorder.Event.ERROR);
+				target.error(e);
+				if (failed.compareAndSet(false, true)) {
+					cancelAll(lfs); // 결과가 정해졌다 : 나머지 호출이 커넥션 / bulkhead 자리를 계속 쥐고 있지 않게
+				}
+			});
+		}
+	}
+
+	/**
+	 * lf 가 timeout 안에 끝나지 않으면 원래 호출을 취소하고 TimeoutException 으로 실패하는 future.
+	 * 취소를 먼저 한다 : 버려진 호출이 계속 돌면 뒤이은 재시도 / hedge 가 그 위에 부하를 더 얹고,
+	 * Downstream.call 의 bulkhead 도 실제로는 나가 있는 호출의 자리를 돌려받게 된다. (HTTP/1.1 커넥션은 닫힌다)
+	 * 돌려준 future 가 취소되면(Completion.cancel) 원래 호출도 취소한다.
+	 * 취소와 엇갈려 도착한 값이 ByteBuf 같은 참조 카운트 객체면 받을 쪽이 없으므로 여기서 release 한다.
+	 */
+	public static <V> ListenableFuture<V> timeout(ListenableFuture<V> lf, Duration timeout) {
+		SettableListenableFuture<V> result = new SettableListenableFuture<>();
+		AtomicReference<TimeoutException> expired = new AtomicReference<>();
+		Timeout t = Timers.TIMER.newTimeout(x -> {
+			expired.set(new TimeoutException("no response within " + timeout.toMillis() + "ms"));
+			lf.cancel(false);                   // 아래 에러 콜백이 CancellationException 대신 TimeoutException 으로 result 를 끝낸다
+			result.setException(expired.get()); // 취소되지 않은 경우 (그 사이에 끝났거나 취소를 지원하지 않는 future)
+		}, timeout.toNanos(), TimeUnit.NANOSECONDS);
+		forwardCancel(result, lf);
+		lf.addCallback(v -> {
+			t.cancel();
+			setOrRelease(result, v);
+		}, e -> {
+			t.cancel();
+			TimeoutException te = expired.get();
+			result.setException(te != null ? te : e);
+		});
+		return result;
+	}
+
+	/**
+	 * 실패하면 budget 의 backoff (jitter) 만큼 기다렸다가 call 을 다시 호출한다. 최대 budget.maxAttempts 번, 그리고 재시도 예산이 남아있을 때만.
+	 * 4xx 는 다시 보내도 결과가 같으므로 재시도하지 않는다.
+	 * breaker OPEN / bulkhead 가득 참 (DownstreamUnavailableException), executor 큐가 가득 참 (RejectedExecutionException) 도
+	 * 과부하를 알리는 실패라서 재시도하지 않는다. 다시 보내봐야 같은 이유로 거절되면서 예산만 쓰고, 받아주면 부하를 더 얹는다.
+	 * 기다린 뒤의 재시도는 timer 쓰레드에서 보낸다. (call 은 비동기 호출을 시작만 하므로 오래 붙잡지 않는다)
+	 */
+	public static <V> ListenableFuture<V> retry(RetryBudget budget, Supplier<ListenableFuture<V>> call) {
+		SettableListenableFuture<V> result = new SettableListenableFuture<>();
+		budget.deposit();
+		retryAttempt(call, result, budget, 1);
+		return result;
+	}
+
+	/**
+	 * outer (호출자에게 돌려준 future) 가 취소되면 그 아래에서 기다리는 inner 도 취소한다.
+	 * 실행 중인 내부 작업 쓰레드는 interrupt 하지 않는다.
+	 */
+	static void forwardCancel(ListenableFuture<?> outer, Future<?> inner) {
+		outer.addCallback(v -> { }, e -> {
+			if (outer.isCancelled()) {
+				inner.cancel(false);
+			}
+		});
+	}
+
+	private static <V> void retryAttempt(Supplier<ListenableFuture<V>> call, SettableListenableFuture<V> result, RetryBudget budget, int attempt) {
+		ListenableFuture<V> lf;
+		try {
+			lf = call.get();
+		} catch (RuntimeException e) {
+			result.setException(e);
+			return;
+		}
+		forwardCancel(result, lf); // 취소된 뒤에는 e 가 CancellationException 이고 result 가 끝나 있으므로 재시도하지 않는다
+		lf.addCallback(result::set, e -> {
+			if (!result.isDone() && attempt < budget.getMaxAttempts() && isRetryable(e) && budget.tryWithdraw()) {
+				long backoff = budget.backoffNanos(attempt);
+				log.debug("retry attempt {} in {}us after {}", attempt + 1, backoff / 1000, e.getMessage()); // toString() 은 debug 가 꺼져 있어도 매번 문자열을 만든다
+				if (backoff == 0) {
+					retryAttempt(call, result, budget, attempt + 1);
+					return;
+				}
+				Timeout t = Timers.TIMER.newTimeout(x -> {
+					if (!result.isDone()) { // 기다리는 동안 취소됐으면 보내지 않는다
+						retryAttempt(call, result, budget, attempt + 1);
+					}
+				}, backoff, TimeUnit.NANOSECONDS);
+				result.addCallback(v -> t.cancel(), x -> t.cancel());
+			} else {
+				result.setException(e);
+			}
+		});
+	}
+
+	private static boolean isRetryable(Throwable e) {
+		return !(e instanceof HttpClientErrorException)
+				&& !(e instanceof DownstreamUnavailableException)
+				&& !(e instanceof RejectedExecutionException);
+	}
+
+	/**
+	 * call 을 보내고, policy 의 hedge 지연(최근 지연시간의 percentile)이 지나도록 응답이 없으면 한 번 더 보낸다.
+	 * 먼저 성공한 응답을 쓰고, 둘 다 실패해야 실패한다. 결과가 정해지면(또는 result 가 취소되면) 아직 나가 있는 쪽은 취소한다.
+	 * 취소가 늦어서 도착한 응답은 버린다. (참조 카운트 객체면 release)
+	 */
+	public static <V> ListenableFuture<V> hedge(HedgePolicy policy, Supplier<ListenableFuture<V>> call) {
+		SettableListenableFuture<V> result = new SettableListenableFuture<>();
+		AtomicInteger pending = new AtomicInteger(1);
+		List<ListenableFuture<V>> attempts = new CopyOnWriteArrayList<>(); // 많아야 2개
+		policy.onRequest();
+		hedgeAttempt(call, result, policy, pending, attempts, false);
+
+		long delay = policy.getDelayNanos();
+		if (delay != Long.MAX_VALUE && !result.isDone()) {
+			Timeout t = Timers.TIMER.newTimeout(x -> {
+				if (!result.isDone() && policy.tryHedge()) {
+					pending.incrementAndGet();
+					hedgeAttempt(call, result, policy, pending, attempts, true);
+				}
+			}, delay, TimeUnit.NANOSECONDS);
+			result.addCallback(v -> t.cancel(), e -> t.cancel()); // 제 시간에 끝나면 예약을 바로 치운다
+		}
+		result.addCallback(v -> cancelAll(attempts), e -> cancelAll(attempts)); // 진 쪽 (끝난 것은 cancel 해도 아무 일 없다)
+		return result;
+	}
+
+	private static void cancelAll(List<? extends Future<?>> futures) {
+		for (Future<?> f : futures) {
+			f.cancel(false);
+		}
+	}
+
+	private static <V> void hedgeAttempt(Supplier<ListenableFuture<V>> call, SettableListenableFuture<V> result, HedgePolicy policy,
+			AtomicInteger pending, List<ListenableFuture<V>> attempts, boolean hedged) {
+		long start = System.nanoTime();
+		ListenableFuture<V> lf;
+		try {
+			lf = call.get();
+		} catch (RuntimeException e) {
+			if (pending.decrementAndGet() == 0) {
+				result.setException(e);
+			}
+			return;
+		}
+		attempts.add(lf);
+		if (result.isDone()) { // 결과가 정해진 뒤에 추가됐으면 cancelAll 이 못 봤을 수 있다
+			lf.cancel(false);
+		}
+		lf.addCallback(v -> {
+			policy.record(System.nanoTime() - start);
+			if (setOrRelease(result, v) && hedged) {
+				policy.onHedgeWin();
+			}
+		}, e -> {
+			if (pending.decrementAndGet() == 0) {
+				result.setException(e);
+			}
+		});
+	}
+
+	/**
+	 * 이미 다른 값/에러로 끝난 future 에 늦게 온 값은 아무도 받지 않는다. ByteBuf 처럼 참조 카운트가 있는 값이면 여기서 release.
+	 */
+	static <V> boolean setOrRelease(SettableListenableFuture<V> result, V value) {
+		if (result.set(value)) {
+			return true;
+		}
+		ReferenceCountUtil.release(value);
+		return false;
+	}
+
+	public <V> Completion<T, V> andApply(Function<T, ListenableFuture<V>> fn) {
+		return attach(new ApplyCompletion<>(fn));
+	}
+
+	/**
+	 * andApply 와 같지만 fn 을 executor 에서 실행한다. executor 가 받지 못하면(RejectedExecutionException) 에러 경로로 간다.
+	 */
+	public <V> Completion<T, V> andApplyAsync(Function<T, ListenableFuture<V>> fn, Executor executor) {
+		return attach(new ApplyCompletion<>(fn, executor));
+	}
+
+	/**
+	 * andApply + 호출 제한 시간 : fn 이 만든 호출이 timeout 안에 끝나지 않으면 TimeoutException 으로 에러 경로로 간다.
+	 * DeferredResult 가 서블릿 컨테이너의 async timeout 까지 붙잡혀 있지 않게 단계마다 건다.
+	 */
+	public <V> Completion<T, V> andTimeout(Duration timeout, Function<T, ListenableFuture<V>> fn) {
+		return andApply(s -> timeout(fn.apply(s), timeout));
+	}
+
+	/**
+	 * andApply + 재시도 (retry 참고). 시도마다 제한 시간을 걸려면 fn 안에서 Completion.timeout 으로 감싼다.
+	 */
+	public <V> Completion<T, V> andRetry(RetryBudget budget, Function<T, ListenableFuture<V>> fn) {
+		return andApply(s -> retry(budget, () -> fn.apply(s)));
+	}
+
+	/**
+	 * andApply + hedged request (hedge 참고)
+	 */
+	public <V> Completion<T, V> andHedge(HedgePolicy policy, Function<T, ListenableFuture<V>> fn) {
+		return andApply(s -> hedge(policy, () -> fn.apply(s)));
+	}
+
+	/**
+	 * andApply + circuit breaker / bulkhead (Downstream.call 참고). 열려 있으면 호출하지 않고 바로 에러 경로로 간다.
+	 */
+	public <V> Completion<T, V> andCall(Downstream downstream, Function<T, ListenableFuture<V>> fn) {
+		return andApply(s -> downstream.call(() -> fn.apply(s)));
+	}
+
+	/**
+	 * 앞 단계의 결과로 여러 호출을 동시에 보내고(fan-out) 모두 끝나면 결과 목록을 넘긴다(join).
+	 */
+	public <V> Completion<T, List<V>> andApplyAll(Function<T, List<? extends ListenableFuture<? extends V>>> fn) {
+		return attach(new ApplyAllCompletion<>(fn));
+	}
+
+	/*
+	 * T : 앞의 실행의 결과로써 리턴되는 것
+	 * 요청을 Lamda 형식으로 보냈기 때문에 Consumer 등의 Functional Interface로 받아서 선언할 수 있다.
+	 * 돌려주는 마지막 단계는 체인 전체를 취소하는 손잡이 (cancel)
+	 */
+	public Completion<T, Void> andAccept(Consumer<T> consumer) {
+		return attach(new AcceptCompletion<>(consumer));
+	}
+
+	/**
+	 * andAccept 와 같지만 consumer 를 executor 에서 실행한다.
+	 * executor 가 받지 못하면(RejectedExecutionException) consumer 는 실행되지 않고 이 단계가 실패한다 : 뒤에 andError 를 붙여서 받는다.
+	 */
+	public Completion<T, Void> andAcceptAsync(Consumer<T> consumer, Executor executor) {
+		return attach(new AcceptCompletion<>(consumer, executor));
+	}
+
+	/**
+	 * 이 단계와 앞의 모든 단계를 취소한다. 나가 있는 호출은 취소되고(커넥션은 닫히거나 풀로 돌아간다), 아직 실행되지 않은 단계는 실행되지 않는다.
+	 * 이미 끝난 체인이면 아무 일도 없다. 여러 번, 어느 쓰레드에서 불러도 된다.
+	 */
+	public void cancel() {
+		for (Completion<?, ?> c = this; c != null; c = c.prev) {
+			c.cancelStage();
+		}
+	}
+
+	public boolean isCancelled() {
+		return state == CANCELLED;
+	}
+
+	/**
+	 * 호출이 실패한 게 아니라 취소되어 끝난 경우 (체인을 취소했거나 호출 자체가 취소됨) : 실패 지표 / 에러 로그에 남기지 않는다
+	 */
+	boolean cancelledBy(Throwable e) {
+		return isCancelled() || e instanceof CancellationException;
+	}
+
+	private void cancelStage() {
+		Object s = STATE.getAndSet(this, CANCELLED);
+		if (s instanceof Outcome) {
+			ReferenceCountUtil.release(((Outcome) s).value); // 다음 단계가 붙기 전에 도착해 있던 값
+		}
+		cancelPending(pending);
+	}
+
+	/**
+	 * 단계가 호출을 내보낸 뒤에 부른다. 그 사이에 cancel 됐으면 cancelStage 가 pending 을 못 봤을 수 있으므로 여기서 취소한다.
+	 * (pending 쓰기 -> state 읽기, state 쓰기 -> pending 읽기 : 둘 중 하나는 상대를 본다)
+	 */
+	void track(Object calls) {
+		pending = calls;
+		if (state == CANCELLED) {
+			cancelPending(calls);
+		}
+	}
+
+	private static void cancelPending(Object calls) {
+		if (calls instanceof Future) {
+			((Future<?>) calls).cancel(false);
+		} else if (calls instanceof List) {
+			for (Object f : (List<?>) calls) {
+				((Future<?>) f).cancel(false);
+			}
+		}
+	}
+
+	public Completion<T, T> andError(Consumer<Throwable> errorConsumer) { //에러가 발생하지 않으면 패스하고 다음 Completion으로 넘어가기 위함
+		return attach(new ErrorCompletion<>(errorConsumer));
+	}
+
+	/**
+	 * 다음 단계를 등록한다. 결과가 이미 도착해 있으면 등록하는 쓰레드에서 바로 전달한다.
+	 */
+	<V> Completion<T, V> attach(Completion<T, V> next) {
+		for (;;) {
+			Object s = state;
+			if (s == null) {
+				next.trace = trace; // CAS 전에 써야 결과를 전달하는 쪽 쓰레드에서 보인다
+				next.prev = this;
+				if (STATE.compareAndSet(this, null, next)) {
+					return next;
+				}
+			} else if (s instanceof Outcome) {
+				if (STATE.compareAndSet(this, s, DONE)) {
+					next.trace = trace;
+					next.prev = this;
+					deliver(next, (Outcome) s);
+					return next;
+				}
+			} else if (s == CANCELLED) {
+				next.prev = this;
+				next.state = CANCELLED; // 이미 취소된 체인 : 뒤에 붙는 단계도 실행되지 않는다
+				return next;
+			} else {
+				throw new IllegalStateException("next completion is already attached");
+			}
+		}
+	}
+
+	void complete(T value) {
+		settle(value, null);
+	}
+
+	void error(Throwable e) {
+		settle(null, e);
+	}
+
+	void run(S value) { // 다음 completion을 호출하는 역할
+		//다형성으로만 사용됨
+	}
+
+	@SuppressWarnings("unchecked")
+	private void settle(T value, Throwable e) {
+		for (;;) {
+			Object s = state;
+			if (s == null) {
+				// 다음 단계가 아직 없음 -> 결과를 보관해두고 attach 에서 전달
+				if (STATE.compareAndSet(this, null, new Outcome(value, e))) {
+					return;
+				}
+			} else if (s instanceof Completion) {
+				if (STATE.compareAndSet(this, s, DONE)) {
+					Completion<T, ?> next = (Completion<T, ?>) s;
+					next.stamp(TimelineRecorder.Event.DISPATCH);
+					if (e != null) {
+						next.error(e);
+					} else {
+						next.run(value); // 비동기 결과값을 다음 Completion에 전달한다.
+					}
+					return;
+				}
+			} else {
+				if (s == CANCELLED) {
+					ReferenceCountUtil.release(value); // 받을 단계가 없다
+				}
+				return; // 이미 결과가 정해짐 (또는 취소됨)
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void deliver(Completion<T, ?> next, Outcome outcome) {
+		next.stamp(TimelineRecorder.Event.DISPATCH);
+		if (outcome.error != null) {
+			next.error(outcome.error);
+		} else {
+			next.run((T) outcome.value);
+		}
+	}
+
+	private static final class Timers {
+		// timeout, hedge 예약용 (데몬 쓰레드라서 애플리케이션 종료를 막지 않는다)
+		static final Timer TIMER = new HashedWheelTimer(new DefaultThreadFactory("completion-timer", true), 5, TimeUnit.MILLISECONDS);
+	}
+
+	private static final class Outcome {
+		final Object value;
+		final Throwable error;
+
+		Outcome(Object value, Throwable error) {
+			this.value = value;
+			this.error = error;
+		}
+	}
+
+	public static class ApplyCompletion<S, T> extends Completion<S, T> {
+		private final Function<S, ListenableFuture<T>> fn;
+		private final Executor executor; // null 이면 결과를 전달한 쓰레드에서 바로
+
+		public ApplyCompletion(Function<S, ListenableFuture<T>> fn) {
+			this(fn, null);
+		}
+
+		public ApplyCompletion(Function<S, ListenableFuture<T>> fn, Executor executor) {
+			this.fn = fn;
+			this.executor = executor;
+		}
+
+		@Override
+		void run(S value) {
+			if (executor == null) {
+				apply(value);
+				return;
+			}
+			try {
+				executor.execute(() -> apply(value));
+			} catch (RejectedExecutionException e) { // ExecutorRejectedException, TaskRejectedException 모두
+				ReferenceCountUtil.release(value); // 받을 단계가 없다
+				error(e);
+			}
+		}
+
+		private void apply(S value) {
+			if (isCancelled()) { // 앞 단계가 결과를 넘기는 것과 cancel 이 겹친 경우
+				ReferenceCountUtil.release(value);
+				return;
+			}
+			long start = System.nanoTime();
+			long prevTrace = trace != 0 ? TimelineRecorder.enter(trace) : 0; // fn 안에서 나가는 호출이 이 trace 에 WRITTEN 을 남길 수 있게
+			ListenableFuture<T> lf;
+			try {
+				lf = fn.apply(value); //Function을 사용한 이유 apply를 사용하고 T, R을 사용하기 위함
+			} catch (RuntimeException e) { // 다음 호출을 만드는 중에 실패해도 에러 경로로 보낸다
+				observe(Stage.APPLY, start, false);
+				error(e);
+				return;
+			} finally {
+				if (trace != 0) {
+					TimelineRecorder.exit(prevTrace);
+				}
+			}
+			stamp(TimelineRecorder.Event.CALL_ISSUED);
+			track(lf);
+			lf.addCallback(s -> {
+				long nanos = System.nanoTime() - start;
+				observer.record(Stage.APPLY, nanos, true);
+				pipelineLog.success(Stage.APPLY, nanos, s);
+				stamp(TimelineRecorder.Event.CALLBACK);
+				complete(s);
+			}, e -> {
+				if (!cancelledBy(e)) {
+					long nanos = System.nanoTime() - start;
+					observer.record(Stage.APPLY, nanos, false);
+					pipelineLog.error(Stage.APPLY, nanos, e);
+					stamp(TimelineRecorder.Event.ERROR);
+				}
+				error(e);
+			});
+		}
+
+		@Override
+		Stage stage() {
+			return Stage.APPLY;
+		}
+	}
+
+	public static class ApplyAllCompletion<S, T> extends Completion<S, List<T>> {
+		private final Function<S, List<? extends ListenableFuture<? extends T>>> fn;
+		private long start; // run 에서 쓰고 호출 결과 콜백에서 읽는다 (future 완료가 happens-before 를 보장)
+
+		public ApplyAllCompletion(Function<S, List<? extends ListenableFuture<? extends T>>> fn) {
+			this.fn = fn;
+		}
+
+		@Override
+		void run(S value) {
+			if (isCancelled()) {
+				ReferenceCountUtil.release(value);
+				return;
+			}
+			start = System.nanoTime();
+			long prevTrace = trace != 0 ? TimelineRecorder.enter(trace) : 0;
+			List<? extends ListenableFuture<? extends T>> lfs;
+			try {
+				lfs = fn.apply(value);
+			} catch (RuntimeException e) {
+				error(e);
+				return;
+			} finally {
+				if (trace != 0) {
+					TimelineRecorder.exit(prevTrace);
+				}
+			}
+			stamp(TimelineRecorder.Event.CALL_ISSUED);
+			track(lfs);
+			joinAll(lfs, this);
+		}
+
+		@Override
+		Stage stage() {
+			return Stage.APPLY_ALL;
+		}
+
+		@Override
+		void complete(List<T> value) {
+			observe(Stage.APPLY_ALL, start, true);
+			super.complete(value);
+		}
+
+		@Override
+		void error(Throwable e) {
+			if (start != 0 && !cancelledBy(e)) { // 앞 단계의 에러가 지나가는 경우는 이 단계의 시간이 아니다. 취소는 실패가 아니다
+				observe(Stage.APPLY_ALL, start, false);
+			}
+			super.error(e);
+		}
+	}
+
+	public static class AcceptCompletion<S> extends Completion<S, Void> {
+		private final Consumer<S> consumer;
+		private final Executor executor; // null 이면 결과를 전달한 쓰레드에서 바로
+
+		public AcceptCompletion(Consumer<S> consumer) {
+			this(consumer, null);
+		}
+
+		public AcceptCompletion(Consumer<S> consumer, Executor executor) {
+			this.consumer = consumer;
+			this.executor = executor;
+		}
+
+		@Override
+		void run(S value) {
+			if (executor == null) {
+				accept(value);
+				return;
+			}
+			try {
+				executor.execute(() -> accept(value));
+			} catch (RejectedExecutionException e) { // 전달한 쓰레드(이벤트 루프일 수 있다)에서 consumer 를 돌리지 않는다
+				log.warn("accept stage rejected by executor : {}", e.getMessage());
+				ReferenceCountUtil.release(value);
+				error(e);
+			}
+		}
+
+		private void accept(S value) {
+			if (isCancelled()) {
+				ReferenceCountUtil.release(value);
+				return;
+			}
+			long start = System.nanoTime();
+			consumer.accept(value); // 체크할 필요 없음 - AcceptCompletion 클래스가 사용되었다는 것은 이미 consumer 가 있다는 얘기
+			long nanos = System.nanoTime() - start;
+			observer.record(Stage.ACCEPT, nanos, true);
+			pipelineLog.success(Stage.ACCEPT, nanos, value);
+			finishTrace();
+		}
+
+		@Override
+		Stage stage() {
+			return Stage.ACCEPT;
+		}
+	}
+
+	public static class ErrorCompletion<T> extends Completion<T, T> {
+		private final Consumer<Throwable> errorConsumer; //ListenableFuture 의 addCallback된 error 을 받음
+
+		public ErrorCompletion(Consumer<Throwable> errorConsumer) {
+			this.errorConsumer = errorConsumer;
+		}
+
+		@Override
+		void run(T value) { // 정상의 경우에는 pass 하는 코드
+			complete(value);
+		}
+
+		@Override
+		void error(Throwable e) {
+			if (isCancelled()) { // 취소해서 생긴 CancellationException 등 : 받을 쪽은 이미 끝났다
+				return;
+			}
+			long start = System.nanoTime();
+			errorConsumer.accept(e);
+			if (!cancelledBy(e)) { // 호출이 취소된 경우도 받을 쪽에는 넘기지만 실패로 세지 않는다
+				observe(Stage.ERROR, start, false);
+			}
+			finishTrace();
+		}
+
+		@Override
+		Stage stage() {
+			return Stage.ERROR;
+		}
+	}
+}
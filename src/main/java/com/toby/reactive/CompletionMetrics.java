@@ -0,0 +1,49 @@
+package com.toby.reactive;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Completion 단계별 소요시간 -> completion.stage 타이머 (tag : stage, outcome)
+ *
+ * 단계마다 호출되므로 Timer 를 미리 만들어 배열에 두고 (태그 조회/Meter 등록 비용 없음) record 만 한다.
+ * 히스토그램(percentile)은 기본으로 끄고, 필요하면 management.metrics.distribution.percentiles-histogram.completion.stage=true
+ */
+public class CompletionMetrics implements Completion.StageObserver {
+	private final Timer[] success;
+	private final Timer[] error;
+
+	public CompletionMetrics(MeterRegistry registry) {
+		Completion.Stage[] stages = Completion.Stage.values();
+		success = new Timer[stages.length];
+		error = new Timer[stages.length];
+		for (Completion.Stage stage : stages) {
+			success[stage.ordinal()] = timer(registry, stage, "success");
+			error[stage.ordinal()] = timer(registry, stage, "error");
+		}
+	}
+
+	private static Timer timer(MeterRegistry registry, Completion.Stage stage, String outcome) {
+		return Timer.builder("completion.stage")
+				.description("Completion 단계별 소요시간 (apply : 호출 ~ 결과 도착, accept/error : consumer 실행)")
+				.tag("stage", stage.name().toLowerCase(Locale.ROOT))
+				.tag("outcome", outcome)
+				.register(registry);
+	}
+
+	/**
+	 * Completion 의 hook 은 static 이라서 컨텍스트가 닫힐 때 되돌려 놓는다. (테스트에서 컨텍스트를 여러 번 띄우는 경우)
+	 * 그 사이 다른 컨텍스트가 자기 metrics 로 바꿔 놓았으면 건드리지 않는다.
+	 */
+	public void close() {
+		Completion.clearObserver(this);
+	}
+
+	@Override
+	public void record(Completion.Stage stage, long nanos, boolean ok) {
+		(ok ? success : error)[stage.ordinal()].record(nanos, TimeUnit.NANOSECONDS);
+	}
+}
@@ -0,0 +1,29 @@
+package com.toby.reactive;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * DeferredResult 엔드포인트(/rest4, /rest5, /v2/rest5, /v2/rest6, /v3/rest6 ...)에만 동시 처리 한도를 건다. 한도는 엔드포인트마다 따로 (VegasLimiterRegistry)
+ */
+@Configuration
+@EnableConfigurationProperties(ConcurrencyLimitProperties.class)
+@ConditionalOnProperty(prefix = "reactive.limit", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class ConcurrencyLimitConfig {
+
+	@Bean
+	public VegasLimiterRegistry deferredResultLimiters(ConcurrencyLimitProperties properties) {
+		return new VegasLimiterRegistry(properties);
+	}
+
+	@Bean
+	public FilterRegistrationBean<ConcurrencyLimitFilter> concurrencyLimitFilter(VegasLimiterRegistry deferredResultLimiters, ConcurrencyLimitProperties properties) {
+		FilterRegistrationBean<ConcurrencyLimitFilter> registration = new FilterRegistrationBean<>(new ConcurrencyLimitFilter(deferredResultLimiters));
+		registration.setUrlPatterns(properties.getUrlPatterns());
+		registration.setAsyncSupported(true);
+		return registration;
+	}
+}
@@ -0,0 +1,93 @@
+package com.toby.reactive;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * DeferredResult 핸들러 앞단의 admission control
+ * 한도를 넘는 요청은 DispatcherServlet 까지 가지 않고 바로 503 으로 돌려보낸다.
+ * (큐에 쌓여서 AsyncRequestTimeoutException 이 날 때까지 커넥션을 잡고 있지 않도록)
+ *
+ * DeferredResult 는 핸들러가 리턴한 뒤에 끝나므로 응답시간과 한도 반납은 AsyncListener.onComplete 에서 처리한다.
+ * onComplete 는 정상 / 타임아웃 / 에러 모든 경우에 마지막으로 한번 호출된다.
+ * 한도는 요청 경로마다 따로 잰다. (VegasLimiterRegistry)
+ */
+public class ConcurrencyLimitFilter extends OncePerRequestFilter {
+	private final VegasLimiterRegistry limiters;
+
+	public ConcurrencyLimitFilter(VegasLimiterRegistry limiters) {
+		this.limiters = limiters;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+		VegasLimiter limiter = limiters.get(request.getRequestURI().substring(request.getContextPath().length()));
+		if (!limiter.tryAcquire()) {
+			response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+			return;
+		}
+
+		long start = System.nanoTime();
+		int inFlightAtStart = limiter.getInFlight();
+		boolean failed = true;
+		try {
+			filterChain.doFilter(request, response);
+			failed = false;
+		} finally {
+			if (request.isAsyncStarted()) {
+				request.getAsyncContext().addListener(new LimitReleasingListener(limiter, start, inFlightAtStart));
+			} else {
+				release(limiter, response.getStatus(), failed, start, inFlightAtStart);
+			}
+		}
+	}
+
+	private static void release(VegasLimiter limiter, int status, boolean dropped, long start, int inFlightAtStart) {
+		if (dropped || status >= 500) {
+			limiter.onDropped();
+		} else {
+			limiter.onSuccess(System.nanoTime() - start, inFlightAtStart);
+		}
+	}
+
+	private static class LimitReleasingListener implements AsyncListener {
+		private final VegasLimiter limiter;
+		private final long start;
+		private final int inFlightAtStart;
+		private boolean dropped; // onTimeout/onError 후에 onComplete 가 같은 쓰레드(컨테이너)에서 호출된다
+
+		LimitReleasingListener(VegasLimiter limiter, long start, int inFlightAtStart) {
+			this.limiter = limiter;
+			this.start = start;
+			this.inFlightAtStart = inFlightAtStart;
+		}
+
+		@Override
+		public void onComplete(AsyncEvent event) {
+			HttpServletResponse response = (HttpServletResponse) event.getSuppliedResponse();
+			release(limiter, response.getStatus(), dropped, start, inFlightAtStart);
+		}
+
+		@Override
+		public void onTimeout(AsyncEvent event) {
+			dropped = true;
+		}
+
+		@Override
+		public void onError(AsyncEvent event) {
+			dropped = true;
+		}
+
+		@Override
+		public void onStartAsync(AsyncEvent event) {
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package com.toby.reactive;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * DeferredResult 엔드포인트 앞단의 동시 처리 한도 설정 (application.yml 의 reactive.limit.*)
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "reactive.limit")
+public class ConcurrencyLimitProperties {
+	private boolean enabled = true;
+	private int initialLimit = 100;
+	private int minLimit = 10;
+	private int maxLimit = 5000;
+	private double smoothing = 1.0;       // 1.0 이면 계산된 limit 을 그대로, 작을수록 천천히 반영
+	private int probeMultiplier = 30;     // limit * probeMultiplier 번 응답마다 rttNoLoad 를 다시 잰다
+	private List<String> urlPatterns = Arrays.asList(
+			"/rest4", "/rest5", "/v2/rest5", "/v2/rest6", "/v3/rest6", "/v3/rest7");
+}
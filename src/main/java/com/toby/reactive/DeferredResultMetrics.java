@@ -0,0 +1,56 @@
+package com.toby.reactive;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.DeferredResultProcessingInterceptor;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 모든 DeferredResult 엔드포인트에 걸리는 interceptor
+ * - deferred.result.in.flight : 결과를 기다리는 중인 요청 수 (= 붙잡혀 있는 커넥션 수)
+ * - deferred.result.timeouts  : 서블릿 async timeout 까지 결과가 오지 않은 요청 수
+ * - deferred.result.errors    : 처리 중 에러(클라이언트 연결 끊김 등)로 끝난 요청 수
+ */
+public class DeferredResultMetrics implements DeferredResultProcessingInterceptor {
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final Counter timeouts;
+	private final Counter errors;
+
+	public DeferredResultMetrics(MeterRegistry registry) {
+		Gauge.builder("deferred.result.in.flight", inFlight, AtomicInteger::get)
+				.description("결과를 기다리는 중인 DeferredResult 수")
+				.register(registry);
+		timeouts = Counter.builder("deferred.result.timeouts").register(registry);
+		errors = Counter.builder("deferred.result.errors").register(registry);
+	}
+
+	@Override
+	public <T> void beforeConcurrentHandling(NativeWebRequest request, DeferredResult<T> deferredResult) {
+		inFlight.incrementAndGet();
+	}
+
+	@Override
+	public <T> boolean handleTimeout(NativeWebRequest request, DeferredResult<T> deferredResult) {
+		timeouts.increment();
+		return true; // 다른 interceptor / 기본 timeout 처리(503)를 그대로 진행
+	}
+
+	@Override
+	public <T> boolean handleError(NativeWebRequest request, DeferredResult<T> deferredResult, Throwable t) {
+		errors.increment();
+		return true;
+	}
+
+	@Override
+	public <T> void afterCompletion(NativeWebRequest request, DeferredResult<T> deferredResult) {
+		inFlight.decrementAndGet();
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+}
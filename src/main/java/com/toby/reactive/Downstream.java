@@ -0,0 +1,82 @@
+package com.toby.reactive;
+
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.util.concurrent.CancellationException;
+import java.util.function.Supplier;
+
+/**
+ * 다운스트림 엔드포인트 하나 (이름 + circuit breaker + bulkhead)
+ *
+ * call 로 감싼 호출은
+ * - breaker 가 OPEN 이거나 bulkhead 가 가득 차 있으면 네트워크를 건드리지 않고 바로 DownstreamUnavailableException 으로 실패하고
+ * - 그렇지 않으면 호출 결과(성공/실패, 응답시간)를 breaker 에 기록한다.
+ * 실패는 Completion 의 에러 경로(ErrorCompletion)로 그대로 흘러가서 DeferredResult 가 바로 503 으로 끝난다.
+ *
+ * bulkhead 자리는 call 이 돌려준 future 가 끝날 때 돌려준다. 제한 시간은 call 안에서 Completion.timeout 으로 건다 :
+ * timeout 은 원래 호출(전송)을 먼저 취소하고 실패하므로, 자리가 비는 시점에는 그 호출도 더 이상 나가 있지 않다.
+ * (call 바깥에서 timeout 을 걸면 호출이 아직 나가 있는 동안에는 자리를 돌려받지 못한다)
+ */
+public class Downstream {
+	private final String name;
+	private final CircuitBreaker breaker;
+	private final Bulkhead bulkhead;
+
+	public Downstream(String name, CircuitBreaker breaker, Bulkhead bulkhead) {
+		this.name = name;
+		this.breaker = breaker;
+		this.bulkhead = bulkhead;
+	}
+
+	public <V> ListenableFuture<V> call(Supplier<ListenableFuture<V>> call) {
+		if (!breaker.tryAcquire()) {
+			return failed(new DownstreamUnavailableException(name, "circuit breaker is " + breaker.getState()));
+		}
+		if (!bulkhead.tryAcquire()) {
+			breaker.onIgnore();
+			return failed(new DownstreamUnavailableException(name, "bulkhead is full (" + bulkhead.getMaxConcurrentCalls() + " calls in flight)"));
+		}
+
+		long start = System.nanoTime();
+		ListenableFuture<V> lf;
+		try {
+			lf = call.get();
+		} catch (RuntimeException e) {
+			bulkhead.release();
+			breaker.onError(System.nanoTime() - start);
+			return failed(e);
+		}
+		lf.addCallback(v -> {
+			bulkhead.release();
+			breaker.onSuccess(System.nanoTime() - start);
+		}, e -> {
+			bulkhead.release();
+			if (e instanceof HttpClientErrorException || e instanceof CancellationException) { // 4xx, 호출한 쪽이 취소한 경우는 다운스트림 상태와 무관
+				breaker.onIgnore();
+			} else {
+				breaker.onError(System.nanoTime() - start);
+			}
+		});
+		return lf;
+	}
+
+	private static <V> ListenableFuture<V> failed(Throwable e) {
+		SettableListenableFuture<V> f = new SettableListenableFuture<>();
+		f.setException(e);
+		return f;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public CircuitBreaker getBreaker() {
+		return breaker;
+	}
+
+	public Bulkhead getBulkhead() {
+		return bulkhead;
+	}
+}
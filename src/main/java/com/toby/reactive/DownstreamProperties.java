@@ -0,0 +1,33 @@
+package com.toby.reactive;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 다운스트림 엔드포인트별 circuit breaker / bulkhead 설정 (application.yml 의 reactive.downstreams.<이름>.*)
+ * 설정이 없는 엔드포인트는 Profile 의 기본값을 쓴다.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "reactive")
+public class DownstreamProperties {
+	private Map<String, Profile> downstreams = new HashMap<>();
+
+	@Getter
+	@Setter
+	public static class Profile {
+		private int maxConcurrentCalls = 500;                   // bulkhead : 동시에 나가 있을 수 있는 호출 수
+		private int windowSize = 100;                           // 최근 몇 번의 호출로 판단할지
+		private int minimumCalls = 20;                          // 이만큼 쌓이기 전에는 열지 않는다
+		private double failureRateThreshold = 50;               // 실패율(%)이 이 이상이면 OPEN
+		private double slowCallRateThreshold = 80;              // 느린 호출 비율(%)이 이 이상이면 OPEN
+		private Duration slowCallDuration = Duration.ofMillis(2500);
+		private Duration openDuration = Duration.ofSeconds(5);  // OPEN 유지 시간, 지나면 HALF_OPEN
+		private int halfOpenCalls = 5;                          // HALF_OPEN 에서 시험 삼아 보내는 호출 수
+	}
+}
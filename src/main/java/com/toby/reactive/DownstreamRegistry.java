@@ -0,0 +1,34 @@
+package com.toby.reactive;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 이름으로 Downstream 을 찾는다. 처음 찾을 때 reactive.downstreams.<이름> 설정(없으면 기본값)으로 만든다.
+ */
+public class DownstreamRegistry {
+	private final DownstreamProperties properties;
+	private final Map<String, Downstream> downstreams = new ConcurrentHashMap<>();
+
+	public DownstreamRegistry(DownstreamProperties properties) {
+		this.properties = properties;
+	}
+
+	public Downstream get(String name) {
+		Downstream d = downstreams.get(name); // 대부분은 이미 있으므로 computeIfAbsent 의 락을 피한다
+		return d != null ? d : downstreams.computeIfAbsent(name, this::create);
+	}
+
+	public Collection<Downstream> getAll() {
+		return downstreams.values();
+	}
+
+	private Downstream create(String name) {
+		DownstreamProperties.Profile p = properties.getDownstreams().getOrDefault(name, new DownstreamProperties.Profile());
+		CircuitBreaker breaker = new CircuitBreaker(p.getWindowSize(), p.getMinimumCalls(), p.getFailureRateThreshold(), p.getSlowCallRateThreshold(),
+				p.getSlowCallDuration().toNanos(), p.getOpenDuration().toNanos(), TimeUnit.NANOSECONDS, p.getHalfOpenCalls());
+		return new Downstream(name, breaker, new Bulkhead(p.getMaxConcurrentCalls()));
+	}
+}
@@ -0,0 +1,24 @@
+package com.toby.reactive;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * circuit breaker 가 열려 있거나 bulkhead 가 가득 차서 호출하지 않고 실패한 경우
+ * DeferredResult.setErrorResult 로 넘기면 503 으로 응답한다.
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class DownstreamUnavailableException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	private final String downstream;
+
+	public DownstreamUnavailableException(String downstream, String reason) {
+		super(downstream + " : " + reason, null, false, false); // 자주 생기는 예외라서 stack trace 를 만들지 않는다
+		this.downstream = downstream;
+	}
+
+	public String getDownstream() {
+		return downstream;
+	}
+}
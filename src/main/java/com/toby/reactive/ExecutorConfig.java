@@ -0,0 +1,108 @@
+package com.toby.reactive;
+
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.aop.interceptor.AsyncUncaughtExceptionHandler;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.BeanDefinitionBuilder;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.beans.factory.support.BeanDefinitionRegistryPostProcessor;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.AsyncConfigurer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * @Async 내부 작업용 executor 프로필 (reactive.async.executors.<이름>.*)
+ *
+ * 프로필마다 같은 이름의 빈을 만들어서 @Async("이름") 으로 메소드마다 고른다.
+ * - THREAD_POOL : 큐 크기가 정해진 ThreadPoolTaskExecutor (기존 myThreadPool 은 큐가 무한대라서 부하가 몰리면 작업이 메모리에 조용히 쌓였다)
+ * - FORK_JOIN   : CPU 작업용 work-stealing 풀 (BoundedForkJoinExecutor)
+ * 큐가 가득 차면 rejection 정책대로 바로 실패(503)하거나 제출한 쓰레드가 직접 실행한다.
+ *
+ * 이름 없는 @Async 는 defaultExecutor 를 쓴다. (executor 가 여러 개면 spring 은 SimpleAsyncTaskExecutor 로 떨어지기 때문에 AsyncConfigurer 로 정해준다)
+ * 메트릭 : executor.* {name=이름} - THREAD_POOL 은 spring boot 가, FORK_JOIN 은 여기서 등록한다.
+ */
+@Slf4j
+@Configuration
+@EnableConfigurationProperties(ExecutorProperties.class)
+public class ExecutorConfig implements AsyncConfigurer {
+	@Autowired ExecutorProperties properties;
+	@Autowired BeanFactory beanFactory;
+
+	/**
+	 * 프로필 수만큼 빈을 등록해야 해서 빈 정의 단계에서 설정을 직접 바인딩한다. (static : 다른 빈보다 먼저 만들어져야 한다)
+	 */
+	@Bean
+	public static BeanDefinitionRegistryPostProcessor executorProfiles(Environment environment) {
+		ExecutorProperties properties = Binder.get(environment).bind("reactive.async", ExecutorProperties.class).orElseGet(ExecutorProperties::new);
+		Map<String, ExecutorProperties.Profile> executors = properties.getExecutors();
+		executors.putIfAbsent(properties.getDefaultExecutor(), new ExecutorProperties.Profile());
+
+		return new BeanDefinitionRegistryPostProcessor() {
+			@Override
+			public void postProcessBeanDefinitionRegistry(BeanDefinitionRegistry registry) {
+				executors.forEach((name, profile) -> registry.registerBeanDefinition(name, profile.getType() == ExecutorProperties.Type.FORK_JOIN
+						? BeanDefinitionBuilder.genericBeanDefinition(BoundedForkJoinExecutor.class, () -> forkJoin(name, profile))
+								.setDestroyMethodName("shutdown").getBeanDefinition()
+						: BeanDefinitionBuilder.genericBeanDefinition(ThreadPoolTaskExecutor.class, () -> threadPool(name, profile))
+								.getBeanDefinition())); // ThreadPoolTaskExecutor 는 DisposableBean
+			}
+
+			@Override
+			public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) {
+			}
+		};
+	}
+
+	static ThreadPoolTaskExecutor threadPool(String name, ExecutorProperties.Profile profile) {
+		ThreadPoolTaskExecutor te = new ThreadPoolTaskExecutor();
+		te.setThreadNamePrefix(name + "-");
+		te.setCorePoolSize(profile.getCoreSize());
+		te.setMaxPoolSize(Math.max(profile.getCoreSize(), profile.getMaxSize())); //큐가 가득 찬 다음에야 max 까지 늘어난다
+		te.setQueueCapacity(profile.getQueueCapacity());
+		te.setKeepAliveSeconds((int) profile.getKeepAlive().getSeconds());
+		te.setRejectedExecutionHandler((task, executor) -> {
+			if (executor.isShutdown()) {
+				throw new ExecutorRejectedException(name, "shut down");
+			}
+			BoundedForkJoinExecutor.reject(name, profile.getRejection(), task);
+		});
+		te.setWaitForTasksToCompleteOnShutdown(true);
+		te.setAwaitTerminationSeconds(5);
+		te.initialize();
+		return te;
+	}
+
+	static BoundedForkJoinExecutor forkJoin(String name, ExecutorProperties.Profile profile) {
+		return new BoundedForkJoinExecutor(name, profile.getParallelism(), profile.getQueueCapacity(), profile.getRejection());
+	}
+
+	@Override
+	public Executor getAsyncExecutor() {
+		return beanFactory.getBean(properties.getDefaultExecutor(), Executor.class);
+	}
+
+	@Override
+	public AsyncUncaughtExceptionHandler getAsyncUncaughtExceptionHandler() {
+		// future 를 돌려주지 않는(void) @Async 메소드의 예외만 여기로 온다
+		return (e, method, params) -> log.error("@Async {} failed", method.getName(), e);
+	}
+
+	@Bean
+	public MeterBinder forkJoinExecutorMetrics(ListableBeanFactory beanFactory) {
+		return registry -> beanFactory.getBeansOfType(BoundedForkJoinExecutor.class).forEach((name, executor) ->
+				new ExecutorServiceMetrics(executor.getPool(), name, Collections.emptyList()).bindTo(registry));
+	}
+}
@@ -0,0 +1,40 @@
+package com.toby.reactive;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @Async 내부 작업용 executor 설정 (application.yml 의 reactive.async.*)
+ * executors 의 이름이 그대로 빈 이름이 되므로 메소드마다 @Async("이름") 으로 고른다. 이름 없는 @Async 는 defaultExecutor.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "reactive.async")
+public class ExecutorProperties {
+	private String defaultExecutor = "myThreadPool"; // 설정에 없으면 Profile 기본값으로 만든다
+	private Map<String, Profile> executors = new LinkedHashMap<>();
+
+	public enum Type { THREAD_POOL, FORK_JOIN }
+
+	public enum Rejection {
+		FAIL_FAST,   // 바로 ExecutorRejectedException (DeferredResult 까지 에러로 전달되어 503)
+		CALLER_RUNS  // 제출한 쓰레드가 직접 실행 (제출하는 쪽이 느려지는 backpressure). 이벤트 루프에서 제출한 경우는 FAIL_FAST
+	}
+
+	@Getter
+	@Setter
+	public static class Profile {
+		private Type type = Type.THREAD_POOL;
+		private int coreSize = 1;                           // THREAD_POOL : 큐가 찰 때까지는 이 수만큼만 쓰레드를 쓴다
+		private int maxSize = 1;                            // THREAD_POOL : 큐가 가득 차면 여기까지 쓰레드를 늘린다
+		private int parallelism = 0;                        // FORK_JOIN : 워커 수 (0 = 코어 수)
+		private int queueCapacity = 1000;                   // 실행을 기다릴 수 있는 작업 수 (넘으면 rejection)
+		private Duration keepAlive = Duration.ofSeconds(60); // THREAD_POOL : core 를 넘는 쓰레드가 놀면 정리되는 시간
+		private Rejection rejection = Rejection.FAIL_FAST;
+	}
+}
@@ -0,0 +1,32 @@
+package com.toby.reactive;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * @Async executor 의 큐가 가득 차서 내부 작업을 받지 못한 경우
+ * ThreadPoolTaskExecutor 가 TaskRejectedException 으로 감싸서 던지지만, DeferredResult.setErrorResult 로 넘기면
+ * ResponseStatusExceptionResolver 가 cause 까지 보기 때문에 503 으로 응답한다.
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class ExecutorRejectedException extends RejectedExecutionException {
+	private static final long serialVersionUID = 1L;
+
+	private final String executor;
+
+	public ExecutorRejectedException(String executor, String reason) {
+		super(executor + " : " + reason, null);
+		this.executor = executor;
+	}
+
+	@Override
+	public synchronized Throwable fillInStackTrace() {
+		return this; // 과부하일 때 쏟아지는 예외라서 stack trace 를 만들지 않는다
+	}
+
+	public String getExecutor() {
+		return executor;
+	}
+}
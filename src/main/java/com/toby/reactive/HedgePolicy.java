@@ -0,0 +1,102 @@
+package com.toby.reactive;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * hedged request 정책 : 응답이 최근 지연시간의 percentile 을 넘도록 오지 않으면 같은 요청을 하나 더 보내고 먼저 온 응답을 쓴다.
+ * 느린 꼬리(slow tail)는 대부분 특정 커넥션/인스턴스의 일시적인 지연이라서, 다시 보낸 요청은 보통 제 시간에 돌아온다.
+ *
+ * - 최근 window 개의 응답시간을 링 버퍼에 기록하고, recomputeEvery 개마다 percentile 을 다시 계산해서 hedge 지연으로 쓴다.
+ * - 샘플이 minSamples 개 모이기 전에는 hedge 하지 않는다.
+ * - 추가로 보내는 요청 수는 budget 으로 제한한다. (percentile 이 낮게 잡혀도 다운스트림 부하가 몇 배로 뛰지 않게)
+ */
+public class HedgePolicy {
+	private final double percentile;
+	private final long minDelayNanos;
+	private final RetryBudget budget;
+
+	private final long[] samples;
+	private final AtomicLong recorded = new AtomicLong();
+	private final AtomicBoolean recomputing = new AtomicBoolean();
+	private final int recomputeEvery;
+	private final int minSamples;
+	private volatile long delayNanos = Long.MAX_VALUE;
+
+	private final LongAdder hedges = new LongAdder();
+	private final LongAdder hedgeWins = new LongAdder();
+
+	/**
+	 * @param percentile 0 ~ 100, 이 percentile 을 넘으면 hedge
+	 * @param minDelay   hedge 지연의 하한 (percentile 이 아주 작아도 이만큼은 기다린다)
+	 * @param window     percentile 계산에 쓰는 최근 샘플 수
+	 * @param budget     추가 요청 예산 (ratio = 원래 요청 대비 hedge 비율)
+	 */
+	public HedgePolicy(double percentile, long minDelay, TimeUnit unit, int window, RetryBudget budget) {
+		this.percentile = percentile;
+		this.minDelayNanos = unit.toNanos(minDelay);
+		this.budget = budget;
+		this.samples = new long[window];
+		this.recomputeEvery = Math.max(1, window / 10);
+		this.minSamples = Math.max(1, window / 10);
+	}
+
+	/**
+	 * 성공한 요청의 응답시간 기록 (요청을 보낸 시점부터)
+	 */
+	public void record(long latencyNanos) {
+		long n = recorded.getAndIncrement();
+		samples[(int) (n % samples.length)] = latencyNanos; // 쓰기 경합으로 샘플 몇 개가 섞여도 percentile 추정에는 영향이 없다
+		if ((n + 1) % recomputeEvery == 0 && n + 1 >= minSamples) {
+			recompute(Math.min(n + 1, samples.length));
+		}
+	}
+
+	private void recompute(long count) {
+		if (!recomputing.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			long[] copy = Arrays.copyOf(samples, (int) count);
+			Arrays.sort(copy);
+			int idx = (int) Math.min(count - 1, (long) Math.ceil(percentile / 100 * count) - 1);
+			delayNanos = Math.max(minDelayNanos, copy[Math.max(0, idx)]);
+		} finally {
+			recomputing.set(false);
+		}
+	}
+
+	void onRequest() {
+		budget.deposit();
+	}
+
+	boolean tryHedge() {
+		if (budget.tryWithdraw()) {
+			hedges.increment();
+			return true;
+		}
+		return false;
+	}
+
+	void onHedgeWin() {
+		hedgeWins.increment();
+	}
+
+	/**
+	 * @return hedge 를 보낼 때까지 기다리는 시간, 아직 샘플이 부족하면 Long.MAX_VALUE (hedge 하지 않음)
+	 */
+	public long getDelayNanos() {
+		return delayNanos;
+	}
+
+	public long getHedges() {
+		return hedges.sum();
+	}
+
+	public long getHedgeWins() {
+		return hedgeWins.sum();
+	}
+}
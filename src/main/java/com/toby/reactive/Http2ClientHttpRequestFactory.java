@@ -0,0 +1,387 @@
+package com.toby.reactive;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http2.DefaultHttp2WindowUpdateFrame;
+import io.netty.handler.codec.http2.Http2FrameCodec;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.codec.http2.Http2StreamChannelBootstrap;
+import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.AsyncClientHttpRequest;
+import org.springframework.http.client.AsyncClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.channels.ClosedChannelException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * HTTP/2 cleartext(h2c, prior knowledge) 클라이언트 (reactive.client.http2.enabled=true 일 때 PooledNettyClientHttpRequestFactory 대신)
+ *
+ * HTTP/1.1 은 커넥션 하나에 요청 하나라서 동시에 나가 있는 요청 수만큼 커넥션(fd)이 필요하다.
+ * 여기서는 호스트마다 connectionsPerHost 개의 커넥션만 열고, 요청마다 stream 을 하나씩 열어 다중화한다.
+ * - 서버의 SETTINGS_MAX_CONCURRENT_STREAMS 를 넘는 stream 은 실패시키지 않고 커넥션 안에서 대기시킨다 (encoderEnforceMaxConcurrentStreams)
+ * - 흐름 제어 : stream 별 수신 윈도우(initialWindowSize)와 커넥션 전체 수신 윈도우(connectionWindowSize)를 설정으로 키운다
+ * - 커넥션이 끊기면 (GOAWAY, 서버 keep-alive timeout 등) 그 위의 stream 들은 실패하고, 다음 요청에서 다시 연결한다
+ * - 돌려준 future 를 취소하면 그 stream 만 닫는다 (RST_STREAM). 커넥션과 다른 stream 들은 그대로
+ * - stream 을 연 뒤 responseTimeout 안에 응답이 없으면 TimeoutException 으로 실패하고 그 stream 만 닫는다.
+ *   MAX_CONCURRENT_STREAMS 에 걸려 커넥션 안에서 기다리는 시간도 포함한다. (커넥션 자체는 다른 stream 들이 쓰고 있으므로 닫지 않는다)
+ *
+ * 요청/응답은 stream 채널 안에서 Http2StreamFrameToHttpObjectCodec 이 HTTP/1.1 메시지와 프레임을 서로 바꿔주므로
+ * 요청 생성(toNettyRequest)과 응답(PooledNettyClientHttpResponse)은 HTTP/1.1 팩토리와 같은 것을 쓴다.
+ */
+@Slf4j
+public class Http2ClientHttpRequestFactory implements AsyncClientHttpRequestFactory, DisposableBean {
+	private static final AttributeKey<SettableListenableFuture<ClientHttpResponse>> RESPONSE_FUTURE = AttributeKey.valueOf("h2ResponseFuture");
+	private static final AttributeKey<Promise<Channel>> CONNECTION_READY = AttributeKey.valueOf("h2ConnectionReady");
+	private static final int DEFAULT_CONNECTION_WINDOW = 65_535; // RFC 7540 6.9.2 : 커넥션 수신 윈도우의 초기값 (SETTINGS 로 바뀌지 않는다)
+
+	private final AsyncClientProperties properties;
+	private final Bootstrap bootstrap;
+	private final Map<InetSocketAddress, Connections> connections = new ConcurrentHashMap<>();
+	private final ChannelHandler streamInitializer;
+
+	public Http2ClientHttpRequestFactory(EventLoopGroup eventLoopGroup, AsyncClientProperties properties) {
+		this.properties = properties;
+		AsyncClientProperties.Http2 http2 = properties.getHttp2();
+		Http2Settings settings = Http2Settings.defaultSettings()
+				.initialWindowSize((int) http2.getInitialWindowSize().toBytes())
+				.maxFrameSize((int) http2.getMaxFrameSize().toBytes())
+				.pushEnabled(false);
+		int connectionWindowIncrement = (int) Math.max(0, http2.getConnectionWindowSize().toBytes() - DEFAULT_CONNECTION_WINDOW);
+
+		this.bootstrap = new Bootstrap()
+				.group(eventLoopGroup)
+				.channel(ClientTransport.socketChannel(eventLoopGroup))
+				.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) properties.getConnectTimeout().toMillis())
+				.option(ChannelOption.SO_KEEPALIVE, true)
+				.option(ChannelOption.TCP_NODELAY, true)
+				.handler(new ChannelInitializer<Channel>() {
+					@Override
+					protected void initChannel(Channel ch) {
+						ch.pipeline()
+								.addLast(Http2FrameCodecBuilder.forClient()
+										.initialSettings(settings)
+										.encoderEnforceMaxConcurrentStreams(true)
+										.build())
+								.addLast(new Http2MultiplexHandler(new ChannelInboundHandlerAdapter())) // 서버가 여는 stream(push)은 쓰지 않는다
+								.addLast(new ConnectionReadyHandler(connectionWindowIncrement));
+					}
+				});
+
+		this.streamInitializer = new ChannelInitializer<Http2StreamChannel>() {
+			@Override
+			protected void initChannel(Http2StreamChannel ch) {
+				ch.pipeline()
+						.addLast(new Http2StreamFrameToHttpObjectCodec(false))
+						.addLast(new HttpObjectAggregator((int) properties.getMaxResponseSize().toBytes()))
+						.addLast(StreamResponseHandler.INSTANCE);
+			}
+		};
+	}
+
+	@Override
+	public AsyncClientHttpRequest createAsyncRequest(URI uri, HttpMethod httpMethod) throws IOException {
+		if (!"http".equalsIgnoreCase(uri.getScheme())) {
+			throw new IOException("Only h2c (http) is supported: " + uri);
+		}
+		return new Http2ClientHttpRequest(uri, httpMethod);
+	}
+
+	@Override
+	public void destroy() {
+		connections.values().forEach(Connections::close);
+	}
+
+	/**
+	 * 지금 열려 있는 (또는 연결 중인) 커넥션 수 - 같은 부하에서 HTTP/1.1 풀의 커넥션 수와 비교용
+	 */
+	public int getOpenConnections() {
+		return connections.values().stream().mapToInt(Connections::open).sum();
+	}
+
+	/**
+	 * 지금 열려 있는 stream 수 (응답을 기다리는 요청 수). 취소 / timeout 된 요청의 stream 이 닫혔는지 볼 때
+	 */
+	public int getActiveStreams() {
+		return connections.values().stream().mapToInt(Connections::activeStreams).sum();
+	}
+
+	private Connections connectionsFor(URI uri) {
+		int port = uri.getPort() != -1 ? uri.getPort() : 80;
+		InetSocketAddress address = InetSocketAddress.createUnresolved(uri.getHost(), port);
+		Connections c = connections.get(address);
+		return c != null ? c : connections.computeIfAbsent(address, a -> new Connections(a, properties.getHttp2().getConnectionsPerHost()));
+	}
+
+	/**
+	 * 호스트 하나의 커넥션들. 요청마다 돌아가면서 고르고, 끊긴 자리는 그 자리를 고른 요청이 다시 연결한다.
+	 * 자리에는 connect future 가 아니라 preface 를 보낸 뒤에 완료되는 promise 를 넣는다. (ConnectionReadyHandler)
+	 */
+	private class Connections {
+		private final InetSocketAddress address;
+		private final AtomicReferenceArray<Future<Channel>> slots;
+		private final AtomicInteger next = new AtomicInteger();
+
+		Connections(InetSocketAddress address, int size) {
+			this.address = address;
+			this.slots = new AtomicReferenceArray<>(Math.max(1, size));
+		}
+
+		Future<Channel> get() {
+			int i = (next.getAndIncrement() & Integer.MAX_VALUE) % slots.length();
+			Future<Channel> f = slots.get(i);
+			if (usable(f)) {
+				return f;
+			}
+			Future<Channel> connecting = connect();
+			if (slots.compareAndSet(i, f, connecting)) {
+				return connecting;
+			}
+			connecting.addListener(Http2ClientHttpRequestFactory::closeChannel); // 다른 요청이 먼저 다시 연결했다
+			return slots.get(i);
+		}
+
+		private Future<Channel> connect() {
+			Promise<Channel> ready = ImmediateEventExecutor.INSTANCE.newPromise();
+			bootstrap.clone().attr(CONNECTION_READY, ready).connect(address).addListener((ChannelFutureListener) connected -> {
+				if (!connected.isSuccess()) {
+					ready.tryFailure(connected.cause());
+				}
+			});
+			return ready;
+		}
+
+		private boolean usable(Future<Channel> f) {
+			return f != null && (!f.isDone() || (f.isSuccess() && f.getNow().isActive()));
+		}
+
+		int open() {
+			int n = 0;
+			for (int i = 0; i < slots.length(); i++) {
+				if (usable(slots.get(i))) {
+					n++;
+				}
+			}
+			return n;
+		}
+
+		int activeStreams() {
+			int n = 0;
+			for (int i = 0; i < slots.length(); i++) {
+				Future<Channel> f = slots.get(i);
+				if (f != null && f.isSuccess()) {
+					Http2FrameCodec codec = f.getNow().pipeline().get(Http2FrameCodec.class);
+					if (codec != null) {
+						n += codec.connection().numActiveStreams();
+					}
+				}
+			}
+			return n;
+		}
+
+		void close() {
+			for (int i = 0; i < slots.length(); i++) {
+				Future<Channel> f = slots.get(i);
+				if (f != null) {
+					f.addListener(Http2ClientHttpRequestFactory::closeChannel);
+				}
+			}
+		}
+	}
+
+	private static void closeChannel(Future<? super Channel> f) {
+		if (f.isSuccess()) {
+			((Channel) f.getNow()).close();
+		}
+	}
+
+	/**
+	 * 커넥션을 요청에 내주는 시점을 정한다.
+	 * connect future 는 channelActive 보다 먼저 완료되는데, Http2FrameCodec 은 channelActive 에서 preface 를 쓰므로
+	 * connect future 에 바로 stream 을 열면 preface 보다 HEADERS 가 먼저 나간다. (서버는 HTTP/1.1 요청으로 읽고 400)
+	 * 그래서 codec 다음 자리의 channelActive 에서 ready 를 완료한다.
+	 *
+	 * 커넥션 수신 윈도우는 SETTINGS 로 바꿀 수 없어서 여기서 stream 0 에 WINDOW_UPDATE 를 보내 키운다.
+	 */
+	private static class ConnectionReadyHandler extends ChannelInboundHandlerAdapter {
+		private final int increment;
+
+		ConnectionReadyHandler(int increment) {
+			this.increment = increment;
+		}
+
+		@Override
+		public void channelActive(ChannelHandlerContext ctx) throws Exception {
+			if (increment > 0) {
+				ctx.writeAndFlush(new DefaultHttp2WindowUpdateFrame(increment));
+			}
+			ctx.channel().attr(CONNECTION_READY).get().trySuccess(ctx.channel());
+			super.channelActive(ctx);
+		}
+
+		@Override
+		public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+			ctx.channel().attr(CONNECTION_READY).get().tryFailure(new ClosedChannelException());
+			super.channelInactive(ctx);
+		}
+	}
+
+	@ChannelHandler.Sharable
+	private static class StreamResponseHandler extends SimpleChannelInboundHandler<FullHttpResponse> {
+		static final StreamResponseHandler INSTANCE = new StreamResponseHandler();
+
+		@Override
+		protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse response) {
+			SettableListenableFuture<ClientHttpResponse> future = ctx.channel().attr(RESPONSE_FUTURE).getAndSet(null);
+			if (future != null) {
+				PooledNettyClientHttpRequestFactory.PooledNettyClientHttpResponse r = new PooledNettyClientHttpRequestFactory.PooledNettyClientHttpResponse(response.retain());
+				if (!future.set(r)) {
+					r.close(); // 그 사이에 취소됐다
+				}
+			}
+			ctx.close(); // END_STREAM 을 받았으므로 stream 은 이미 닫혔다. 채널만 정리
+		}
+
+		@Override
+		public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+			fail(ctx.channel(), new ClosedChannelException()); // 커넥션이 끊기거나 RST_STREAM
+			super.channelInactive(ctx);
+		}
+
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+			log.warn("h2 stream error: {}", cause.getMessage());
+			fail(ctx.channel(), cause);
+			ctx.close();
+		}
+	}
+
+	private static void fail(Channel stream, Throwable cause) {
+		SettableListenableFuture<ClientHttpResponse> future = stream.attr(RESPONSE_FUTURE).getAndSet(null);
+		if (future != null) {
+			future.setException(cause);
+		}
+	}
+
+	private class Http2ClientHttpRequest implements AsyncClientHttpRequest {
+		private final URI uri;
+		private final HttpMethod method;
+		private final HttpHeaders headers = new HttpHeaders();
+		private final ByteArrayOutputStream body = new ByteArrayOutputStream(0);
+
+		Http2ClientHttpRequest(URI uri, HttpMethod method) {
+			this.uri = uri;
+			this.method = method;
+		}
+
+		@Override
+		public HttpMethod getMethod() {
+			return method;
+		}
+
+		@Override
+		public String getMethodValue() {
+			return method.name();
+		}
+
+		@Override
+		public URI getURI() {
+			return uri;
+		}
+
+		@Override
+		public HttpHeaders getHeaders() {
+			return headers;
+		}
+
+		@Override
+		public OutputStream getBody() {
+			return body;
+		}
+
+		@Override
+		public ListenableFuture<ClientHttpResponse> executeAsync() {
+			SettableListenableFuture<ClientHttpResponse> future = new SettableListenableFuture<>();
+			long trace = TimelineRecorder.current();
+
+			connectionsFor(uri).get().addListener((FutureListener<Channel>) ready -> {
+				if (!ready.isSuccess()) {
+					future.setException(ready.cause());
+					return;
+				}
+				if (future.isCancelled()) {
+					return;
+				}
+				new Http2StreamChannelBootstrap(ready.getNow())
+						.attr(RESPONSE_FUTURE, future)
+						.handler(streamInitializer)
+						.open()
+						.addListener((FutureListener<Http2StreamChannel>) opened -> {
+							if (!opened.isSuccess()) {
+								future.setException(opened.cause());
+								return;
+							}
+							Http2StreamChannel stream = opened.getNow();
+							ScheduledFuture<?> timeout = stream.eventLoop().schedule(() -> {
+								if (stream.attr(RESPONSE_FUTURE).get() == future) { // 아직 응답 전
+									fail(stream, new TimeoutException("no response within " + properties.getResponseTimeout().toMillis() + "ms from " + uri.getHost()));
+									stream.close(); // RST_STREAM(CANCEL)
+								}
+							}, properties.getResponseTimeout().toNanos(), TimeUnit.NANOSECONDS);
+							future.addCallback(r -> timeout.cancel(false), e -> {
+								timeout.cancel(false);
+								if (future.isCancelled()) {
+									stream.close(); // 아직 끝나지 않은 stream 이면 RST_STREAM(CANCEL)
+								}
+							});
+							stream.writeAndFlush(PooledNettyClientHttpRequestFactory.toNettyRequest(uri, method, headers, body.toByteArray()))
+									.addListener((Future<? super Void> written) -> {
+										if (!written.isSuccess()) {
+											fail(stream, written.cause());
+											stream.close();
+											return;
+										}
+										TimelineRecorder.stampWritten(trace);
+									});
+						});
+			});
+
+			return future;
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package com.toby.reactive;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * RemoteService 의 응답 지연 분포 (밀리초)
+ *
+ * 문자열 형식
+ *   fixed:2000                 항상 2000ms
+ *   uniform:1000-3000          1000 ~ 3000ms 균등분포
+ *   lognormal:2000,0.5         중앙값 2000ms, sigma 0.5 인 로그정규분포 (오른쪽으로 긴 꼬리)
+ *   bimodal:200,2000,0.9       90% 는 200ms, 10% 는 2000ms
+ */
+public interface LatencyDistribution {
+
+	long sampleMillis(ThreadLocalRandom random);
+
+	static LatencyDistribution parse(String spec) {
+		int colon = spec.indexOf(':');
+		if (colon < 0) {
+			throw new IllegalArgumentException("expected <type>:<args> but was " + spec);
+		}
+		String type = spec.substring(0, colon).trim();
+		String[] args = spec.substring(colon + 1).split("[,\\-]");
+
+		switch (type) {
+			case "fixed": {
+				long millis = Long.parseLong(args[0].trim());
+				return random -> millis;
+			}
+			case "uniform": {
+				long min = Long.parseLong(args[0].trim());
+				long max = Long.parseLong(args[1].trim());
+				return random -> min + (long) (random.nextDouble() * (max - min));
+			}
+			case "lognormal": {
+				double mu = Math.log(Double.parseDouble(args[0].trim()));
+				double sigma = Double.parseDouble(args[1].trim());
+				return random -> (long) Math.exp(mu + sigma * random.nextGaussian());
+			}
+			case "bimodal": {
+				long fast = Long.parseLong(args[0].trim());
+				long slow = Long.parseLong(args[1].trim());
+				double fastRatio = Double.parseDouble(args[2].trim());
+				return random -> random.nextDouble() < fastRatio ? fast : slow;
+			}
+			default:
+				throw new IllegalArgumentException("unknown latency distribution " + spec);
+		}
+	}
+}
@@ -1,61 +1,381 @@
 package com.toby.reactive;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.util.StopWatch;
-import org.springframework.web.client.RestTemplate;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
 
-import java.util.concurrent.*;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * 부하 생성기
+ *
+ * 두가지 모드
+ * - rate        : open-loop (constant arrival rate) 응답이 늦어져도 정해진 간격으로 계속 요청을 보낸다.
+ *                 지연시간은 "보냈어야 하는 시각"부터 잰다 -> coordinated omission 보정
+ * - concurrency : closed-loop (fixed concurrency) N 개의 사용자가 응답을 받으면 바로 다음 요청을 보낸다.
+ *                 응답이 늦어지면 요청 자체를 덜 보내게 되므로 expected interval 로 히스토그램을 보정한 값도 같이 낸다.
+ *
+ * warmup 구간의 결과는 버리고 measurement 구간의 결과만 리포트한다.
+ * throughput 은 measurement 구간 안에 성공으로 끝난 요청 수 / 구간 길이 (과부하에서 보낸 rate 가 아니라 실제로 처리된 rate)
+ * maxInFlight 를 넘어서 보내지 못한 요청(GeneratorOverflow)은 requestTimeout 만큼 걸린 실패로 지연시간에 넣는다. (BatchBenchmark 와 같다)
+ * 요청은 java.net.http.HttpClient 의 sendAsync 로 보내기 때문에 (non-blocking) 생성기 쓰레드 수가 병목이 되지 않는다.
+ *
+ * 사용 예)
+ *   LoadTest --url=http://localhost:8083/v3/rest6?idx={idx} --mode=rate --rate=200 --warmup=10s --duration=30s --format=json --out=report.json
+ *   LoadTest --url=http://localhost:8083/rest4?idx={idx} --mode=concurrency --concurrency=100 --duration=30s
+ */
 @Slf4j
 public class LoadTest {
     static AtomicInteger counter = new AtomicInteger(0);  //*race condition이 발생할 수 있기 때문에  여러 쓰레드에서 서로 간섭하지 않도록 값을 갖고 와서 증가시키키 위함
 
-    public static void main(String[] args) throws InterruptedException, BrokenBarrierException {
-        ExecutorService es = Executors.newFixedThreadPool(100);     // 100개의 코어 스레드 생성
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(10);
 
-        RestTemplate rt = new RestTemplate();
-        String url = "http://localhost:8083/v3/rest6?idx={idx}";
+    public static void main(String[] args) throws Exception {
+        Config config = Config.parse(args);
+        Report report = run(config);
 
-//        CyclicBarrier barrier = new CyclicBarrier(101); //정해진 숫자만큼 blocking 후 한번에 실행하기 위함
+        String out = "csv".equalsIgnoreCase(config.getFormat()) ? report.toCsv() : report.toJson();
+        if (config.getOut() != null) {
+            Files.write(Paths.get(config.getOut()), out.getBytes(StandardCharsets.UTF_8));
+        }
+        System.out.println(out);
+    }
+
+    public static Report run(Config config) throws InterruptedException {
+        ExecutorService es = Executors.newFixedThreadPool(config.getClientThreads()); // 응답 콜백용, 요청 수와 무관하게 고정
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(es)
+                .build();
+        try {
+            Phase warmup = new Phase();
+            Phase measurement = new Phase();
+            Runner runner = "concurrency".equalsIgnoreCase(config.getMode())
+                    ? new ClosedLoopRunner(client, config)
+                    : new OpenLoopRunner(client, config);
+
+            if (!config.getWarmup().isZero()) {
+                log.info("warmup {} ...", config.getWarmup());
+                runner.run(warmup, config.getWarmup());
+            }
+            log.info("measurement {} ...", config.getDuration());
+            long start = System.nanoTime();
+            runner.run(measurement, config.getDuration());
+            measurement.closeWindow(); // 이 뒤(drain)에 끝난 요청은 지연시간 / 에러에는 넣지만 처리량에는 넣지 않는다
+            double elapsedSeconds = (System.nanoTime() - start) / 1e9; // 측정 구간만 : 끝에 남은 요청을 기다리는 시간까지 나누면 처리량이 낮게 나온다
+            runner.drain(config.getRequestTimeout());
+
+            long expectedIntervalMicros = config.getExpectedInterval() != null
+                    ? config.getExpectedInterval().toNanos() / 1000
+                    : warmup.latency.getValueAtPercentile(50); // 지정하지 않으면 warmup 의 p50 을 정상 응답 간격으로 본다
+            return new Report(config, measurement, elapsedSeconds, expectedIntervalMicros);
+        } finally {
+            es.shutdownNow();
+        }
+    }
+
+    /**
+     * 한 구간(warmup / measurement)의 결과
+     */
+    static class Phase {
+        final Histogram latency = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+        final LongAdder ok = new LongAdder();
+        final LongAdder okInWindow = new LongAdder(); // 구간이 끝나기 전에 성공으로 끝난 요청 (처리량)
+        final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+        volatile boolean windowOpen = true;
+
+        void record(long intendedStartNanos, int status, Throwable error) {
+            long micros = Math.min((System.nanoTime() - intendedStartNanos) / 1000, HIGHEST_TRACKABLE_MICROS);
+            latency.recordValue(micros);
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                errors.computeIfAbsent(cause.getClass().getSimpleName(), k -> new LongAdder()).increment();
+            } else if (status >= 400) {
+                errors.computeIfAbsent(String.valueOf(status), k -> new LongAdder()).increment();
+            } else {
+                ok.increment();
+                if (windowOpen) {
+                    okInWindow.increment();
+                }
+            }
+        }
+
+        /**
+         * 보내지 못한 요청 : 응답을 받지 못했으므로 timeout 만큼 걸린 실패로 센다
+         */
+        void drop(Duration timeout) {
+            latency.recordValue(Math.min(timeout.toNanos() / 1000, HIGHEST_TRACKABLE_MICROS));
+            errors.computeIfAbsent("GeneratorOverflow", k -> new LongAdder()).increment();
+        }
 
-        for (int i=0; i<10; i++) {
+        void closeWindow() {
+            windowOpen = false;
+        }
+    }
 
-            /*
-             1. Callable : 리턴값 O (exception을 던지게끔 선언되어 있다.)
-             2. Runnable : 리턴값 XDÎ
-            */
+    abstract static class Runner {
+        final HttpClient client;
+        final Config config;
+        final Semaphore inFlight;
 
-            es.submit(() -> {
-                //람다-별도 쓰레드에서 다른 쓰레드의 로컬 변수 i를 접근하지못한다.
-                int idx = counter.addAndGet(1);
+        Runner(HttpClient client, Config config) {
+            this.client = client;
+            this.config = config;
+            this.inFlight = new Semaphore(config.getMaxInFlight());
+        }
 
-//                barrier.await(); //block 되고 await을 만난 숫자가 찼을 때 해제된다.
-                //exception thorws 가 필요하지만 Callable 로 변환했기 때문에 따로 처리하지 않아도 된다.
+        abstract void run(Phase phase, Duration duration) throws InterruptedException;
 
-//                log.info("Thread is {}", idx);
+        /**
+         * 측정 구간이 끝난 뒤에도 응답을 기다리고 있는 요청들을 마저 기다린다.
+         */
+        void drain(Duration timeout) throws InterruptedException {
+            if (inFlight.tryAcquire(config.getMaxInFlight(), timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                inFlight.release(config.getMaxInFlight());
+            }
+        }
 
-                StopWatch sw = new StopWatch();
-                sw.start();
+        /**
+         * @param intendedStartNanos 지연시간 측정 기준 시각 (open-loop 에서는 실제 보낸 시각이 아니라 보냈어야 하는 시각)
+         */
+        void send(Phase phase, long intendedStartNanos, Runnable onDone) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(config.getUrl().replace("{idx}", String.valueOf(counter.incrementAndGet()))))
+                    .timeout(config.getRequestTimeout())
+                    .GET()
+                    .build();
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((res, e) -> {
+                        phase.record(intendedStartNanos, res != null ? res.statusCode() : 0, e);
+                        inFlight.release();
+                        onDone.run();
+                    });
+        }
+    }
+
+    /**
+     * constant arrival rate : 1/rate 간격의 예정 시각마다 요청을 보낸다. 늦어지면 밀린 만큼 바로 보낸다.
+     */
+    static class OpenLoopRunner extends Runner {
+        OpenLoopRunner(HttpClient client, Config config) {
+            super(client, config);
+        }
 
-                String res = rt.getForObject(url, String.class, idx);
-                sw.stop();
-                log.info("Elapsed: {} {} / {}", idx, sw.getTotalTimeSeconds(), res);
+        @Override
+        void run(Phase phase, Duration duration) {
+            long intervalNanos = (long) (1e9 / config.getRate());
+            long start = System.nanoTime();
+            long end = start + duration.toNanos();
+            long intended = start;
 
-                return null;    // Callable로 인식하게 함. (Runnable -> 리턴값 없음)
+            while (intended < end) {
+                long now = System.nanoTime();
+                if (intended > now) {
+                    LockSupport.parkNanos(intended - now);
+                    continue;
+                }
+                if (!inFlight.tryAcquire()) { // maxInFlight 를 넘으면 보내지 않고 에러로 기록 (생성기 메모리 보호)
+                    phase.drop(config.getRequestTimeout());
+                } else {
+                    send(phase, intended, () -> { });
+                }
+                intended += intervalNanos;
+            }
+        }
+    }
+
+    /**
+     * fixed concurrency : concurrency 개의 사용자가 응답을 받으면 바로 다음 요청을 보낸다.
+     */
+    static class ClosedLoopRunner extends Runner {
+        ClosedLoopRunner(HttpClient client, Config config) {
+            super(client, config);
+        }
+
+        @Override
+        void run(Phase phase, Duration duration) throws InterruptedException {
+            long end = System.nanoTime() + duration.toNanos();
+            for (int i = 0; i < config.getConcurrency(); i++) {
+                inFlight.acquire();
+                loop(phase, end);
+            }
+            long remaining = end - System.nanoTime();
+            if (remaining > 0) {
+                TimeUnit.NANOSECONDS.sleep(remaining);
+            }
+        }
+
+        private void loop(Phase phase, long end) {
+            send(phase, System.nanoTime(), () -> {
+                if (System.nanoTime() < end && inFlight.tryAcquire()) {
+                    loop(phase, end);
+                }
             });
         }
+    }
 
-//        barrier.await();
+    @Getter
+    @Setter
+    public static class Config {
+        private String url = "http://localhost:8083/v3/rest6?idx={idx}";
+        private String mode = "rate";          // rate | concurrency
+        private double rate = 100;              // rate 모드 : 초당 요청 수
+        private int concurrency = 100;          // concurrency 모드 : 동시 사용자 수
+        private Duration warmup = Duration.ofSeconds(10);
+        private Duration duration = Duration.ofSeconds(30);
+        private Duration requestTimeout = Duration.ofSeconds(60);
+        private Duration expectedInterval;      // concurrency 모드 coordinated omission 보정 간격 (없으면 warmup p50)
+        private int maxInFlight = 50_000;
+        private int clientThreads = 4;
+        private String format = "json";         // json | csv
+        private String out;
 
-        StopWatch main = new StopWatch();
-        main.start();
+        public static Config parse(String[] args) {
+            Config config = new Config();
+            for (String arg : args) {
+                int eq = arg.indexOf('=');
+                if (!arg.startsWith("--") || eq < 0) {
+                    throw new IllegalArgumentException("expected --key=value but was " + arg);
+                }
+                String key = arg.substring(2, eq);
+                String value = arg.substring(eq + 1);
+                switch (key) {
+                    case "url": config.url = value; break;
+                    case "mode": config.mode = value; break;
+                    case "rate": config.rate = Double.parseDouble(value); break;
+                    case "concurrency": config.concurrency = Integer.parseInt(value); break;
+                    case "warmup": config.warmup = parseDuration(value); break;
+                    case "duration": config.duration = parseDuration(value); break;
+                    case "request-timeout": config.requestTimeout = parseDuration(value); break;
+                    case "expected-interval": config.expectedInterval = parseDuration(value); break;
+                    case "max-in-flight": config.maxInFlight = Integer.parseInt(value); break;
+                    case "client-threads": config.clientThreads = Integer.parseInt(value); break;
+                    case "format": config.format = value; break;
+                    case "out": config.out = value; break;
+                    default: throw new IllegalArgumentException("unknown option --" + key);
+                }
+            }
+            return config;
+        }
 
-        es.shutdown();
-        es.awaitTermination(100, TimeUnit.SECONDS); //* 지정된 시간이 타임아웃되기 전이라면 대기작업이 될때까지 기다려 준다?
-         //여기 이후부터는 100초가 지났거나 작업이 종료됨
+        // 10s, 500ms, 2m 형식
+        static Duration parseDuration(String value) {
+            if (value.endsWith("ms")) {
+                return Duration.ofMillis(Long.parseLong(value.substring(0, value.length() - 2)));
+            } else if (value.endsWith("s")) {
+                return Duration.ofSeconds(Long.parseLong(value.substring(0, value.length() - 1)));
+            } else if (value.endsWith("m")) {
+                return Duration.ofMinutes(Long.parseLong(value.substring(0, value.length() - 1)));
+            }
+            return Duration.ofSeconds(Long.parseLong(value));
+        }
+    }
 
-        main.stop();
-        log.info("Total: {}", main.getTotalTimeSeconds());
+    @Getter
+    public static class Report {
+        private final Config config;
+        private final long requests;
+        private final long ok;
+        private final long served; // 측정 구간 안에 성공으로 끝난 요청 수
+        private final Map<String, Long> errors = new TreeMap<>();
+        private final double elapsedSeconds;
+        private final double throughput;
+        private final Histogram latency;
+        private final Histogram correctedLatency;
+
+        Report(Config config, Phase phase, double elapsedSeconds, long expectedIntervalMicros) {
+            this.config = config;
+            this.ok = phase.ok.sum();
+            phase.errors.forEach((k, v) -> errors.put(k, v.sum()));
+            this.requests = ok + errors.values().stream().mapToLong(Long::longValue).sum();
+            this.elapsedSeconds = elapsedSeconds;
+            this.served = phase.okInWindow.sum();
+            this.throughput = served / elapsedSeconds; // 보낸 요청 수로 나누면 과부하에서 처리량이 아니라 보낸 rate 가 나온다
+            this.latency = phase.latency;
+            this.correctedLatency = "concurrency".equalsIgnoreCase(config.getMode()) && expectedIntervalMicros > 0
+                    ? phase.latency.copyCorrectedForCoordinatedOmission(expectedIntervalMicros)
+                    : phase.latency; // open-loop 는 예정 시각 기준으로 쟀기 때문에 이미 보정되어 있다
+        }
+
+        public double errorRate() {
+            return requests == 0 ? 0 : (double) (requests - ok) / requests;
+        }
+
+        public double percentileMillis(double percentile) {
+            return correctedLatency.getValueAtPercentile(percentile) / 1000.0;
+        }
+
+        public String toJson() {
+            Map<String, Object> root = new LinkedHashMap<>();
+            root.put("url", config.getUrl());
+            root.put("mode", config.getMode());
+            root.put("rate", config.getRate());
+            root.put("concurrency", config.getConcurrency());
+            root.put("durationSeconds", elapsedSeconds);
+            root.put("requests", requests);
+            root.put("ok", ok);
+            root.put("served", served);
+            root.put("errors", errors);
+            root.put("errorRate", errorRate());
+            root.put("throughput", throughput);
+            root.put("latencyMs", latencyMillis(correctedLatency));
+            root.put("uncorrectedLatencyMs", latencyMillis(latency));
+            try {
+                return new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValueAsString(root);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        public String toCsv() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("url,mode,rate,concurrency,duration_s,requests,ok,served,error_rate,throughput,p50_ms,p90_ms,p99_ms,p999_ms,max_ms,errors\n");
+            Map<String, Double> l = latencyMillis(correctedLatency);
+            sb.append(config.getUrl()).append(',').append(config.getMode()).append(',')
+                    .append(config.getRate()).append(',').append(config.getConcurrency()).append(',')
+                    .append(String.format("%.3f", elapsedSeconds)).append(',')
+                    .append(requests).append(',').append(ok).append(',').append(served).append(',')
+                    .append(String.format("%.5f", errorRate())).append(',')
+                    .append(String.format("%.1f", throughput)).append(',')
+                    .append(l.get("p50")).append(',').append(l.get("p90")).append(',').append(l.get("p99")).append(',')
+                    .append(l.get("p99.9")).append(',').append(l.get("max")).append(',')
+                    .append(errors.toString().replace(',', ';'))
+                    .append('\n');
+            return sb.toString();
+        }
+
+        private static Map<String, Double> latencyMillis(Histogram h) {
+            Map<String, Double> m = new LinkedHashMap<>();
+            m.put("p50", h.getValueAtPercentile(50) / 1000.0);
+            m.put("p90", h.getValueAtPercentile(90) / 1000.0);
+            m.put("p99", h.getValueAtPercentile(99) / 1000.0);
+            m.put("p99.9", h.getValueAtPercentile(99.9) / 1000.0);
+            m.put("max", h.getMaxValue() / 1000.0);
+            m.put("mean", h.getMean() / 1000.0);
+            return m;
+        }
     }
 }
@@ -0,0 +1,66 @@
+package com.toby.reactive;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * 비동기 파이프라인 메트릭 (/actuator/prometheus, /actuator/metrics)
+ * - completion.stage               : Completion 단계별 Timer (CompletionMetrics)
+ * - deferred.result.*              : 대기 중인 DeferredResult, async timeout (DeferredResultMetrics)
+ * - netty.eventloop.pending.tasks  : 공용 클라이언트 이벤트 루프에 쌓인 작업 수 (이벤트 루프가 밀리는지)
+ * - executor.*                     : ExecutorConfig 의 프로필(myThreadPool 등)별 active / queued / pool.size
+ *                                    (spring boot 의 TaskExecutorMetricsAutoConfiguration 이 빈 이름으로 등록)
+ *
+ * gauge 는 scrape 할 때만 읽고, 요청 경로에서는 Timer.record / 카운터 증가만 일어난다.
+ */
+@Configuration
+public class MetricsConfig {
+
+	@Bean(destroyMethod = "close")
+	public CompletionMetrics completionMetrics(MeterRegistry registry) {
+		CompletionMetrics metrics = new CompletionMetrics(registry);
+		Completion.setObserver(metrics);
+		return metrics;
+	}
+
+	@Bean
+	public MeterBinder clientEventLoopMetrics(EventLoopGroup clientEventLoopGroup) {
+		return registry -> {
+			int index = 0;
+			for (EventExecutor executor : clientEventLoopGroup) {
+				if (executor instanceof SingleThreadEventExecutor) {
+					Gauge.builder("netty.eventloop.pending.tasks", (SingleThreadEventExecutor) executor, SingleThreadEventExecutor::pendingTasks)
+							.description("이벤트 루프에서 실행을 기다리는 작업 수")
+							.tag("group", "client-nio")
+							.tag("index", String.valueOf(index))
+							.register(registry);
+				}
+				index++;
+			}
+		};
+	}
+
+	@Configuration
+	@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+	public static class DeferredResultMetricsConfig implements WebMvcConfigurer {
+		private final DeferredResultMetrics deferredResultMetrics;
+
+		public DeferredResultMetricsConfig(MeterRegistry registry) {
+			this.deferredResultMetrics = new DeferredResultMetrics(registry);
+		}
+
+		@Override
+		public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+			configurer.registerDeferredResultInterceptors(deferredResultMetrics);
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package com.toby.reactive;
+
+import io.netty.util.concurrent.EventExecutorGroup;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+import org.springframework.web.client.AsyncRestTemplate;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 다운스트림 호출 micro-batching : 동시에 들어온 호출들을 모아서 배치 엔드포인트(RemoteService 의 /service/batch)에 한 번에 보낸다.
+ *
+ * - 비어 있는 배치에 첫 항목이 들어온 시점부터 window 가 지나거나, maxBatchSize 개가 차면 보낸다.
+ * - 응답의 항목을 순서대로 각 호출자의 future 로 나눠준다. 항목이 5xx / 4xx 면 그 호출자만 HttpServerErrorException / HttpClientErrorException.
+ * - 배치 요청 자체가 실패하면 배치 안의 모든 호출자가 같은 에러를 받는다.
+ * - window = 0 이면 모으지 않고 바로 보낸다 (항목 1개짜리 배치, 비교용)
+ * - 호출자가 future 를 취소하면 아직 모으는 중인 배치에서 빼낸다. 이미 보낸 배치는 다른 호출자와 공유하므로 취소하지 않고 그 항목의 결과만 버린다.
+ *
+ * 호출 하나의 지연은 최대 window 만큼 늘어나는 대신, 다운스트림 요청 수(커넥션, 헤더, 요청 처리 비용)가 배치 크기만큼 줄어든다.
+ * 배치를 모으는 동안은 락 하나만 잡고, window 타이머는 클라이언트 이벤트 루프에 예약한다.
+ */
+public class MicroBatcher {
+	private static final HttpHeaders JSON = new HttpHeaders();
+
+	static {
+		JSON.setContentType(MediaType.APPLICATION_JSON);
+	}
+
+	private final AsyncRestTemplate rt;
+	private final String batchUrl;
+	private final EventExecutorGroup scheduler;
+	private final int maxBatchSize;
+	private final long windowNanos;
+
+	private final Object lock = new Object();
+	private Batch current; // lock 안에서만 접근
+
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder items = new LongAdder();
+	private final LongAdder fullBatches = new LongAdder();
+
+	public MicroBatcher(AsyncRestTemplate rt, String batchUrl, EventExecutorGroup scheduler, int maxBatchSize, Duration window) {
+		this.rt = rt;
+		this.batchUrl = batchUrl;
+		this.scheduler = scheduler;
+		this.maxBatchSize = Math.max(1, maxBatchSize);
+		this.windowNanos = window.toNanos();
+	}
+
+	/**
+	 * @return 항목 하나의 응답 (단건 호출의 getForEntity 와 같은 모양이라서 Completion 체인에 그대로 쓴다)
+	 */
+	public ListenableFuture<ResponseEntity<String>> submit(String req) {
+		SettableListenableFuture<ResponseEntity<String>> f = new SettableListenableFuture<>();
+		Batch created = null;
+		Batch ready = null;
+		synchronized (lock) {
+			if (current == null) {
+				current = created = new Batch(maxBatchSize);
+			}
+			current.add(req, f);
+			if (windowNanos == 0 || current.reqs.size() >= maxBatchSize) {
+				ready = current;
+				current = null;
+			}
+		}
+		f.addCallback(r -> { }, e -> {
+			if (f.isCancelled()) {
+				withdraw(f);
+			}
+		});
+		if (ready != null) {
+			if (ready.reqs.size() >= maxBatchSize) {
+				fullBatches.increment();
+			}
+			send(ready);
+		} else if (created != null) {
+			Batch batch = created;
+			scheduler.schedule(() -> flush(batch), windowNanos, TimeUnit.NANOSECONDS);
+		}
+		return f;
+	}
+
+	/**
+	 * 모으는 중인 배치에서 취소된 항목을 뺀다. 다 빠져서 비면 window 가 지나도 보내지 않는다.
+	 */
+	private void withdraw(SettableListenableFuture<ResponseEntity<String>> f) {
+		synchronized (lock) {
+			if (current != null) {
+				current.remove(f);
+			}
+		}
+	}
+
+	/**
+	 * window 가 지난 배치를 보낸다. 그 사이에 가득 차서 이미 보냈으면 아무것도 하지 않는다.
+	 */
+	private void flush(Batch batch) {
+		synchronized (lock) {
+			if (current != batch) {
+				return;
+			}
+			current = null;
+		}
+		if (!batch.reqs.isEmpty()) {
+			send(batch);
+		}
+	}
+
+	private void send(Batch batch) {
+		batches.increment();
+		items.add(batch.reqs.size());
+		ListenableFuture<ResponseEntity<RemoteService.BatchItem[]>> response;
+		try {
+			response = rt.postForEntity(batchUrl, new HttpEntity<>(batch.reqs, JSON), RemoteService.BatchItem[].class);
+		} catch (RuntimeException e) {
+			batch.fail(e);
+			return;
+		}
+		response.addCallback(r -> {
+			RemoteService.BatchItem[] results = r.getBody();
+			if (results == null || results.length != batch.reqs.size()) {
+				batch.fail(new IllegalStateException("batch response size mismatch: " + batch.reqs.size() + " requests, "
+						+ (results == null ? 0 : results.length) + " items"));
+				return;
+			}
+			for (int i = 0; i < results.length; i++) {
+				complete(batch.futures.get(i), results[i]);
+			}
+		}, batch::fail);
+	}
+
+	private static void complete(SettableListenableFuture<ResponseEntity<String>> f, RemoteService.BatchItem item) {
+		HttpStatus status = HttpStatus.resolve(item.getStatus());
+		if (status == null || status.is5xxServerError()) {
+			f.setException(new HttpServerErrorException(status != null ? status : HttpStatus.INTERNAL_SERVER_ERROR, String.valueOf(item.getBody())));
+		} else if (status.is4xxClientError()) {
+			f.setException(new HttpClientErrorException(status, String.valueOf(item.getBody())));
+		} else {
+			f.set(ResponseEntity.status(status).body(item.getBody()));
+		}
+	}
+
+	/**
+	 * 모으는 중인 배치를 window 를 기다리지 않고 보낸다. batcher 를 더 쓰지 않을 때 (window 타이머가 이벤트 루프와 함께 사라져서
+	 * 모아둔 호출자가 영영 응답을 못 받는 일이 없게) 이벤트 루프를 닫기 전에 부른다.
+	 */
+	public void close() {
+		Batch batch;
+		synchronized (lock) {
+			batch = current;
+		}
+		if (batch != null) {
+			flush(batch);
+		}
+	}
+
+	public long getBatches() {
+		return batches.sum();
+	}
+
+	public long getItems() {
+		return items.sum();
+	}
+
+	public long getFullBatches() {
+		return fullBatches.sum();
+	}
+
+	public double getAverageBatchSize() {
+		long b = batches.sum();
+		return b == 0 ? 0 : (double) items.sum() / b;
+	}
+
+	private static final class Batch {
+		final List<String> reqs;
+		final List<SettableListenableFuture<ResponseEntity<String>>> futures;
+
+		Batch(int capacity) {
+			reqs = new ArrayList<>(capacity);
+			futures = new ArrayList<>(capacity);
+		}
+
+		void add(String req, SettableListenableFuture<ResponseEntity<String>> f) {
+			reqs.add(req);
+			futures.add(f);
+		}
+
+		void remove(SettableListenableFuture<ResponseEntity<String>> f) {
+			int i = futures.indexOf(f); // 배치는 maxBatchSize 개를 넘지 않는다
+			if (i >= 0) {
+				reqs.remove(i);
+				futures.remove(i);
+			}
+		}
+
+		void fail(Throwable e) {
+			for (SettableListenableFuture<ResponseEntity<String>> f : futures) {
+				f.setException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package com.toby.reactive;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * 다운스트림 호출 micro-batching 설정 (application.yml 의 reactive.batch.*)
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "reactive.batch")
+public class MicroBatcherProperties {
+	private Duration window = Duration.ofMillis(2); // 첫 호출부터 이만큼 모아서 보낸다 (0 이면 모으지 않음)
+	private int maxBatchSize = 50;                  // 이만큼 차면 window 를 기다리지 않고 보낸다
+}
@@ -0,0 +1,34 @@
+package com.toby.reactive;
+
+import io.netty.channel.EventLoopGroup;
+import org.springframework.web.client.AsyncRestTemplate;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 배치 엔드포인트 URL 로 MicroBatcher 를 찾는다. 처음 찾을 때 reactive.batch.* 설정으로 만든다.
+ * 같은 URL 로 가는 호출은 모두 같은 batcher 에 모인다.
+ */
+public class MicroBatcherRegistry {
+	private final AsyncRestTemplate rt;
+	private final EventLoopGroup scheduler;
+	private final MicroBatcherProperties properties;
+	private final Map<String, MicroBatcher> batchers = new ConcurrentHashMap<>();
+
+	public MicroBatcherRegistry(AsyncRestTemplate rt, EventLoopGroup scheduler, MicroBatcherProperties properties) {
+		this.rt = rt;
+		this.scheduler = scheduler;
+		this.properties = properties;
+	}
+
+	public MicroBatcher get(String batchUrl) {
+		MicroBatcher b = batchers.get(batchUrl);
+		return b != null ? b : batchers.computeIfAbsent(batchUrl,
+				url -> new MicroBatcher(rt, url, scheduler, properties.getMaxBatchSize(), properties.getWindow()));
+	}
+
+	public Map<String, MicroBatcher> getAll() {
+		return batchers;
+	}
+}
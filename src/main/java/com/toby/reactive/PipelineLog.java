@@ -0,0 +1,88 @@
+package com.toby.reactive;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Completion 단계 로그를 남길지 정하는 정책
+ * 콜백은 대부분 클라이언트 이벤트 루프 쓰레드에서 실행되므로 응답마다 로그를 남기면 (본문 toString + 콘솔 출력) 그만큼 I/O 쓰레드가 멈춘다.
+ *
+ * - OFF     : 남기지 않음
+ * - SAMPLED : 단계별로 sampleEvery 번에 한 번 + 느린 것 + 에러
+ * - SLOW    : slowThreshold 를 넘은 것 + 에러
+ * - ALL     : 전부 (디버깅용)
+ *
+ * 남기지 않기로 한 경우에는 카운터 하나 증가 말고는 아무것도 하지 않는다. 본문 문자열은 실제로 남길 때만 만든다.
+ * 출력 자체는 logback-spring.xml 의 비동기 appender (neverBlock) 가 하므로 큐가 차도 호출한 쓰레드는 기다리지 않는다.
+ */
+@Slf4j
+public class PipelineLog {
+	public enum Mode { OFF, SAMPLED, SLOW, ALL }
+
+	private static final Completion.Stage[] STAGES = Completion.Stage.values(); // OFF 보다 먼저 초기화되어야 한다
+
+	public static final PipelineLog OFF = new PipelineLog(Mode.OFF, 1, 0, TimeUnit.MILLISECONDS, 0);
+
+	private final Mode mode;
+	private final long sampleEvery;
+	private final long slowNanos;
+	private final int maxBodyLength;
+	private final AtomicLongArray counters = new AtomicLongArray(STAGES.length);
+
+	/**
+	 * @param sampleEvery   SAMPLED 에서 단계별로 몇 번에 한 번 남길지
+	 * @param slowThreshold 이 이상 걸린 단계는 (OFF 가 아니면) 항상 남긴다
+	 * @param maxBodyLength 응답 본문은 이 길이까지만 남긴다
+	 */
+	public PipelineLog(Mode mode, long sampleEvery, long slowThreshold, TimeUnit unit, int maxBodyLength) {
+		this.mode = mode;
+		this.sampleEvery = Math.max(1, sampleEvery);
+		this.slowNanos = unit.toNanos(slowThreshold);
+		this.maxBodyLength = maxBodyLength;
+	}
+
+	void success(Completion.Stage stage, long nanos, Object value) {
+		if (shouldLog(stage, nanos) && log.isInfoEnabled()) {
+			log.info("{} {}us value = {}", stage, nanos / 1000, describe(value));
+		}
+	}
+
+	void error(Completion.Stage stage, long nanos, Throwable e) {
+		if (mode != Mode.OFF && log.isWarnEnabled()) { // 에러는 샘플링하지 않는다 (쏟아지면 비동기 appender 에서 버려진다)
+			log.warn("{} {}us error = {}", stage, nanos / 1000, e.getMessage());
+		}
+	}
+
+	private boolean shouldLog(Completion.Stage stage, long nanos) {
+		switch (mode) {
+			case ALL:
+				return true;
+			case SAMPLED:
+				return nanos >= slowNanos || counters.getAndIncrement(stage.ordinal()) % sampleEvery == 0;
+			case SLOW:
+				return nanos >= slowNanos;
+			default:
+				return false;
+		}
+	}
+
+	private String describe(Object value) {
+		Object body = value instanceof ResponseEntity ? ((ResponseEntity<?>) value).getBody() : value;
+		String s = String.valueOf(body);
+		return s.length() > maxBodyLength ? s.substring(0, maxBodyLength) + "...(" + s.length() + ")" : s;
+	}
+
+	/**
+	 * Completion 의 hook 은 static 이라서 컨텍스트가 닫힐 때 되돌려 놓는다. (다른 컨텍스트의 것으로 바뀌어 있으면 그대로 둔다)
+	 */
+	public void close() {
+		Completion.clearPipelineLog(this);
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+}
@@ -0,0 +1,23 @@
+package com.toby.reactive;
+
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Completion 콜백 로그 정책 (PipelineLog). 출력은 logback-spring.xml 의 비동기 appender 가 한다.
+ */
+@Configuration
+@EnableConfigurationProperties(PipelineLogProperties.class)
+public class PipelineLogConfig {
+
+	@Bean(destroyMethod = "close")
+	public PipelineLog pipelineLog(PipelineLogProperties properties) {
+		PipelineLog pipelineLog = new PipelineLog(properties.getMode(), properties.getSampleEvery(),
+				properties.getSlowThreshold().toNanos(), TimeUnit.NANOSECONDS, properties.getMaxBodyLength());
+		Completion.setPipelineLog(pipelineLog);
+		return pipelineLog;
+	}
+}
@@ -0,0 +1,20 @@
+package com.toby.reactive;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Completion 단계 로그 설정 (application.yml 의 reactive.pipeline-log.*)
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "reactive.pipeline-log")
+public class PipelineLogProperties {
+	private PipelineLog.Mode mode = PipelineLog.Mode.SAMPLED;
+	private long sampleEvery = 1000;                             // SAMPLED : 단계별로 1000 번에 한 번
+	private Duration slowThreshold = Duration.ofMillis(2500);    // 이보다 오래 걸린 단계는 항상 남긴다
+	private int maxBodyLength = 200;                             // 응답 본문은 이 길이까지만
+}
@@ -0,0 +1,399 @@
+package com.toby.reactive;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.pool.AbstractChannelPoolHandler;
+import io.netty.channel.pool.AbstractChannelPoolMap;
+import io.netty.channel.pool.ChannelHealthChecker;
+import io.netty.channel.pool.ChannelPool;
+import io.netty.channel.pool.FixedChannelPool;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.ScheduledFuture;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.AsyncClientHttpRequest;
+import org.springframework.http.client.AsyncClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Netty4ClientHttpRequestFactory 는 요청마다 새 커넥션을 맺고 Connection: close 로 끊는다.
+ * 이 팩토리는 호스트(host:port)마다 FixedChannelPool 을 두고 keep-alive 커넥션을 재사용한다.
+ * - maxConnectionsPerHost 를 넘는 요청은 maxPendingAcquires 만큼 대기열에서 기다리고, 그마저 차면 바로 실패한다.
+ * - idleTimeout 동안 쓰이지 않은 커넥션은 닫히고, 다음 acquire 때 헬스체크에서 풀에서 빠진다.
+ * - 보낸 뒤 responseTimeout 안에 응답이 없으면 커넥션을 닫고 TimeoutException 으로 실패한다. (응답을 기다리던 커넥션은 재사용할 수 없다)
+ * - assignment = AFFINITY 면 호스트 x 이벤트 루프마다 풀을 두고, 한 요청의 호출들이 같은 이벤트 루프의 커넥션을 쓰게 한다.
+ * - 돌려준 future 를 취소하면 : 커넥션을 받기 전이면 받는 대로 보내지 않고 풀에 돌려주고, 응답을 기다리는 중이면 커넥션을 닫는다. (응답 중간의 커넥션은 재사용할 수 없다)
+ */
+@Slf4j
+public class PooledNettyClientHttpRequestFactory implements AsyncClientHttpRequestFactory, DisposableBean {
+	// 커넥션 하나에는 동시에 한 요청만 (HTTP/1.1 파이프라이닝 X) -> 응답을 기다리는 future 와 돌려줄 풀을 채널에 붙여둔다
+	private static final AttributeKey<SettableListenableFuture<ClientHttpResponse>> RESPONSE_FUTURE = AttributeKey.valueOf("responseFuture");
+	private static final AttributeKey<ChannelPool> ACQUIRED_FROM = AttributeKey.valueOf("acquiredFrom");
+
+	private final AsyncClientProperties properties;
+	private final Bootstrap bootstrap;
+	private final EventLoop[] loops; // AFFINITY : 이 루프들마다 호스트별 풀을 따로 둔다
+	private final AbstractChannelPoolMap<PoolKey, FixedChannelPool> pools;
+	private final ResponseHandler responseHandler = new ResponseHandler();
+
+	public PooledNettyClientHttpRequestFactory(EventLoopGroup eventLoopGroup, AsyncClientProperties properties) {
+		this.properties = properties;
+		this.bootstrap = new Bootstrap()
+				.group(eventLoopGroup)
+				.channel(ClientTransport.socketChannel(eventLoopGroup))
+				.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) properties.getConnectTimeout().toMillis())
+				.option(ChannelOption.SO_KEEPALIVE, true)
+				.option(ChannelOption.TCP_NODELAY, true);
+
+		List<EventLoop> loopList = new ArrayList<>();
+		if (properties.getAssignment() == AsyncClientProperties.Assignment.AFFINITY) {
+			eventLoopGroup.forEach(e -> loopList.add((EventLoop) e));
+		}
+		this.loops = loopList.toArray(new EventLoop[0]);
+		int poolsPerHost = Math.max(1, loops.length);
+
+		this.pools = new AbstractChannelPoolMap<PoolKey, FixedChannelPool>() {
+			@Override
+			protected FixedChannelPool newPool(PoolKey key) {
+				Bootstrap b = key.loop != null ? bootstrap.clone(key.loop) : bootstrap.clone(); // 루프 하나짜리 그룹 : 커넥션도, 풀의 acquire 처리도 그 루프에서
+				return new FixedChannelPool(b.remoteAddress(key.address), new PoolHandler(),
+						ChannelHealthChecker.ACTIVE, FixedChannelPool.AcquireTimeoutAction.FAIL,
+						properties.getAcquireTimeout().toMillis(),
+						Math.max(1, properties.getMaxConnectionsPerHost() / poolsPerHost), Math.max(1, properties.getMaxPendingAcquires() / poolsPerHost),
+						true, true); // release 시에도 헬스체크, 가장 최근에 쓴 커넥션부터 재사용(LIFO)
+			}
+		};
+	}
+
+	@Override
+	public AsyncClientHttpRequest createAsyncRequest(URI uri, HttpMethod httpMethod) throws IOException {
+		if (!"http".equalsIgnoreCase(uri.getScheme())) {
+			throw new IOException("Only http is supported: " + uri);
+		}
+		return new PooledNettyClientHttpRequest(uri, httpMethod);
+	}
+
+	@Override
+	public void destroy() {
+		pools.close();
+	}
+
+	private static InetSocketAddress addressOf(URI uri) {
+		int port = uri.getPort() != -1 ? uri.getPort() : 80;
+		return InetSocketAddress.createUnresolved(uri.getHost(), port); // DNS 조회는 connect 시점에 이벤트 루프에서
+	}
+
+	private PoolKey poolKey(URI uri) {
+		return new PoolKey(addressOf(uri), loops.length == 0 ? null : affinityLoop());
+	}
+
+	/**
+	 * 이벤트 루프에서 (앞 단계의 응답 콜백에서) 보내는 호출은 그 루프에 남기고, 다른 쓰레드는 쓰레드마다 정해진 루프로 보낸다.
+	 */
+	private EventLoop affinityLoop() {
+		for (EventLoop loop : loops) {
+			if (loop.inEventLoop()) {
+				return loop;
+			}
+		}
+		return loops[(int) (Thread.currentThread().getId() % loops.length)];
+	}
+
+	/**
+	 * 채널을 풀에 돌려준다. 응답, 에러, 연결 끊김이 겹쳐도 한번만 돌려주도록 attribute 를 비우는 쪽만 release 한다.
+	 */
+	private static void releaseToPool(Channel channel) {
+		ChannelPool pool = channel.attr(ACQUIRED_FROM).getAndSet(null);
+		if (pool != null) {
+			pool.release(channel);
+		}
+	}
+
+	private static void fail(Channel channel, Throwable cause) {
+		SettableListenableFuture<ClientHttpResponse> future = channel.attr(RESPONSE_FUTURE).getAndSet(null);
+		channel.close(); // 응답 중간 상태의 커넥션은 재사용할 수 없다
+		releaseToPool(channel);
+		if (future != null) {
+			future.setException(cause);
+		}
+	}
+
+	private class PoolHandler extends AbstractChannelPoolHandler {
+		@Override
+		public void channelCreated(Channel ch) {
+			ch.pipeline()
+					.addLast(new IdleStateHandler(0, 0, properties.getIdleTimeout().toMillis(), TimeUnit.MILLISECONDS))
+					.addLast(new HttpClientCodec())
+					.addLast(new HttpObjectAggregator((int) properties.getMaxResponseSize().toBytes()))
+					.addLast(responseHandler);
+		}
+	}
+
+	@ChannelHandler.Sharable
+	private static class ResponseHandler extends SimpleChannelInboundHandler<FullHttpResponse> {
+		@Override
+		protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse response) {
+			Channel channel = ctx.channel();
+			SettableListenableFuture<ClientHttpResponse> future = channel.attr(RESPONSE_FUTURE).getAndSet(null);
+			if (!HttpUtil.isKeepAlive(response)) {
+				channel.close();
+			}
+			releaseToPool(channel); // 콜백에서 바로 다음 요청을 보낼 수 있도록 future 를 완료하기 전에 먼저 돌려준다
+			if (future != null) {
+				PooledNettyClientHttpResponse r = new PooledNettyClientHttpResponse(response.retain());
+				if (!future.set(r)) {
+					r.close(); // 그 사이에 취소됐다
+				}
+			}
+		}
+
+		@Override
+		public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+			if (evt instanceof IdleStateEvent) {
+				ctx.close(); // idle eviction
+				return;
+			}
+			super.userEventTriggered(ctx, evt);
+		}
+
+		@Override
+		public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+			if (ctx.channel().hasAttr(RESPONSE_FUTURE) && ctx.channel().attr(RESPONSE_FUTURE).get() != null) {
+				fail(ctx.channel(), new ClosedChannelException());
+			}
+			super.channelInactive(ctx);
+		}
+
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+			log.warn("client channel error: {}", cause.getMessage());
+			fail(ctx.channel(), cause);
+		}
+	}
+
+	private class PooledNettyClientHttpRequest implements AsyncClientHttpRequest {
+		private final URI uri;
+		private final HttpMethod method;
+		private final HttpHeaders headers = new HttpHeaders();
+		private final ByteArrayOutputStream body = new ByteArrayOutputStream(0);
+
+		PooledNettyClientHttpRequest(URI uri, HttpMethod method) {
+			this.uri = uri;
+			this.method = method;
+		}
+
+		@Override
+		public HttpMethod getMethod() {
+			return method;
+		}
+
+		@Override
+		public String getMethodValue() {
+			return method.name();
+		}
+
+		@Override
+		public URI getURI() {
+			return uri;
+		}
+
+		@Override
+		public HttpHeaders getHeaders() {
+			return headers;
+		}
+
+		@Override
+		public OutputStream getBody() {
+			return body;
+		}
+
+		@Override
+		public ListenableFuture<ClientHttpResponse> executeAsync() {
+			SettableListenableFuture<ClientHttpResponse> future = new SettableListenableFuture<>();
+			FixedChannelPool pool = pools.get(poolKey(uri));
+			long trace = TimelineRecorder.current(); // 이 호출을 보낸 Completion 단계의 trace (없으면 0)
+
+			pool.acquire().addListener((FutureListener<Channel>) acquired -> {
+				if (!acquired.isSuccess()) {
+					future.setException(acquired.cause()); // 풀 대기열이 찼거나 acquireTimeout
+					return;
+				}
+				Channel channel = acquired.getNow();
+				channel.attr(ACQUIRED_FROM).set(pool);
+				if (future.isCancelled()) { // 커넥션을 기다리는 동안 취소됨 : 아무것도 보내지 않았으니 그대로 돌려준다
+					releaseToPool(channel);
+					return;
+				}
+				channel.attr(RESPONSE_FUTURE).set(future);
+				channel.writeAndFlush(toNettyRequest(uri, method, headers, body.toByteArray())).addListener((Future<? super Void> written) -> {
+					if (!written.isSuccess()) {
+						fail(channel, written.cause());
+						return;
+					}
+					TimelineRecorder.stampWritten(trace);
+				});
+				long timeoutNanos = properties.getResponseTimeout().toNanos();
+				ScheduledFuture<?> timeout = channel.eventLoop().schedule(() -> {
+					if (channel.attr(RESPONSE_FUTURE).get() == future) {
+						fail(channel, new TimeoutException("no response within " + properties.getResponseTimeout().toMillis() + "ms from " + uri.getHost()));
+					}
+				}, timeoutNanos, TimeUnit.NANOSECONDS);
+				future.addCallback(r -> timeout.cancel(false), e -> timeout.cancel(false));
+				future.addCallback(r -> { }, e -> { // 위의 isCancelled 뒤에 취소된 경우 (이미 취소됐으면 바로 불린다)
+					if (future.isCancelled() && channel.attr(RESPONSE_FUTURE).compareAndSet(future, null)) {
+						channel.close();
+						releaseToPool(channel);
+					}
+				});
+			});
+
+			return future;
+		}
+	}
+
+	private static final class PoolKey {
+		final InetSocketAddress address;
+		final EventLoop loop; // ROUND_ROBIN 이면 null
+
+		PoolKey(InetSocketAddress address, EventLoop loop) {
+			this.address = address;
+			this.loop = loop;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof PoolKey)) {
+				return false;
+			}
+			PoolKey other = (PoolKey) o;
+			return address.equals(other.address) && loop == other.loop;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * address.hashCode() + System.identityHashCode(loop);
+		}
+	}
+
+	/**
+	 * HTTP/2 팩토리(Http2ClientHttpRequestFactory)도 같이 쓴다. (Http2StreamFrameToHttpObjectCodec 이 HTTP/1.1 메시지를 프레임으로 바꾼다)
+	 */
+	static FullHttpRequest toNettyRequest(URI uri, HttpMethod method, HttpHeaders headers, byte[] body) {
+		String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+		if (uri.getRawQuery() != null) {
+			path = path + "?" + uri.getRawQuery();
+		}
+		FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1,
+				io.netty.handler.codec.http.HttpMethod.valueOf(method.name()), path, Unpooled.wrappedBuffer(body));
+
+		request.headers().set(HttpHeaderNames.HOST, uri.getHost() + (uri.getPort() != -1 ? ":" + uri.getPort() : ""));
+		request.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+		for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+			request.headers().add(entry.getKey(), entry.getValue());
+		}
+		HttpUtil.setContentLength(request, request.content().readableBytes());
+		return request;
+	}
+
+	/**
+	 * 응답 body(ByteBuf)는 close 될 때 release 된다. (AsyncRestTemplate 이 body 를 읽은 후 close 해준다)
+	 */
+	static class PooledNettyClientHttpResponse implements ClientHttpResponse {
+		private final FullHttpResponse nettyResponse;
+		private final InputStream body;
+		private HttpHeaders headers;
+		private boolean closed;
+
+		PooledNettyClientHttpResponse(FullHttpResponse nettyResponse) {
+			this.nettyResponse = nettyResponse;
+			this.body = new ByteBufInputStream(nettyResponse.content());
+		}
+
+		@Override
+		public HttpStatus getStatusCode() {
+			return HttpStatus.valueOf(getRawStatusCode());
+		}
+
+		@Override
+		public int getRawStatusCode() {
+			return nettyResponse.status().code();
+		}
+
+		@Override
+		public String getStatusText() {
+			return nettyResponse.status().reasonPhrase();
+		}
+
+		@Override
+		public HttpHeaders getHeaders() {
+			if (headers == null) {
+				HttpHeaders result = new HttpHeaders();
+				for (Map.Entry<String, String> entry : nettyResponse.headers()) {
+					result.add(entry.getKey(), entry.getValue());
+				}
+				headers = result;
+			}
+			return headers;
+		}
+
+		@Override
+		public InputStream getBody() {
+			return body;
+		}
+
+		/**
+		 * body 를 복사하지 않고 참조 하나를 더해서 넘긴다. (ByteBufClient) 받은 쪽이 release 해야 하고, 이 응답은 그대로 close 한다.
+		 */
+		ByteBuf retainedContent() {
+			return nettyResponse.content().retainedSlice();
+		}
+
+		@Override
+		public void close() {
+			if (!closed) {
+				closed = true;
+				nettyResponse.release();
+			}
+		}
+	}
+}
@@ -1,18 +1,14 @@
 package com.toby.reactive;
 
-import io.netty.channel.nio.NioEventLoopGroup;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.context.annotation.Bean;
 import org.springframework.core.env.Environment;
 import org.springframework.http.ResponseEntity;
-import org.springframework.http.client.Netty4ClientHttpRequestFactory;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.AsyncResult;
 import org.springframework.scheduling.annotation.EnableAsync;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.util.concurrent.ListenableFuture;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -22,6 +18,7 @@ import org.springframework.web.client.RestTemplate;
 import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.PostConstruct;
+import java.util.concurrent.atomic.AtomicReference;
 
 @EnableAsync
 @Slf4j
@@ -32,28 +29,52 @@ public class ReactiveApplication {
 	public static class MyController {
 
 
-		public static final String HTTP_LOCALHOST_8081_SERVICE_REQ_REQ1 = "http://localhost:8081/service?req={req}";
-		public static final String HTTP_LOCALHOST_8081_SERVICE_REQ_REQ2 = "http://localhost:8081/service2?req={req}";
 		@Autowired Myservice myservice;
+		String url1; // RemoteService 주소는 reactive.client.remote-url
+		String url2;
 
+		@Autowired
+		void setRemote(AsyncClientProperties properties) {
+			url1 = properties.getRemoteUrl() + "/service?req={req}";
+			url2 = properties.getRemoteUrl() + "/service2?req={req}";
+		}
 
 
-		RestTemplate rt = new RestTemplate();
 
-		NioEventLoopGroup eventLoopGroup = new NioEventLoopGroup(1);
-		AsyncRestTemplate rt2 = new AsyncRestTemplate(new Netty4ClientHttpRequestFactory(eventLoopGroup));
+		RestTemplate rt = new RestTemplate();
 
 //		AsyncRestTemplate rt2 = new AsyncRestTemplate();
 
-		//기본적으로 쓰레드는 프로세스 갯수 * 2
-		AsyncRestTemplate rt3 = new AsyncRestTemplate(new Netty4ClientHttpRequestFactory(new NioEventLoopGroup(1))); //non-blocking io 방식을 이용해서 외부 호출할 수 있는 라이브러리를 적용하는 방법 netty 등
+		//non-blocking io 방식을 이용해서 외부 호출할 수 있는 라이브러리를 적용하는 방법 netty 등
+		//rt2, rt3 모두 AsyncClientConfig 의 공용 클라이언트 (이벤트 루프 + keep-alive 커넥션 풀을 모든 컨트롤러가 공유)
+		@Autowired AsyncRestTemplate rt2;
+		@Autowired AsyncRestTemplate rt3;
 
 		//Total: 100.00576843
+		/*
+			가상 쓰레드 모드 (VirtualThreadConfig) : 코드는 그대로 blocking 이지만 요청마다 가상 쓰레드에서 실행되어
+			RestTemplate 이 응답을 기다리는 동안 플랫폼 쓰레드를 놓아준다. -> Tomcat max-threads 와 무관하게 max-connections 까지 동시 처리
+			비교 : 같은 LoadTest 설정으로 세 가지를 나란히 잰다
+				./gradlew bootRun -PvirtualThreads                  -> LoadTest --url=http://localhost:8083/rest?idx={idx}
+				./gradlew bootRun                                   -> LoadTest --url=http://localhost:8083/rest?idx={idx}    (플랫폼 쓰레드)
+				./gradlew bootRun                                   -> LoadTest --url=http://localhost:8083/rest4?idx={idx}   (DeferredResult)
+				ReactiveApplicationV3                               -> LoadTest --url=http://localhost:8083/v3/rest6?idx={idx} (Completion)
+			측정 결과 (1 vCPU, RemoteService 기본 지연 2s, server.tomcat.threads.max=4, LoadTest --mode=concurrency --concurrency=50 --duration=6s) :
+				JDK 21, 처리량 = 보낸 요청 수 / 구간 (LoadTest 가 구간 안에 성공한 요청만 세기 전) :
+				- /rest 플랫폼 쓰레드 : 1.8 req/s, p50 17.1s, p99 27.3s
+				- /rest 가상 쓰레드   : 13.3 req/s, p50 2.7s, p99 3.6s  (tomcat 9.0.73 그대로면 pinning 때문에 플랫폼 쓰레드와 비슷함)
+				JDK 17, 처리량 = 구간 안에 성공한 요청 / 구간 (가상 쓰레드 없이) :
+				- /rest 플랫폼 쓰레드 : 0 req/s (구간 안에 끝난 요청 없음), p50 32.3s, p99 50.8s
+				- /rest4 (DeferredResult) : 8.3 req/s, p50 4.6s, p99 5.0s
+				- /v3/rest6 (Completion, reactive.limit.enabled=false) : 8.3 req/s, p50 2.7s, p99 5.4s
+				/rest4 와 /v3/rest6 는 다운스트림 호출 두 번(2s + 2s)에 묶여 있어 요청 쓰레드 4개와 무관하다.
+				두 경로를 가상 쓰레드로 돌린 비교는 아직 하지 않았다 (JDK 21 필요). 요청 쓰레드를 붙잡지 않으므로 차이가 없을 것으로 본다
+		 */
 		@GetMapping("/rest")
 		public String rest(int idx) {
 			log.info("idx is = {}",idx);
 
-			String res = rt.getForObject("http://localhost:8081/service?req={req}", String.class, "hello" + idx);
+			String res = rt.getForObject(url1, String.class, "hello" + idx);
 			return res+":" + idx;
 		}
 
@@ -66,7 +87,7 @@ public class ReactiveApplication {
 		@GetMapping("/rest2")
 		public ListenableFuture<ResponseEntity<String>> rest2(int idx) {
 			//비동기 호출 후 결과를 처리하는 콜백 따로 등록하지 않아도 된다. -> 스프링 MVC가 처리해준다.
-			return rt2.getForEntity("http://localhost:8081/service?req={req}", String.class, "hello" + idx);//getForEntity: 헤더와 응답코드까지 받는다.
+			return rt2.getForEntity(url1, String.class, "hello" + idx);//getForEntity: 헤더와 응답코드까지 받는다.
 		}
 
 		/*
@@ -82,7 +103,7 @@ public class ReactiveApplication {
 		@GetMapping("/rest3")
 		public ListenableFuture<ResponseEntity<String>> rest3(int idx) {
 			//비동기 호출 후 결과를 처리하는 콜백 따로 등록하지 않아도 된다. -> 스프링 MVC가 처리해준다.
-			return rt3.getForEntity("http://localhost:8081/service?req={req}", String.class, "hello" + idx);//getForEntity: 헤더와 응답코드까지 받는다.
+			return rt3.getForEntity(url1, String.class, "hello" + idx);//getForEntity: 헤더와 응답코드까지 받는다.
 		}
 
 
@@ -99,15 +120,23 @@ public class ReactiveApplication {
 			DeferredResult<String> dr = new DeferredResult<>(); // DeferredResult에 값을 써주면 그때 응답이 된다.
 
 			//비동기 호출 후 결과를 처리하는 콜백 따로 등록하지 않아도 된다. -> 스프링 MVC가 처리해준다.
-			ListenableFuture<ResponseEntity<String>> f1 = rt3.getForEntity(HTTP_LOCALHOST_8081_SERVICE_REQ_REQ1, String.class, "hello" + idx);//getForEntity: 헤더와 응답코드까지 받는다.
+			ListenableFuture<ResponseEntity<String>> f1 = rt3.getForEntity(url1, String.class, "hello" + idx);//getForEntity: 헤더와 응답코드까지 받는다.
 			//ListenableFuture 에서 결괏값을 꺼내는 방식 : 직접 꺼내는 방식은 blocking 이라 안됨
 			// -> 콜백 구조로 만들어야 한다. (정상, 에러) 콜백은 실행만 하고 리턴하지 않는다.
 			// 때문에 DeferredResult를 사용해서 리턴해야 한다.
 
+			// timeout / 클라이언트 연결 끊김이면 지금 기다리는 호출을 취소한다 (정상 종료면 이미 끝난 호출이라 아무 일 없다)
+			AtomicReference<ListenableFuture<?>> pending = new AtomicReference<>(f1);
+			dr.onCompletion(() -> pending.get().cancel(false));
+
 			f1.addCallback(
 					s -> {
-						ListenableFuture<ResponseEntity<String>> f2 = rt3.getForEntity(HTTP_LOCALHOST_8081_SERVICE_REQ_REQ2,
+						ListenableFuture<ResponseEntity<String>> f2 = rt3.getForEntity(url2,
 								String.class, s.getBody());//getForEntity: 헤더와 응답코드까지 받는다.
+						pending.set(f2);
+						if (dr.isSetOrExpired()) { // onCompletion 이 f1 을 보고 지나갔다
+							f2.cancel(false);
+						}
 
 						f2.addCallback(s2-> {
 							dr.setResult(s2.getBody() + "/work");
@@ -137,9 +166,15 @@ public class ReactiveApplication {
 
 			DeferredResult<String> dr = new DeferredResult<>();
 
-			ListenableFuture<ResponseEntity<String>> f1 = rt3.getForEntity(HTTP_LOCALHOST_8081_SERVICE_REQ_REQ1, String.class, "hello" + idx);
+			ListenableFuture<ResponseEntity<String>> f1 = rt3.getForEntity(url1, String.class, "hello" + idx);
+			AtomicReference<ListenableFuture<?>> pending = new AtomicReference<>(f1); // rest4 와 같은 취소 (콜백마다 다음 호출로 바꿔 단다)
+			dr.onCompletion(() -> pending.get().cancel(false));
 			f1.addCallback(s -> {
-					ListenableFuture<ResponseEntity<String>> f2 = rt3.getForEntity(HTTP_LOCALHOST_8081_SERVICE_REQ_REQ2, String.class, s.getBody());
+					ListenableFuture<ResponseEntity<String>> f2 = rt3.getForEntity(url2, String.class, s.getBody());
+					pending.set(f2);
+					if (dr.isSetOrExpired()) {
+						f2.cancel(false);
+					}
 					f2.addCallback(s2-> {
 						ListenableFuture<String> f3 = myservice.work(s2.getBody()); // 내부 비동기 작업을 추가
 						f3.addCallback(s3-> {
@@ -193,18 +228,6 @@ public class ReactiveApplication {
 		}
 	}
 
-	//Thread  갯수 제한 (Async 시 쓰레드가 무한대로 생기는 것을 방지하기 위함)
-	@Bean
-	public ThreadPoolTaskExecutor myThreadPool() {
-		ThreadPoolTaskExecutor te = new ThreadPoolTaskExecutor(); // 기본은 큐가 무한대
-		//큐를 먼저 채우고 큐까지 다 찼을 때 MaxPoolSize 까지 쓰레드를 늘렸다가 MaxPoolSize도 다 차면 그때 에러가 난다.
-		//core가 다 차면 MaxPoolSize까지 찬다.
-		te.setCorePoolSize(1);
-		te.setMaxPoolSize(1);
-		te.initialize();
-		return te;
-	}
-
 
 	@PostConstruct
 	public void init() {
@@ -1,7 +1,5 @@
 package com.toby.reactive;
 
-import io.netty.channel.nio.NioEventLoopGroup;
-import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.SpringApplication;
@@ -9,7 +7,6 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
 import org.springframework.core.env.Environment;
 import org.springframework.http.ResponseEntity;
-import org.springframework.http.client.Netty4ClientHttpRequestFactory;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.AsyncResult;
 import org.springframework.scheduling.annotation.EnableAsync;
@@ -23,8 +20,6 @@ import org.springframework.web.client.AsyncRestTemplate;
 import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.PostConstruct;
-import java.util.function.Consumer;
-import java.util.function.Function;
 
 @EnableAsync
 @Slf4j
@@ -34,20 +29,25 @@ public class ReactiveApplicationV2 {
 	@RestController
 	@RequestMapping(value = "/v2")
 	public static class MyControllerV2 {
-        public static final String URL1 = "http://localhost:8081/service?req={req}";
-		public static final String URL2 = "http://localhost:8081/service2?req={req}";
-
 		@Autowired Myservice myservice;
-		AsyncRestTemplate rt = new AsyncRestTemplate(new Netty4ClientHttpRequestFactory(new NioEventLoopGroup(1))); //non-blocking io 방식을 이용해서 외부 호출할 수 있는 라이브러리를 적용하는 방법 netty 등
+		@Autowired AsyncRestTemplate rt; //AsyncClientConfig 의 공용 클라이언트 (netty 이벤트 루프 + keep-alive 커넥션 풀)
+		String url1; // RemoteService 주소는 reactive.client.remote-url
+		String url2;
+
+		@Autowired
+		void setRemote(AsyncClientProperties properties) {
+			url1 = properties.getRemoteUrl() + "/service?req={req}";
+			url2 = properties.getRemoteUrl() + "/service2?req={req}";
+		}
 
 		@GetMapping("/rest5")
 		public DeferredResult<String> rest5(int idx) {
 
 			DeferredResult<String> dr = new DeferredResult<>();
 
-			ListenableFuture<ResponseEntity<String>> f1 = rt.getForEntity(URL1, String.class, "hello" + idx);
+			ListenableFuture<ResponseEntity<String>> f1 = rt.getForEntity(url1, String.class, "hello" + idx);
 			f1.addCallback(s -> {
-						ListenableFuture<ResponseEntity<String>> f2 = rt.getForEntity(URL2, String.class, s.getBody());
+						ListenableFuture<ResponseEntity<String>> f2 = rt.getForEntity(url2, String.class, s.getBody());
 						f2.addCallback(s2-> {
 							ListenableFuture<String> f3 = myservice.work(s2.getBody()); // 내부 비동기 작업을 추가
 							f3.addCallback(s3-> {
@@ -72,79 +72,17 @@ public class ReactiveApplicationV2 {
 		public DeferredResult<String> rest6(int idx) {
 			DeferredResult<String> dr = new DeferredResult<>();
 
-			Completion
-					.from(rt.getForEntity(URL1, String.class, "hello" + idx))
-					.andApply(s -> rt.getForEntity(URL2, String.class, s.getBody())) //앞의 결과값이  response entity이기 때문에 string 을 뽑아내기 위해 s.getBody() 를 사용
+			Completion<ResponseEntity<String>, Void> chain = Completion
+					.from(rt.getForEntity(url1, String.class, "hello" + idx))
+					.andApply(s -> rt.getForEntity(url2, String.class, s.getBody())) //앞의 결과값이  response entity이기 때문에 string 을 뽑아내기 위해 s.getBody() 를 사용
 					.andAccept(s -> dr.setResult(s.getBody())); //ListenableFuture의 결과값이 ResponseEntity<String> 타입이기 때문에
+			dr.onCompletion(chain::cancel); // timeout / 클라이언트 연결 끊김 : 나가 있는 호출을 취소
 
 			return dr;
 		}
 	}
 
 
-	public static class Completion {
-		Completion next;
-
-		public Completion() {
-		}
-
-		private Consumer<ResponseEntity<String>> consumer;
-
-		public Completion(Consumer<ResponseEntity<String>> consumer) {
-			this.consumer = consumer;
-		}
-
-		public Function<ResponseEntity<String>, ListenableFuture<ResponseEntity<String>>> fn;
-
-		public Completion(Function<ResponseEntity<String>, ListenableFuture<ResponseEntity<String>>> fn) { //바로 사용할게 아니기 때문에 저장을 해야한다?
-			this.fn = fn;
-		}
-
-		public static Completion from(ListenableFuture<ResponseEntity<String>> lf) {
-			Completion completion = new Completion();
-
-			lf.addCallback(s ->  {
-				completion.complete(s);
-			}, e-> {
-				completion.error(e);
-			});
-
-			return completion;
-		}
-
-		public void andAccept(Consumer<ResponseEntity<String>> consumer) {
-			Completion completion = new Completion(consumer);
-			this.next = completion;
-		}
-
-		public Completion andApply(Function<ResponseEntity<String>, ListenableFuture<ResponseEntity<String>>> fn) {
-			Completion completion = new Completion(fn);
-			this.next = completion;
-			return completion;
-		}
-
-		void error(Throwable e) {
-		}
-
-		void complete(ResponseEntity<String> s) {
-			if (next != null) {
-				next.run(s);
-			}
-
-		}
-
-		void run(ResponseEntity<String> value) {
-			if (consumer != null) {
-				consumer.accept(value);
-			} else if (fn != null) {
-				ListenableFuture<ResponseEntity<String>> lf = fn.apply(value); // 실행하고
-				lf.addCallback(s -> complete(s), e -> error(e)); // 다음 단계를 위한 콜백등록
-			}
-		}
-
-	}
-
-
 	//비동기 내부 작업을 추가한 케이스
 	@Service
 	public static class Myservice {
@@ -1,171 +1,256 @@
 package com.toby.reactive;
 
-import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.BeanFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.core.env.Environment;
-import org.springframework.http.ResponseEntity;
-import org.springframework.http.client.Netty4ClientHttpRequestFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.AsyncResult;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.stereotype.Service;
 import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.client.AsyncRestTemplate;
 import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import javax.annotation.PostConstruct;
-import java.util.function.Consumer;
-import java.util.function.Function;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
 
 @EnableAsync
 @Slf4j
 @SpringBootApplication
+@EnableConfigurationProperties(StreamProperties.class)
 public class ReactiveApplicationV3 {
 
 	@RestController
 	@RequestMapping(value = "/v3")
 	public static class MyControllerV3 {
-        public static final String URL1 = "http://localhost:8081/service?req={req}";
-		public static final String URL2 = "http://localhost:8081/service2?req={req}";
-
-		AsyncRestTemplate rt = new AsyncRestTemplate(new Netty4ClientHttpRequestFactory(new NioEventLoopGroup(1))); //non-blocking io 방식을 이용해서 외부 호출할 수 있는 라이브러리를 적용하는 방법 :  netty 등
+		public static final String SERVICE1 = "service";  // url1 의 circuit breaker / bulkhead 이름 (reactive.downstreams.service)
+		public static final String SERVICE2 = "service2";
+
+		@Autowired Myservice myservice;
+		@Autowired CachingAsyncClient client; //AsyncClientConfig 의 공용 클라이언트 + 같은 req 호출 합치기/결과 캐시 (reactive.cache.*)
+		@Autowired AsyncRestTemplate rt; // 캐시를 거치지 않는 공용 클라이언트 (hedge 용 : 중복 요청이 coalescing 으로 합쳐지면 안 된다)
+		@Autowired ResilienceProperties resilience;
+		@Autowired RetryBudget downstreamRetryBudget;
+		@Autowired HedgePolicy service2HedgePolicy;
+		@Autowired DownstreamRegistry downstreams;
+		@Autowired MicroBatcherRegistry batchers; // 같은 배치 URL 로 동시에 나가는 호출을 모아서 한 번에 (reactive.batch.*)
+		@Autowired ByteBufClient bufs; // body 를 String 으로 바꾸지 않고 pooled ByteBuf 로 (ByteBufConfig)
+		@Autowired StreamProperties streamProperties;
+		@Autowired BeanFactory beanFactory;
+		String url1; // RemoteService 주소는 reactive.client.remote-url
+		String url2;
+		String url1Batch; // MicroBatcher 가 여러 req 를 모아서 보내는 곳
+		String url2Batch;
+
+		@Autowired
+		void setRemote(AsyncClientProperties properties) {
+			url1 = properties.getRemoteUrl() + "/service?req={req}";
+			url2 = properties.getRemoteUrl() + "/service2?req={req}";
+			url1Batch = properties.getRemoteUrl() + "/service/batch";
+			url2Batch = properties.getRemoteUrl() + "/service2/batch";
+		}
 
 		@GetMapping("/rest6")
 		public DeferredResult<String> rest6(int idx) {
 			DeferredResult<String> dr = new DeferredResult<>();
 
-			Completion
-					.from(rt.getForEntity(URL1, String.class, "hello" + idx)) // 첫번째 호출
-					.andApply(s -> rt.getForEntity(URL2, String.class, s.getBody())) //두번째 호출
-					.andError(e -> dr.setErrorResult(e)) // 각단계에서 에러를 하나로 처리됨
-//					.andError(e -> log.error("e log is = {}",e)) // 콜백 수행 시점 태스트
-					.andAccept(s -> dr.setResult(s.getBody())); //MVC에 값을 전달, s.getBody() : ListenableFuture의 결과값이 ResponseEntity<String> 타입이기 때문에
+			ListenableFuture<String> result = rest6Chain(idx);
+			result.addCallback(s -> dr.setResult(s), e -> dr.setErrorResult(e)); // 각단계의 에러가 하나로 온다 (breaker 가 열려 있으면 DownstreamUnavailableException -> 503)
+			dr.onCompletion(() -> result.cancel(false)); // timeout / 클라이언트 연결 끊김 / 에러 : 나가 있는 호출을 취소하고 남은 단계를 막는다 (정상 종료면 이미 다 끝나서 아무 일 없다)
 
 			return dr;
 		}
-	}
-
-	/**
-	 * ReactiveApplicationV2 의 run 메서드의 다형성 적용
-	 * v2 error 처리의 중복 해결
-	 */
 
-	public static class ApplyCompletion extends Completion {
-		public Function<ResponseEntity<String>, ListenableFuture<ResponseEntity<String>>> fn;
+		/*
+			rest7 : url1, url2 가 서로의 결과를 필요로 하지 않는 경우 동시에 호출하고(fan-out) 둘 다 끝나면 합친다(join)
+			rest6 는 2초 + 2초 직렬이라 최소 4초, rest7 은 두 호출이 겹쳐서 약 2초 (LoadTest 의 url 을 /v3/rest7 로 바꿔서 비교)
+		*/
+		@GetMapping("/rest7")
+		public DeferredResult<String> rest7(int idx) {
+			DeferredResult<String> dr = new DeferredResult<>();
 
-		public ApplyCompletion(Function<ResponseEntity<String>, ListenableFuture<ResponseEntity<String>>> fn) {
-			this.fn = fn;
-		}
+			Completion<String, Void> chain = Completion
+					.zip(Completion.retry(downstreamRetryBudget, () -> downstreams.get(SERVICE1).call(() -> Completion.timeout(client.getForEntity(url1, "hello" + idx), resilience.getTimeout()))), // 두 호출이 동시에 나간다
+							Completion.retry(downstreamRetryBudget, () -> downstreams.get(SERVICE2).call(() -> Completion.timeout(client.getForEntity(url2, "hello" + idx), resilience.getTimeout()))), // 실패/타임아웃이면 예산 안에서 재시도
+							(s1, s2) -> s1.getBody() + "," + s2.getBody())
+					.andApply(s -> myservice.work(s))
+					.andError(e -> dr.setErrorResult(e))
+					.andAccept(s -> dr.setResult(s));
+			dr.onCompletion(chain::cancel);
 
-		@Override
-		void run(ResponseEntity<String> value) {
-			ListenableFuture<ResponseEntity<String>> lf = fn.apply(value); //Function을 사용한 이유 apply를 사용하고 T, R을 사용하기 위함
-			lf.addCallback(s -> {
-				log.info("second callback s is = {}", s.getBody().toString());
-				complete(s);
-			}, e -> {
-				log.error("second callback error is = {}", e.getMessage());
-				error(e);
-			});
+			return dr;
 		}
-	}
 
-	public static class AcceptCompletion extends Completion {
-		private Consumer<ResponseEntity<String>> consumer;
+		/*
+			rest8 : rest6 과 같은 흐름이지만 다운스트림 호출을 배치 엔드포인트로 모아서 보낸다
+			호출마다 최대 window(reactive.batch.window) 만큼 늦어지는 대신 다운스트림 요청 수가 배치 크기만큼 줄어든다 (BatchBenchmark 로 비교)
+		*/
+		@GetMapping("/rest8")
+		public DeferredResult<String> rest8(int idx) {
+			DeferredResult<String> dr = new DeferredResult<>();
 
-		public AcceptCompletion(Consumer<ResponseEntity<String>> consumer) {
-			this.consumer = consumer;
-		}
+			Completion<String, Void> chain = Completion
+					.from(downstreams.get(SERVICE1).call(() -> Completion.timeout(batchers.get(url1Batch).submit("hello" + idx), resilience.getTimeout())))
+					.andApply(s -> downstreams.get(SERVICE2).call(() -> Completion.timeout(batchers.get(url2Batch).submit(s.getBody()), resilience.getTimeout())))
+					.andApply(s -> myservice.work(s.getBody()))
+					.andError(e -> dr.setErrorResult(e))
+					.andAccept(s -> dr.setResult(s));
+			dr.onCompletion(chain::cancel);
 
-		@Override
-		void run(ResponseEntity<String> value) {
-			log.info("accept run is = {}", value.getBody().toString());
-			consumer.accept(value); // 체크할 필요 없음 - AcceptCompletion 클래스가 사용되었다는 것은 이미 consumer 가 있다는 얘기
+			return dr;
 		}
-	}
 
-	public static class ErrorCompletion extends Completion {
-		public Consumer<Throwable> errorConsumer; //ListenableFuture 의 addCallback된 error 을 받음 (Consumer는 내부 처리 방식에 대한 껍데기일 뿐)
+		/*
+			rest9 : rest6(hedge 제외)과 같은 흐름을 응답 body 를 복사하지 않고 처리한다
+			단계 사이에는 pooled ByteBuf 가 그대로 넘어가고, "/asyncwork" 는 CompositeByteBuf 로 붙이고, 마지막에 ByteBufHttpMessageConverter 가 응답에 쓴다.
+			두번째 호출의 URL 에 넣는 req 만 문자열로 만든다. (URI 는 어차피 문자열)
+			참조 카운트 : 각 단계는 받은 ByteBuf 를 읽고 release 하거나(use) 다음 작업에 넘긴다(handOff). 결과를 못 넘기면(timeout 이후) 직접 release.
+		*/
+		@GetMapping("/rest9")
+		public DeferredResult<ByteBuf> rest9(int idx) {
+			DeferredResult<ByteBuf> dr = new DeferredResult<>();
+
+			Completion<ByteBuf, Void> chain = Completion
+					.from(downstreams.get(SERVICE1).call(() -> Completion.timeout(bufs.get(url1, "hello" + idx), resilience.getTimeout())))
+					.andApply(b -> ByteBufClient.use(b, req -> downstreams.get(SERVICE2).call(() -> Completion.timeout(bufs.get(url2, req.toString(StandardCharsets.UTF_8)), resilience.getTimeout()))))
+					.andApply(b -> ByteBufClient.handOff(b, myservice::workBytes))
+					.andError(e -> dr.setErrorResult(e))
+					.andAccept(b -> {
+						if (!dr.setResult(b)) {
+							b.release(); // 이미 timeout 으로 끝난 요청
+						}
+					});
+			dr.onCompletion(chain::cancel); // 취소된 뒤에 도착한 ByteBuf 는 Completion 이 release
 
-		public ErrorCompletion(Consumer<Throwable> errorConsumer) {
-			this.errorConsumer = errorConsumer;
+			return dr;
 		}
 
-		@Override
-		void run(ResponseEntity<String> value) { // 정상의 경우에는 pass 하는 코드
-			if (next != null) {
-				next.run(value);
+		/*
+			stream : 여러 idx 의 rest6 흐름을 응답 하나에서 동시에 (최대 reactive.stream.max-concurrency 개) 돌리고 끝나는 대로 SSE 로 흘려보낸다
+			/v3/stream?from=0&to=99 또는 /v3/stream?idx=1,5,9   (curl -N 으로 보면 결과가 하나씩 도착한다)
+		*/
+		@GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+		public SseEmitter stream(@RequestParam(required = false) List<Integer> idx, @RequestParam(required = false) Integer from, @RequestParam(required = false) Integer to) {
+			List<Integer> idxs = idx != null ? idx : new ArrayList<>();
+			if (idx == null && from != null && to != null) {
+				for (int i = from; i <= to && idxs.size() <= streamProperties.getMaxItems(); i++) {
+					idxs.add(i);
+				}
+			}
+			if (idxs.isEmpty() || idxs.size() > streamProperties.getMaxItems()) {
+				throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "idx or from/to required, at most " + streamProperties.getMaxItems() + " items");
 			}
-		}
 
-		@Override
-		void error(Throwable e) {
-			errorConsumer.accept(e);
+			return new ResultStream(new SseEmitter(streamProperties.getTimeout().toMillis()), idxs, this::rest6Chain,
+					beanFactory.getBean(streamProperties.getWriterExecutor(), Executor.class), streamProperties.getMaxConcurrency()).start();
 		}
-	}
-
-	public static class Completion {
-		Completion next; // 앞의 결과값을 다음 메소드로 전달하귀 위한 저장 값
 
-		public static Completion from(ListenableFuture<ResponseEntity<String>> lf) { //비동기 작업의 결과를 담는 용도
-			Completion completion = new Completion();
-
-			lf.addCallback(s ->  {
-				log.info("first callback s is = {}", s.getBody().toString());
-				completion.complete(s);
-			}, e-> {
-				log.error("first callback error is = {}", e.getMessage());
-				completion.error(e);
+		/**
+		 * rest6 의 체인 : 첫번째 호출 -> 두번째 호출 (hedge) -> 내부 비동기 작업. rest6 와 stream 이 같이 쓴다.
+		 * 돌려준 future 를 취소하면(DeferredResult 가 먼저 끝났거나 ResultStream 이 닫혔다) 나가 있는 호출을 취소한다.
+		 */
+		private ListenableFuture<String> rest6Chain(int idx) {
+			SettableListenableFuture<String> result = new SettableListenableFuture<>();
+
+			Completion<String, Void> chain = Completion
+					.from(downstreams.get(SERVICE1).call(() -> Completion.timeout(client.getForEntity(url1, "hello" + idx), resilience.getTimeout()))) // 첫번째 호출
+					.andHedge(service2HedgePolicy, s -> downstreams.get(SERVICE2).call(() -> Completion.timeout(rt.getForEntity(url2, String.class, s.getBody()), resilience.getTimeout()))) //두번째 호출 : 최근 p95 를 넘기면 하나 더 보낸다
+					.andTimeout(resilience.getTimeout(), s -> myservice.work(s.getBody())) //내부 비동기 작업 : ResponseEntity<String> -> String 으로 타입이 바뀌는 단계
+					.andError(e -> result.setException(e))
+//					.andError(e -> log.error("e log is = {}",e)) // 콜백 수행 시점 태스트
+					.andAccept(s -> result.set(s));
+			result.addCallback(s -> { }, e -> {
+				if (result.isCancelled()) {
+					chain.cancel();
+				}
 			});
 
-			return completion;
+			return result;
 		}
 
-		public Completion andApply(Function<ResponseEntity<String>, ListenableFuture<ResponseEntity<String>>> fn) {
-			Completion completion = new ApplyCompletion(fn);
-			this.next = completion;
-			return completion;
-		}
-
-		/*
-		 * ResponseEntity<String> : 앞의 실행의 겱과로써 리턴되는 것
-		 * 요청을 Lamda 형식으로 보냈기 때문에 Consumer 등의 Functional Interface로 받아서 선어할 수 있다.
-		 */
-		public void andAccept(Consumer<ResponseEntity<String>> consumer) {
-			Completion completion = new AcceptCompletion(consumer);
-			this.next = completion;
+		@GetMapping("/batch")
+		public Map<String, Object> batch() {
+			Map<String, Object> stats = new LinkedHashMap<>();
+			batchers.getAll().forEach((url, b) -> {
+				Map<String, Object> bs = new LinkedHashMap<>();
+				bs.put("batches", b.getBatches()); // 실제로 다운스트림에 나간 요청 수
+				bs.put("items", b.getItems());
+				bs.put("averageBatchSize", b.getAverageBatchSize());
+				bs.put("fullBatches", b.getFullBatches()); // window 전에 maxBatchSize 가 차서 보낸 배치
+				stats.put(url, bs);
+			});
+			return stats;
 		}
 
-		public Completion andError(Consumer<Throwable> errorConsumer) { //void -> Completion : 에러가 발생하지 않으면 패스하고 다음 Completion으로 넘어가기 위함
-			Completion completion = new ErrorCompletion(errorConsumer);
-			this.next = completion;
-//			log.info("andError is called!!");
-			return completion;
+		@GetMapping("/cache")
+		public Map<String, Object> cache() {
+			Map<String, Object> stats = new LinkedHashMap<>();
+			stats.put("hits", client.getHits());
+			stats.put("misses", client.getMisses()); // 실제로 다운스트림에 나간 호출 수
+			stats.put("coalesced", client.getCoalesced());
+			stats.put("evictions", client.getEvictions());
+			stats.put("size", client.getSize());
+			stats.put("inFlight", client.getInFlight());
+			return stats;
 		}
 
-		void complete(ResponseEntity<String> s) {
-			if (next != null) {
-//				log.info("next is = {}", next);
-				next.run(s); // 비동기 결과값을 다음 Completion에 전달한다.
+		@GetMapping("/resilience")
+		public Map<String, Object> resilience() {
+			Map<String, Object> stats = new LinkedHashMap<>();
+			stats.put("retries", downstreamRetryBudget.getRetries());
+			stats.put("retryBudgetExhausted", downstreamRetryBudget.getExhausted());
+			stats.put("retryBalance", downstreamRetryBudget.getBalance());
+			stats.put("hedgeDelayMs", service2HedgePolicy.getDelayNanos() == Long.MAX_VALUE ? -1 : service2HedgePolicy.getDelayNanos() / 1_000_000.0);
+			stats.put("hedges", service2HedgePolicy.getHedges());
+			stats.put("hedgeWins", service2HedgePolicy.getHedgeWins()); // 중복으로 보낸 쪽이 먼저 돌아온 횟수
+			for (Downstream d : downstreams.getAll()) {
+				Map<String, Object> ds = new LinkedHashMap<>();
+				ds.put("state", d.getBreaker().getState());
+				ds.put("failureRate", d.getBreaker().getFailureRate());
+				ds.put("slowCallRate", d.getBreaker().getSlowCallRate());
+				ds.put("notPermitted", d.getBreaker().getNotPermitted());
+				ds.put("inFlight", d.getBulkhead().getInFlight());
+				ds.put("bulkheadRejected", d.getBulkhead().getRejected());
+				stats.put(d.getName(), ds);
 			}
+			return stats;
 		}
+	}
 
-		void error(Throwable e) {
-			if (next != null) {
-				next.error(e);
-			}
-		}
+	//비동기 내부 작업을 추가한 케이스
+	@Service
+	public static class Myservice {
+		private static final ByteBuf ASYNCWORK = Unpooled.unreleasableBuffer(Unpooled.copiedBuffer("/asyncwork", StandardCharsets.UTF_8));
 
-		void run(ResponseEntity<String> value) { // 다음 completion을 호출하는 역할
-			//다형성으로만 사용됨
+		@Async("myThreadPool") // reactive.async.executors.myThreadPool : 큐가 가득 차면 fail-fast (DeferredResult 에 503)
+		public ListenableFuture<String> work(String req) {
+			return new AsyncResult<>(req + "/asyncwork");
 		}
 
+		@Async("myThreadPool")
+		public ListenableFuture<ByteBuf> workBytes(ByteBuf req) {
+			return new AsyncResult<>(Unpooled.wrappedBuffer(req, ASYNCWORK.duplicate())); // 복사 없이 이어 붙인다. req 의 참조는 합친 버퍼가 가진다
+		}
 	}
 
 	@PostConstruct
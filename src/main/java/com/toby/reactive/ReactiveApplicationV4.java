@@ -0,0 +1,144 @@
+package com.toby.reactive;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.AsyncResult;
+import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.stereotype.Service;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * V4 : 서블릿(Tomcat) + DeferredResult 대신 WebFlux(Reactor Netty) + WebClient 로 같은 service -> service2 체인을 구현
+ * 요청 수신부터 외부 호출, 응답까지 blocking 구간이 없다. (요청 처리 쓰레드 = reactor-http-nio 이벤트 루프)
+ *
+ * 비교 방법 : V3 와 V4 를 각각 띄우고 같은 LoadTest 로
+ *   LoadTest --url=http://localhost:8083/v3/rest6?idx={idx} --rate=200
+ *   LoadTest --url=http://localhost:8083/v4/rest6?idx={idx} --rate=200
+ * p99 는 LoadTest 리포트, 쓰레드 수 / 메모리는 jcmd <pid> Thread.print, jcmd <pid> GC.heap_info 로 본다.
+ * (ConcurrencyLimitFilter 는 서블릿 필터라서 V4 에는 적용되지 않는다)
+ */
+@EnableAsync
+@Slf4j
+@SpringBootApplication
+public class ReactiveApplicationV4 {
+
+	@RestController
+	@RequestMapping(value = "/v4")
+	public static class MyControllerV4 {
+		private static final byte[] ASYNCWORK = "/asyncwork".getBytes(StandardCharsets.US_ASCII);
+
+		@Autowired Myservice myservice;
+		@Autowired WebClient remoteWebClient;
+		String url1; // RemoteService 주소는 reactive.client.remote-url
+		String url2;
+
+		@Autowired
+		void setRemote(AsyncClientProperties properties) {
+			url1 = properties.getRemoteUrl() + "/service?req={req}";
+			url2 = properties.getRemoteUrl() + "/service2?req={req}";
+		}
+
+		@GetMapping("/rest6")
+		public Mono<String> rest6(int idx) {
+			return remoteWebClient.get().uri(url1, "hello" + idx).retrieve().bodyToMono(String.class) // 첫번째 호출
+					.flatMap(s -> remoteWebClient.get().uri(url2, s).retrieve().bodyToMono(String.class)) // 두번째 호출
+					.flatMap(s -> Mono.fromFuture(myservice.work(s).completable())); // 내부 비동기 작업
+		}
+
+		@GetMapping("/rest7")
+		public Mono<String> rest7(int idx) {
+			return Mono.zip(remoteWebClient.get().uri(url1, "hello" + idx).retrieve().bodyToMono(String.class), // 두 호출이 동시에 나간다
+							remoteWebClient.get().uri(url2, "hello" + idx).retrieve().bodyToMono(String.class),
+							(s1, s2) -> s1 + "," + s2)
+					.flatMap(s -> Mono.fromFuture(myservice.work(s).completable()));
+		}
+
+		/*
+			rest9 : V3 의 rest9 와 같이 rest6 흐름을 응답 body 를 String 으로 바꾸지 않고 처리한다
+			WebClient 가 받은 pooled 버퍼(NettyDataBuffer)가 단계 사이에 그대로 넘어가고, "/asyncwork" 는 join(CompositeByteBuf)으로 붙이고,
+			WebFlux 가 응답에 쓴 뒤 release 한다. 두번째 호출의 URL 에 넣는 req 만 문자열로 만든다.
+			이어 붙이기는 복사가 없어서 @Async 로 넘기지 않고 이벤트 루프에서 한다. (다른 쓰레드로 넘기면 취소와 엇갈려 돌아온 버퍼를 놓친다)
+			취소(클라이언트 끊김)로 연산자 사이에서 버려진 버퍼는 doOnDiscard 가 release 한다.
+		*/
+		@GetMapping(value = "/rest9", produces = MediaType.TEXT_PLAIN_VALUE)
+		public Mono<DataBuffer> rest9(int idx) {
+			return remoteWebClient.get().uri(url1, "hello" + idx).retrieve().bodyToMono(DataBuffer.class) // 첫번째 호출
+					.flatMap(b -> {
+						String req;
+						try {
+							req = b.toString(StandardCharsets.UTF_8);
+						} finally {
+							DataBufferUtils.release(b);
+						}
+						return remoteWebClient.get().uri(url2, req).retrieve().bodyToMono(DataBuffer.class); // 두번째 호출
+					})
+					.map(b -> {
+						DataBufferFactory factory = b.factory();
+						return factory.join(Arrays.asList(b, factory.wrap(ASYNCWORK))); // 복사 없이 이어 붙인다. b 의 참조는 합친 버퍼가 가진다
+					})
+					.doOnDiscard(DataBuffer.class, DataBufferUtils::release);
+		}
+	}
+
+	//비동기 내부 작업을 추가한 케이스
+	@Service
+	public static class Myservice {
+		@Async
+		public ListenableFuture<String> work(String req) {
+			return new AsyncResult<>(req + "/asyncwork");
+		}
+	}
+
+	/**
+	 * Reactor Netty 커넥션 풀 : AsyncClientConfig 의 풀과 같은 설정(reactive.client.*)을 쓴다.
+	 */
+	@Bean
+	public WebClient remoteWebClient(WebClient.Builder builder, AsyncClientProperties properties) {
+		ConnectionProvider provider = ConnectionProvider.builder("remote")
+				.maxConnections(properties.getMaxConnectionsPerHost())
+				.pendingAcquireMaxCount(properties.getMaxPendingAcquires())
+				.pendingAcquireTimeout(properties.getAcquireTimeout())
+				.maxIdleTime(properties.getIdleTimeout())
+				.build();
+		return builder.clientConnector(new ReactorClientHttpConnector(HttpClient.create(provider))).build();
+	}
+
+	/**
+	 * tomcat 도 클래스패스에 있으면 WebFlux 가 reactive Tomcat 위에서 뜨기 때문에 Reactor Netty 서버를 직접 지정한다.
+	 */
+	@Bean
+	@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+	public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+		return new NettyReactiveWebServerFactory();
+	}
+
+	public static void main(String[] args) {
+		// spring-boot-starter-web 도 클래스패스에 있기 때문에 명시하지 않으면 서블릿(Tomcat)으로 뜬다
+		new SpringApplicationBuilder(ReactiveApplicationV4.class)
+				.web(WebApplicationType.REACTIVE)
+				.run(args);
+	}
+
+}
@@ -1,37 +1,227 @@
 package com.toby.reactive;
 
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.coyote.http2.Http2Protocol;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.embedded.tomcat.TomcatConnectorCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 @SpringBootApplication
+@EnableConfigurationProperties(RemoteService.RemoteProperties.class)
 public class RemoteService {
 
     @Slf4j
     @RestController
     public static class MyController {
+        @Autowired Simulator simulator;
+
         @GetMapping("/service")
-        public String rest(String req) throws InterruptedException {
-            log.info("remote req is = {}", req);
-            Thread.sleep(2000);
-//            throw new RuntimeException();
-            return req + "/service";
+        public DeferredResult<ResponseEntity<String>> rest(String req) {
+            log.debug("remote req is = {}", req);
+            return simulator.respond("service", req + "/service");
         }
 
         @GetMapping("/service2")
-        public String rest2(String req) throws InterruptedException {
-            log.info("remote2 req is = {}", req);
-            Thread.sleep(2000);
-//            throw new RuntimeException();
-            return req + "/service2";
+        public DeferredResult<ResponseEntity<String>> rest2(String req) {
+            log.debug("remote2 req is = {}", req);
+            return simulator.respond("service2", req + "/service2");
+        }
+
+        /**
+         * 여러 req 를 한 번에 받는 배치 엔드포인트 (MicroBatcher 가 호출). 요청 하나에 대한 응답이 BatchItem 으로 순서대로 온다.
+         */
+        @PostMapping("/service/batch")
+        public DeferredResult<ResponseEntity<List<BatchItem>>> batch(@RequestBody List<String> reqs) {
+            log.debug("remote batch size is = {}", reqs.size());
+            return simulator.respondBatch("service", reqs, "/service");
+        }
+
+        @PostMapping("/service2/batch")
+        public DeferredResult<ResponseEntity<List<BatchItem>>> batch2(@RequestBody List<String> reqs) {
+            log.debug("remote2 batch size is = {}", reqs.size());
+            return simulator.respondBatch("service2", reqs, "/service2");
+        }
+    }
+
+    /**
+     * Thread.sleep 대신 타이머로 응답 시각을 예약한다.
+     * 요청을 받은 Tomcat 쓰레드는 DeferredResult 를 리턴하고 바로 반납되고, 타이머 쓰레드 하나가 모든 대기 중인 응답을 완료시킨다.
+     * (HashedWheelTimer : 예약/취소가 O(1), 수만 개의 대기 요청도 쓰레드 하나로 처리)
+     */
+    @Component
+    public static class Simulator {
+        private final Timer timer;
+        private final Map<String, EndpointSimulation> endpoints = new HashMap<>();
+        private final EndpointSimulation defaults;
+
+        public Simulator(Timer remoteTimer, RemoteProperties properties) {
+            this.timer = remoteTimer;
+            properties.getEndpoints().forEach((name, profile) -> endpoints.put(name, new EndpointSimulation(profile)));
+            this.defaults = new EndpointSimulation(new EndpointProfile());
+        }
+
+        public DeferredResult<ResponseEntity<String>> respond(String endpoint, String body) {
+            EndpointSimulation simulation = endpoints.getOrDefault(endpoint, defaults);
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+
+            long delay = simulation.sampleDelay(random);
+            boolean fail = random.nextDouble() < simulation.errorRate;
+
+            DeferredResult<ResponseEntity<String>> dr = new DeferredResult<>(delay + TimeUnit.SECONDS.toMillis(30));
+            timer.newTimeout(t -> {
+                if (fail) {
+                    dr.setResult(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("injected error"));
+                } else {
+                    dr.setResult(ResponseEntity.ok(body));
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+            return dr;
+        }
+
+        /**
+         * 배치 안의 항목들은 다운스트림에서 동시에 처리된다고 보고, 응답 시각은 항목별 지연 중 가장 긴 것으로 한다.
+         * (느린 꼬리가 있는 분포에서는 배치가 클수록 배치 전체가 느린 항목을 기다리게 된다)
+         * 에러는 항목별로 주입한다.
+         */
+        public DeferredResult<ResponseEntity<List<BatchItem>>> respondBatch(String endpoint, List<String> reqs, String suffix) {
+            EndpointSimulation simulation = endpoints.getOrDefault(endpoint, defaults);
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+
+            long delay = 0;
+            List<BatchItem> items = new ArrayList<>(reqs.size());
+            for (String req : reqs) {
+                delay = Math.max(delay, simulation.sampleDelay(random));
+                items.add(random.nextDouble() < simulation.errorRate
+                        ? new BatchItem(HttpStatus.INTERNAL_SERVER_ERROR.value(), "injected error")
+                        : new BatchItem(HttpStatus.OK.value(), req + suffix));
+            }
+
+            DeferredResult<ResponseEntity<List<BatchItem>>> dr = new DeferredResult<>(delay + TimeUnit.SECONDS.toMillis(30));
+            timer.newTimeout(t -> dr.setResult(ResponseEntity.ok(items)), delay, TimeUnit.MILLISECONDS);
+            return dr;
         }
     }
 
+    /**
+     * 배치 응답의 항목 하나 (요청 순서와 같은 순서)
+     */
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class BatchItem {
+        private int status;
+        private String body;
+    }
+
+    static class EndpointSimulation {
+        final LatencyDistribution delay;
+        final LatencyDistribution slowDelay;
+        final double slowRate;
+        final double errorRate;
+
+        EndpointSimulation(EndpointProfile profile) {
+            this.delay = LatencyDistribution.parse(profile.getDelay());
+            this.slowDelay = LatencyDistribution.parse(profile.getSlowDelay());
+            this.slowRate = profile.getSlowRate();
+            this.errorRate = profile.getErrorRate();
+        }
+
+        long sampleDelay(ThreadLocalRandom random) {
+            return random.nextDouble() < slowRate ? slowDelay.sampleMillis(random) : delay.sampleMillis(random);
+        }
+    }
+
+    /**
+     * application.yml 의 remote.*
+     * remote.endpoints.<service|service2>.delay 등으로 엔드포인트마다 지연 분포, 에러율, 느린 꼬리를 설정한다.
+     */
+    @Getter
+    @Setter
+    @ConfigurationProperties(prefix = "remote")
+    public static class RemoteProperties {
+        private Duration tickDuration = Duration.ofMillis(1);
+        private Map<String, EndpointProfile> endpoints = new HashMap<>();
+        private Http2 http2 = new Http2();
+    }
+
+    /**
+     * remote.http2.* : HTTP/1.1 커넥터에 h2c 를 추가한다 (prior knowledge / Upgrade: h2c 둘 다)
+     * 커넥션 하나에 maxConcurrentStreams 개의 요청이 동시에 올 수 있다. DeferredResult 로 기다리는 요청도 stream 을 차지하므로 넉넉하게 둔다.
+     */
+    @Getter
+    @Setter
+    public static class Http2 {
+        private boolean enabled = false;
+        private long maxConcurrentStreams = 10000;              // 커넥션당 동시 stream 수 (SETTINGS_MAX_CONCURRENT_STREAMS)
+        private int maxConcurrentStreamExecution = 10000;        // 커넥션당 동시에 처리 중인 stream 수 (Tomcat 기본값 20 이면 DeferredResult 대기가 막힌다)
+        private DataSize initialWindowSize = DataSize.ofKilobytes(64); // stream 별 수신 윈도우 (SETTINGS_INITIAL_WINDOW_SIZE)
+        private Duration keepAliveTimeout = Duration.ofSeconds(60);   // stream 이 하나도 없는 커넥션을 닫는 시간
+    }
+
+    @Getter
+    @Setter
+    public static class EndpointProfile {
+        private String delay = "fixed:2000";         // LatencyDistribution 형식
+        private double errorRate = 0;                // 이 비율만큼 500 응답
+        private double slowRate = 0;                 // 이 비율만큼 slowDelay 로 응답 (slow tail)
+        private String slowDelay = "fixed:10000";
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "remote.http2", name = "enabled", havingValue = "true")
+    public TomcatConnectorCustomizer remoteHttp2Connector(RemoteProperties properties) {
+        Http2 http2 = properties.getHttp2();
+        return connector -> {
+            Http2Protocol protocol = new Http2Protocol();
+            protocol.setMaxConcurrentStreams(http2.getMaxConcurrentStreams());
+            protocol.setMaxConcurrentStreamExecution(http2.getMaxConcurrentStreamExecution());
+            protocol.setInitialWindowSize((int) http2.getInitialWindowSize().toBytes());
+            protocol.setKeepAliveTimeout(http2.getKeepAliveTimeout().toMillis());
+            connector.addUpgradeProtocol(protocol);
+        };
+    }
+
+    @Bean(destroyMethod = "stop")
+    public Timer remoteTimer(RemoteProperties properties) {
+        return new HashedWheelTimer(new DefaultThreadFactory("remote-timer"),
+                properties.getTickDuration().toNanos(), TimeUnit.NANOSECONDS, 4096);
+    }
+
     public static void main(String[] args) {
         System.setProperty("server.port", "8081"); // server.port 속성 추가
-        System.setProperty("server.tomcat.max-threads", "1000");
+        System.setProperty("server.tomcat.threads.max", "200"); // 요청 쓰레드는 DeferredResult 를 리턴하고 바로 반납되므로 많을 필요가 없다
+        System.setProperty("server.tomcat.max-connections", "60000"); // 대기 중인 요청 = 열려있는 커넥션
+        System.setProperty("server.tomcat.accept-count", "10000");
         SpringApplication.run(RemoteService.class, args);
     }
 
@@ -0,0 +1,35 @@
+package com.toby.reactive;
+
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Completion.andRetry / andHedge / andCall 에 넘기는 재시도 예산, hedge 정책, 다운스트림별 circuit breaker / bulkhead
+ * 예산은 다운스트림마다 따로 둬야 한 다운스트림의 장애가 다른 쪽 재시도까지 막지 않는다.
+ */
+@Configuration
+@EnableConfigurationProperties({ResilienceProperties.class, DownstreamProperties.class})
+public class ResilienceConfig {
+
+	@Bean
+	public RetryBudget downstreamRetryBudget(ResilienceProperties properties) {
+		ResilienceProperties.Retry retry = properties.getRetry();
+		return new RetryBudget(retry.getRatio(), retry.getMinRetriesPerSecond(), retry.getMaxBalance(), retry.getMaxAttempts(),
+				retry.getBackoff().toMillis(), retry.getMaxBackoff().toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	@Bean
+	public HedgePolicy service2HedgePolicy(ResilienceProperties properties) {
+		ResilienceProperties.Hedge hedge = properties.getHedge();
+		RetryBudget budget = new RetryBudget(hedge.getRatio(), hedge.getMinHedgesPerSecond(), hedge.getMaxBalance(), 2);
+		return new HedgePolicy(hedge.getPercentile(), hedge.getMinDelay().toMillis(), TimeUnit.MILLISECONDS, hedge.getWindow(), budget);
+	}
+
+	@Bean
+	public DownstreamRegistry downstreamRegistry(DownstreamProperties properties) {
+		return new DownstreamRegistry(properties);
+	}
+}
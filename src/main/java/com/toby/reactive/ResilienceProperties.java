@@ -0,0 +1,41 @@
+package com.toby.reactive;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * 다운스트림 호출 단계의 timeout / retry / hedge 설정 (application.yml 의 reactive.resilience.*)
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "reactive.resilience")
+public class ResilienceProperties {
+	private Duration timeout = Duration.ofSeconds(3); // 다운스트림 호출 한 번의 제한 시간
+	private Retry retry = new Retry();
+	private Hedge hedge = new Hedge();
+
+	@Getter
+	@Setter
+	public static class Retry {
+		private int maxAttempts = 3;           // 원래 요청 포함
+		private double ratio = 0.1;            // 재시도는 원래 요청의 10% 까지
+		private int minRetriesPerSecond = 10;  // 요청이 적을 때도 허용하는 초당 재시도 수
+		private int maxBalance = 100;          // 한꺼번에 쓸 수 있는 재시도 수
+		private Duration backoff = Duration.ofMillis(20);     // 첫 재시도 전 대기 시간의 상한 (0 ~ backoff 에서 임의로, 재시도마다 두 배)
+		private Duration maxBackoff = Duration.ofMillis(200); // 대기 시간 상한의 상한
+	}
+
+	@Getter
+	@Setter
+	public static class Hedge {
+		private double percentile = 95;        // 최근 응답시간의 이 percentile 을 넘으면 하나 더 보낸다
+		private Duration minDelay = Duration.ofMillis(50);
+		private int window = 1000;             // percentile 계산에 쓰는 최근 샘플 수
+		private double ratio = 0.05;           // hedge 요청은 원래 요청의 5% 까지
+		private int minHedgesPerSecond = 5;
+		private int maxBalance = 50;
+	}
+}
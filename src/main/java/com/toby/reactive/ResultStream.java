@@ -0,0 +1,165 @@
+package com.toby.reactive;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * 여러 idx 의 결과를 응답 하나(SSE)로 끝나는 순서대로 흘려보낸다 (/v3/stream)
+ *
+ * idx 마다 /v3/rest6 을 따로 부르면 요청마다 커넥션 / DeferredResult / 필터를 거치고, 마지막 결과가 와야 전부 받는다.
+ * 여기서는 결과 하나가 끝나는 대로 "result" 이벤트(id = idx)로 바로 쓰고, 다 보내면 "done" 이벤트(보낸 항목 수)로 닫는다.
+ * - 동시에 진행 중인 항목은 maxConcurrency 개까지. 자리는 다운스트림 호출이 끝날 때가 아니라 그 결과를 응답에 쓴 뒤에 반납한다.
+ *   클라이언트가 느리게 읽어서 쓰기가 밀리면 새 다운스트림 호출도 그만큼 늦게 나간다. (write-side backpressure)
+ * - 응답 쓰기는 블로킹이라 이벤트 루프에서 하지 않는다. 끝난 결과를 큐에 넣고 writer executor 에서 한 번에 한 쓰레드만 쓴다.
+ * - 항목 하나가 실패하면 "error" 이벤트를 보내고 나머지는 계속한다.
+ * - 클라이언트가 끊거나 타임아웃이면 더 이상 호출을 내보내지 않고, 이미 나간 호출은 취소한다.
+ */
+@Slf4j
+public class ResultStream {
+	private final SseEmitter emitter;
+	private final Iterator<Integer> idxs; // dispatch() 안(synchronized)에서만 접근
+	private final int total;
+	private final IntFunction<ListenableFuture<String>> call;
+	private final Executor writer;
+	private final int maxConcurrency;
+
+	private final Queue<Item> done = new ConcurrentLinkedQueue<>(); // 끝났지만 아직 쓰지 않은 결과
+	private final AtomicInteger wip = new AtomicInteger();           // drain 예약 / 진행 중 표시 (0 일 때만 새로 예약)
+	private final Set<ListenableFuture<String>> inFlight = ConcurrentHashMap.newKeySet(); // 닫힐 때 취소할 호출들
+	private int written;                                              // drain 쓰레드에서만 접근
+	private volatile boolean closed;
+
+	public ResultStream(SseEmitter emitter, List<Integer> idxs, IntFunction<ListenableFuture<String>> call, Executor writer, int maxConcurrency) {
+		this.emitter = emitter;
+		this.idxs = idxs.iterator();
+		this.total = idxs.size();
+		this.call = call;
+		this.writer = writer;
+		this.maxConcurrency = Math.max(1, maxConcurrency);
+
+		emitter.onCompletion(this::cancelInFlight);
+		emitter.onTimeout(this::cancelInFlight);
+		emitter.onError(e -> cancelInFlight()); // 클라이언트 연결 끊김
+	}
+
+	public SseEmitter start() {
+		if (total == 0) {
+			emitter.complete();
+			return emitter;
+		}
+		for (int i = 0; i < maxConcurrency; i++) {
+			dispatch();
+		}
+		return emitter;
+	}
+
+	/**
+	 * 다음 idx 하나의 호출을 내보낸다. 처음에 maxConcurrency 번, 그 다음부터는 결과 하나를 쓸 때마다 한 번.
+	 */
+	private void dispatch() {
+		int idx;
+		synchronized (this) {
+			if (closed || !idxs.hasNext()) {
+				return;
+			}
+			idx = idxs.next();
+		}
+		ListenableFuture<String> f;
+		try {
+			f = call.apply(idx);
+		} catch (RuntimeException e) {
+			complete(new Item(idx, null, e));
+			return;
+		}
+		inFlight.add(f);
+		if (closed) { // cancelInFlight 가 add 전에 지나갔을 수 있다
+			f.cancel(false);
+		}
+		f.addCallback(r -> {
+			inFlight.remove(f);
+			complete(new Item(idx, r, null));
+		}, e -> {
+			inFlight.remove(f);
+			complete(new Item(idx, null, e));
+		});
+	}
+
+	private void cancelInFlight() {
+		closed = true;
+		for (ListenableFuture<String> f : inFlight) {
+			f.cancel(false);
+		}
+	}
+
+	private void complete(Item item) {
+		if (closed) {
+			return;
+		}
+		done.add(item);
+		if (wip.getAndIncrement() == 0) {
+			try {
+				writer.execute(this::drain);
+			} catch (RuntimeException e) { // writer 큐가 가득 참 (ExecutorRejectedException)
+				close(e);
+			}
+		}
+	}
+
+	private void drain() {
+		int missed = 1;
+		do {
+			Item item;
+			while ((item = done.poll()) != null) {
+				if (closed) {
+					done.clear();
+					return;
+				}
+				try {
+					emitter.send(item.error == null
+							? SseEmitter.event().id(String.valueOf(item.idx)).name("result").data(item.result)
+							: SseEmitter.event().id(String.valueOf(item.idx)).name("error").data(String.valueOf(item.error.getMessage())));
+					if (++written == total) {
+						emitter.send(SseEmitter.event().name("done").data(written));
+						closed = true;
+						emitter.complete();
+						return;
+					}
+				} catch (Exception e) { // IOException : 클라이언트가 끊었다
+					close(e);
+					return;
+				}
+				dispatch(); // 하나 썼으니 자리 하나를 반납
+			}
+			missed = wip.addAndGet(-missed);
+		} while (missed != 0);
+	}
+
+	private void close(Throwable e) {
+		closed = true;
+		log.debug("stream closed after {}/{} results: {}", written, total, e.toString());
+		emitter.completeWithError(e);
+	}
+
+	private static final class Item {
+		final int idx;
+		final String result;
+		final Throwable error;
+
+		Item(int idx, String result, Throwable error) {
+			this.idx = idx;
+			this.result = result;
+			this.error = error;
+		}
+	}
+}
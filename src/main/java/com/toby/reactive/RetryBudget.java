@@ -0,0 +1,125 @@
+package com.toby.reactive;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 재시도 예산 : 다운스트림이 느려지거나 실패할 때 재시도가 부하를 몇 배로 키우는 것(retry storm)을 막는다.
+ *
+ * 토큰 버킷 하나로 관리한다.
+ * - 원래 요청 하나마다 ratio 만큼 적립 (ratio = 0.1 이면 재시도는 전체 요청의 10% 를 넘지 못함)
+ * - 요청이 적을 때도 재시도가 아예 막히지 않도록 초당 minRetriesPerSecond 개씩 채워준다
+ * - 재시도 한 번에 토큰 하나를 쓰고, 없으면 재시도하지 않고 실패를 그대로 넘긴다
+ * - 재시도는 바로 보내지 않고 backoff * 2^(attempt-1) (maxBackoff 까지) 안에서 임의로 고른 시간만큼 기다린다 (full jitter)
+ *   같은 순간에 실패한 요청들의 재시도가 한꺼번에 몰려서 막 회복하는 다운스트림을 다시 넘어뜨리지 않게
+ *
+ * 적립(deposit)은 요청마다 일어나므로 CAS 로, 시간 기반 충전은 재시도할 때만 계산한다.
+ */
+public class RetryBudget {
+	private static final long UNIT = 1000; // 토큰 1개 = 1000 (소수점 비율을 정수로 적립하기 위한 고정 소수점)
+
+	private final long depositPerRequest;
+	private final long refillPerSecond;
+	private final long maxBalance;
+	private final int maxAttempts;
+	private final long backoffNanos;
+	private final long maxBackoffNanos;
+
+	private final AtomicLong balance;
+	private final AtomicLong lastRefill = new AtomicLong(System.nanoTime());
+	private final LongAdder retries = new LongAdder();
+	private final LongAdder exhausted = new LongAdder();
+
+	/**
+	 * @param ratio               원래 요청 대비 허용하는 재시도 비율
+	 * @param minRetriesPerSecond 요청이 적어도 허용하는 초당 재시도 수
+	 * @param maxBalance          쌓아둘 수 있는 최대 재시도 수 (한꺼번에 몰리는 재시도 상한)
+	 * @param maxAttempts         원래 요청을 포함한 최대 시도 횟수
+	 */
+	public RetryBudget(double ratio, int minRetriesPerSecond, int maxBalance, int maxAttempts) {
+		this(ratio, minRetriesPerSecond, maxBalance, maxAttempts, 0, 0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param backoff    첫 재시도 전 대기 시간의 상한 (0 이면 바로 재시도)
+	 * @param maxBackoff 재시도가 거듭돼도 넘지 않는 대기 시간의 상한
+	 */
+	public RetryBudget(double ratio, int minRetriesPerSecond, int maxBalance, int maxAttempts, long backoff, long maxBackoff, TimeUnit unit) {
+		this.depositPerRequest = (long) (ratio * UNIT);
+		this.refillPerSecond = minRetriesPerSecond * UNIT;
+		this.maxBalance = maxBalance * UNIT;
+		this.maxAttempts = maxAttempts;
+		this.backoffNanos = unit.toNanos(backoff);
+		this.maxBackoffNanos = Math.max(backoffNanos, unit.toNanos(maxBackoff));
+		this.balance = new AtomicLong(this.maxBalance);
+	}
+
+	/**
+	 * 원래 요청(재시도가 아닌 것)마다 호출
+	 */
+	public void deposit() {
+		if (depositPerRequest > 0) {
+			balance.getAndUpdate(b -> Math.min(maxBalance, b + depositPerRequest));
+		}
+	}
+
+	/**
+	 * @return 재시도해도 되면 true (토큰 하나를 쓴다)
+	 */
+	public boolean tryWithdraw() {
+		refill();
+		for (;;) {
+			long b = balance.get();
+			if (b < UNIT) {
+				exhausted.increment();
+				return false;
+			}
+			if (balance.compareAndSet(b, b - UNIT)) {
+				retries.increment();
+				return true;
+			}
+		}
+	}
+
+	private void refill() {
+		if (refillPerSecond == 0) {
+			return;
+		}
+		long last = lastRefill.get();
+		long now = System.nanoTime();
+		long amount = (now - last) * refillPerSecond / TimeUnit.SECONDS.toNanos(1);
+		if (amount > 0 && lastRefill.compareAndSet(last, now)) { // 충전은 한 쓰레드만
+			balance.getAndUpdate(b -> Math.min(maxBalance, b + amount));
+		}
+	}
+
+	/**
+	 * @param attempt 실패한 시도의 번호 (원래 요청이 1)
+	 * @return 다음 시도 전에 기다릴 시간 : 0 ~ min(maxBackoff, backoff * 2^(attempt-1)) 에서 고르게
+	 */
+	public long backoffNanos(int attempt) {
+		if (backoffNanos == 0) {
+			return 0;
+		}
+		long ceiling = attempt > 30 ? maxBackoffNanos : Math.min(maxBackoffNanos, backoffNanos << (attempt - 1));
+		return ThreadLocalRandom.current().nextLong(ceiling + 1);
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	public double getBalance() {
+		return (double) balance.get() / UNIT;
+	}
+
+	public long getRetries() {
+		return retries.sum();
+	}
+
+	public long getExhausted() {
+		return exhausted.sum();
+	}
+}
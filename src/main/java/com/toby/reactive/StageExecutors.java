@@ -0,0 +1,15 @@
+package com.toby.reactive;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Completion.andApplyAsync / andAcceptAsync 에 넘기는 executor
+ * - INLINE    : 결과를 전달한 쓰레드에서 바로 (andApply / andAccept 와 같다). 가벼운 단계 - 쓰레드 전환이 단계 자체보다 비싸다
+ * - 이름 있는 executor 빈 (reactive.async.executors 의 "cpu", "blocking" 등) : 이벤트 루프를 붙잡으면 안 되는 CPU / 블로킹 단계
+ */
+public final class StageExecutors {
+	public static final Executor INLINE = Runnable::run;
+
+	private StageExecutors() {
+	}
+}
@@ -0,0 +1,20 @@
+package com.toby.reactive;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * 스트리밍 엔드포인트 설정 (application.yml 의 reactive.stream.*, ResultStream)
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "reactive.stream")
+public class StreamProperties {
+	private int maxConcurrency = 64;                 // 응답 하나에서 동시에 진행 중인 항목 수 (결과를 쓴 뒤에 다음 항목을 보낸다)
+	private int maxItems = 10_000;                   // 요청 하나에 넣을 수 있는 idx 수
+	private Duration timeout = Duration.ofSeconds(60); // 응답 전체의 async timeout
+	private String writerExecutor = "blocking";      // 응답 쓰기(블로킹)를 하는 executor 프로필 이름 (reactive.async.executors)
+}
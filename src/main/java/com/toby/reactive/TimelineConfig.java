@@ -0,0 +1,51 @@
+package com.toby.reactive;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Completion 체인의 요청별 timeline 기록 (TimelineRecorder)
+ * GET /diag/timelines            : 가장 느린 요청들과 무작위 샘플의 timeline
+ * GET /diag/timelines?reset=true : 보고 난 뒤 비운다 (부하 테스트 구간별로 볼 때)
+ */
+@Configuration
+@EnableConfigurationProperties(TimelineProperties.class)
+@ConditionalOnProperty(prefix = "reactive.timeline", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class TimelineConfig {
+
+	@Bean(destroyMethod = "close")
+	public TimelineRecorder timelineRecorder(TimelineProperties properties) {
+		TimelineRecorder recorder = new TimelineRecorder(properties.getCapacity(), properties.getMaxEvents(),
+				properties.getSlowest(), properties.getSamples(), properties.getSampleRate());
+		Completion.setRecorder(recorder);
+		return recorder;
+	}
+
+	@RestController
+	@RequestMapping("/diag")
+	@ConditionalOnProperty(prefix = "reactive.timeline", name = "enabled", havingValue = "true", matchIfMissing = true) // 컴포넌트 스캔은 바깥 클래스의 조건을 보지 않는다
+	public static class TimelineController {
+		@Autowired TimelineRecorder timelineRecorder;
+
+		@GetMapping("/timelines")
+		public Map<String, Object> timelines(@RequestParam(defaultValue = "false") boolean reset) {
+			Map<String, Object> result = new LinkedHashMap<>();
+			result.put("slowest", timelineRecorder.getSlowest());
+			result.put("sampled", timelineRecorder.getSampled());
+			if (reset) {
+				timelineRecorder.reset();
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,20 @@
+package com.toby.reactive;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 요청별 timeline 기록 설정 (application.yml 의 reactive.timeline.*)
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "reactive.timeline")
+public class TimelineProperties {
+	private boolean enabled = true;
+	private int capacity = 8192;        // 동시에 추적하는 요청 수 (이보다 많은 요청이 진행 중이면 오래된 것부터 덮어쓴다)
+	private int maxEvents = 32;         // 요청 하나당 기록하는 이벤트 수
+	private int slowest = 20;           // /diag/timelines 에 보관하는 가장 느린 요청 수
+	private int samples = 50;           // 무작위 샘플 보관 수
+	private double sampleRate = 0.01;   // 끝난 요청 중 샘플로 보관할 비율
+}
@@ -0,0 +1,297 @@
+package com.toby.reactive;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 요청 하나의 Completion 체인이 지나간 시각들(timeline)을 기록하는 recorder
+ * 집계 메트릭(completion.stage)으로는 안 보이는 "이 느린 요청은 어디서 시간을 썼나"를 보기 위한 것.
+ *
+ * 기록은 미리 할당한 배열(링 버퍼)에만 한다. 요청마다 객체를 만들지 않는다.
+ * - begin  : 시퀀스로 trace id 를 받고 id & mask 슬롯을 쓴다. (capacity 개의 요청이 더 시작되면 덮어써진다)
+ *            이벤트 수를 먼저 0 으로 되돌리고 id 를 마지막에 쓴다 : 새 id 를 본 쓰레드는 되돌린 이벤트 수도 본다
+ * - stamp  : 슬롯에 (시각, 쓰레드 id, 이벤트) 를 추가
+ * - finish : DeferredResult 에 결과가 들어간 시점. 가장 느린 slowest 개와 sampleRate 비율의 무작위 샘플은
+ *            덮어써지지 않도록 따로 미리 할당해 둔 영역으로 복사한다. (느린 요청만 락을 잡는다)
+ * 같은 trace 에 여러 쓰레드가 동시에 기록하는 경우(zip 등) 순서가 섞일 수 있어서 출력할 때 시각으로 정렬한다.
+ *
+ * 이벤트
+ *   START       : 체인 시작 (Completion.from / zip / allOf / anyOf)
+ *   CALL_ISSUED : andApply 단계가 다음 호출을 보냄 (호출하는 쪽 쓰레드)
+ *   WRITTEN     : 요청이 소켓에 쓰여짐 (클라이언트 이벤트 루프) - CALL_ISSUED 와의 차이가 커넥션 풀 대기 + 이벤트 루프 큐잉
+ *   CALLBACK    : 호출 결과 도착 - WRITTEN 과의 차이가 다운스트림 지연
+ *   ERROR       : 호출 실패 도착
+ *   DISPATCH    : 다음 단계로 결과 전달
+ *   RESULT_SET  : DeferredResult 에 결과(또는 에러)를 넣음
+ */
+public class TimelineRecorder {
+	public enum Event { START, CALL_ISSUED, WRITTEN, CALLBACK, ERROR, DISPATCH, RESULT_SET }
+
+	// 지금 이 쓰레드에서 실행 중인 단계의 trace id (호출을 보내는 코드가 trace 를 모르고도 WRITTEN 을 기록할 수 있게). 쓰레드당 배열 하나만 만든다
+	private static final ThreadLocal<long[]> CURRENT = ThreadLocal.withInitial(() -> new long[1]);
+
+	private static final Event[] EVENTS = Event.values();
+	private static final Completion.Stage[] STAGES = Completion.Stage.values();
+
+	private final int mask;
+	private final int maxEvents;
+	private final double sampleRate;
+	private final AtomicLong sequence = new AtomicLong(1); // 0 은 "기록하지 않음"
+
+	private final AtomicLongArray ids; // 슬롯을 지금 쓰고 있는 trace id. 슬롯의 나머지(counts, live)를 공개하는 쓰기라서 마지막에 쓴다
+	private final AtomicIntegerArray counts;
+	private final Slots live;
+
+	private final Retained slowest;
+	private final Retained sampled;
+
+	/**
+	 * @param capacity   동시에 추적하는 요청 수 (2의 거듭제곱으로 올림)
+	 * @param maxEvents  요청 하나에 기록하는 최대 이벤트 수 (넘으면 버림)
+	 * @param slowest    보관하는 가장 느린 timeline 수
+	 * @param samples    보관하는 무작위 샘플 수
+	 * @param sampleRate 0 ~ 1, 끝난 요청 중 샘플로 보관할 비율
+	 */
+	public TimelineRecorder(int capacity, int maxEvents, int slowest, int samples, double sampleRate) {
+		int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		this.mask = size - 1;
+		this.maxEvents = maxEvents;
+		this.sampleRate = sampleRate;
+		this.ids = new AtomicLongArray(size);
+		this.counts = new AtomicIntegerArray(size);
+		this.live = new Slots(size, maxEvents);
+		this.slowest = new Retained(slowest, maxEvents, true);
+		this.sampled = new Retained(samples, maxEvents, false);
+	}
+
+	public long begin() {
+		long id = sequence.getAndIncrement();
+		int slot = (int) (id & mask);
+		counts.set(slot, 0);
+		ids.set(slot, id); // volatile 쓰기 : 이 id 를 읽은 쓰레드에게는 위의 counts 도 보인다
+		return id;
+	}
+
+	public void stamp(long id, Event event, Completion.Stage stage) {
+		int slot = (int) (id & mask);
+		if (ids.get(slot) != id) {
+			return; // 이미 다른 요청이 슬롯을 덮어씀
+		}
+		int i = counts.getAndIncrement(slot);
+		if (i < maxEvents) {
+			live.set(slot * maxEvents + i, System.nanoTime(), Thread.currentThread().getId(), event, stage);
+		}
+	}
+
+	public void finish(long id) {
+		int slot = (int) (id & mask);
+		if (ids.get(slot) != id) {
+			return;
+		}
+		int n = Math.min(counts.get(slot), maxEvents);
+		if (n == 0) {
+			return;
+		}
+		int base = slot * maxEvents;
+		long first = Long.MAX_VALUE;
+		long last = Long.MIN_VALUE;
+		for (int i = 0; i < n; i++) {
+			long t = live.times[base + i];
+			first = Math.min(first, t);
+			last = Math.max(last, t);
+		}
+		long total = last - first;
+		if (total > slowest.threshold) {
+			slowest.offer(id, total, live, base, n);
+		}
+		if (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate) {
+			sampled.offer(id, total, live, base, n);
+		}
+	}
+
+	/**
+	 * 이 쓰레드에서 실행되는 호출이 trace 에 기록되도록 표시한다. 리턴값을 exit 에 넘겨서 되돌린다.
+	 */
+	static long enter(long id) {
+		long[] current = CURRENT.get();
+		long prev = current[0];
+		current[0] = id;
+		return prev;
+	}
+
+	static void exit(long prev) {
+		CURRENT.get()[0] = prev;
+	}
+
+	/**
+	 * 지금 쓰레드의 trace id (없으면 0). 호출을 보내는 쪽(PooledNettyClientHttpRequestFactory)이 읽어뒀다가 나중에 stampWritten 으로 넘긴다.
+	 */
+	static long current() {
+		return Completion.recorder() != null ? CURRENT.get()[0] : 0;
+	}
+
+	static void stampWritten(long id) {
+		TimelineRecorder recorder = Completion.recorder();
+		if (id != 0 && recorder != null) {
+			recorder.stamp(id, Event.WRITTEN, Completion.Stage.APPLY);
+		}
+	}
+
+	public List<Map<String, Object>> getSlowest() {
+		return slowest.snapshot();
+	}
+
+	public List<Map<String, Object>> getSampled() {
+		return sampled.snapshot();
+	}
+
+	/**
+	 * Completion 의 hook 은 static 이라서 컨텍스트가 닫힐 때 되돌려 놓는다. (다른 컨텍스트의 recorder 로 바뀌어 있으면 그대로 둔다)
+	 */
+	public void close() {
+		Completion.clearRecorder(this);
+	}
+
+	public void reset() {
+		slowest.clear();
+		sampled.clear();
+	}
+
+	/**
+	 * timeline 들을 담는 평평한 배열들 (slot * maxEvents + i)
+	 */
+	private static final class Slots {
+		final long[] times;
+		final long[] threads;
+		final byte[] events;
+		final byte[] stages;
+
+		Slots(int slots, int maxEvents) {
+			times = new long[slots * maxEvents];
+			threads = new long[slots * maxEvents];
+			events = new byte[slots * maxEvents];
+			stages = new byte[slots * maxEvents];
+		}
+
+		void set(int idx, long time, long thread, Event event, Completion.Stage stage) {
+			times[idx] = time;
+			threads[idx] = thread;
+			events[idx] = (byte) event.ordinal();
+			stages[idx] = (byte) stage.ordinal();
+		}
+	}
+
+	/**
+	 * 덮어써지지 않게 보관하는 timeline (가장 느린 것들 / 무작위 샘플)
+	 */
+	private static final class Retained {
+		final int maxEvents;
+		final boolean keepSlowest;
+		final Slots slots;
+		final long[] ids;
+		final long[] totals;
+		final int[] counts;
+		volatile long threshold; // keepSlowest : 가득 찼을 때 보관 중인 것 중 가장 빠른 것 (이보다 빠르면 락도 안 잡는다)
+		int size;
+		int next;
+
+		Retained(int capacity, int maxEvents, boolean keepSlowest) {
+			this.maxEvents = maxEvents;
+			this.keepSlowest = keepSlowest;
+			this.slots = new Slots(capacity, maxEvents);
+			this.ids = new long[capacity];
+			this.totals = new long[capacity];
+			this.counts = new int[capacity];
+			this.threshold = keepSlowest ? 0 : Long.MAX_VALUE;
+		}
+
+		synchronized void offer(long id, long total, Slots from, int fromBase, int n) {
+			if (ids.length == 0) {
+				return;
+			}
+			int target;
+			if (size < ids.length) {
+				target = size++;
+			} else if (keepSlowest) {
+				target = 0;
+				for (int i = 1; i < size; i++) {
+					if (totals[i] < totals[target]) {
+						target = i;
+					}
+				}
+				if (totals[target] >= total) {
+					return;
+				}
+			} else {
+				target = next;
+				next = (next + 1) % ids.length;
+			}
+			ids[target] = id;
+			totals[target] = total;
+			counts[target] = n;
+			int base = target * maxEvents;
+			System.arraycopy(from.times, fromBase, slots.times, base, n);
+			System.arraycopy(from.threads, fromBase, slots.threads, base, n);
+			System.arraycopy(from.events, fromBase, slots.events, base, n);
+			System.arraycopy(from.stages, fromBase, slots.stages, base, n);
+
+			if (keepSlowest && size == ids.length) {
+				long min = Long.MAX_VALUE;
+				for (int i = 0; i < size; i++) {
+					min = Math.min(min, totals[i]);
+				}
+				threshold = min;
+			}
+		}
+
+		synchronized void clear() {
+			size = 0;
+			next = 0;
+			threshold = keepSlowest ? 0 : Long.MAX_VALUE;
+		}
+
+		synchronized List<Map<String, Object>> snapshot() {
+			ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+			List<Map<String, Object>> result = new ArrayList<>(size);
+			for (int t = 0; t < size; t++) {
+				int base = t * maxEvents;
+				Integer[] order = new Integer[counts[t]];
+				for (int i = 0; i < order.length; i++) {
+					order[i] = base + i;
+				}
+				Arrays.sort(order, (a, b) -> Long.compare(slots.times[a], slots.times[b]));
+
+				long start = slots.times[order[0]];
+				List<Map<String, Object>> events = new ArrayList<>(order.length);
+				for (int idx : order) {
+					Map<String, Object> e = new LinkedHashMap<>();
+					e.put("atMicros", (slots.times[idx] - start) / 1000);
+					e.put("event", EVENTS[slots.events[idx]]);
+					e.put("stage", STAGES[slots.stages[idx]]);
+					ThreadInfo info = threadMXBean.getThreadInfo(slots.threads[idx]);
+					e.put("thread", info != null ? info.getThreadName() : "#" + slots.threads[idx]);
+					events.add(e);
+				}
+				Map<String, Object> timeline = new LinkedHashMap<>();
+				timeline.put("trace", ids[t]);
+				timeline.put("totalMillis", totals[t] / 1_000_000.0);
+				timeline.put("events", events);
+				result.add(timeline);
+			}
+			if (keepSlowest) {
+				result.sort((a, b) -> Double.compare((double) b.get("totalMillis"), (double) a.get("totalMillis")));
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package com.toby.reactive;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 관측된 지연시간으로 동시 처리 한도(limit)를 조정하는 TCP Vegas 방식의 limiter
+ *
+ * 부하가 없을 때의 최소 응답시간(rttNoLoad)과 현재 응답시간(rtt)을 비교해서 "큐에 쌓여있는 요청 수"를 추정한다.
+ *   queueSize = limit * (1 - rttNoLoad / rtt)
+ * - queueSize 가 작으면(alpha 미만) 여유가 있다고 보고 limit 을 늘리고
+ * - queueSize 가 크면(beta 초과) 다운스트림이 밀리고 있다고 보고 limit 을 줄인다.
+ * - 타임아웃/5xx 가 나면(drop) limit 을 바로 줄인다.
+ *
+ * tryAcquire 는 CAS 한번으로 끝나서 한도를 넘는 요청은 대기 없이 바로 거절된다.
+ * limit 갱신은 응답이 끝날 때만 일어나므로 synchronized 로 충분하다.
+ */
+public class VegasLimiter {
+	private final int minLimit;
+	private final int maxLimit;
+	private final double smoothing;
+	private final int probeMultiplier;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final LongAdder rejected = new LongAdder();
+	private volatile int limit;
+
+	// 아래는 synchronized(this) 안에서만 접근
+	private double estimatedLimit;
+	private long rttNoLoad;
+	private long probeCountdown;
+
+	public VegasLimiter(int initialLimit, int minLimit, int maxLimit, double smoothing, int probeMultiplier) {
+		this.limit = initialLimit;
+		this.estimatedLimit = initialLimit;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.smoothing = smoothing;
+		this.probeMultiplier = probeMultiplier;
+		this.probeCountdown = nextProbeCountdown(initialLimit);
+	}
+
+	/**
+	 * @return 처리해도 되면 true (이 경우 반드시 onSuccess / onDropped / onIgnore 중 하나를 호출해야 한다)
+	 */
+	public boolean tryAcquire() {
+		for (;;) {
+			int current = inFlight.get();
+			if (current >= limit) {
+				rejected.increment();
+				return false;
+			}
+			if (inFlight.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * 정상 응답 : 응답시간을 반영해서 limit 을 조정한다.
+	 * @param inFlightAtStart 요청이 시작될 때의 동시 처리 수 (한도보다 한참 적게 쓰고 있을 때는 limit 을 늘리지 않기 위함)
+	 */
+	public void onSuccess(long rttNanos, int inFlightAtStart) {
+		inFlight.decrementAndGet();
+		update(rttNanos, inFlightAtStart, false);
+	}
+
+	/**
+	 * 타임아웃, 5xx 등 : 다운스트림이 감당하지 못한 것으로 보고 limit 을 줄인다.
+	 */
+	public void onDropped() {
+		inFlight.decrementAndGet();
+		update(0, 0, true);
+	}
+
+	/**
+	 * 클라이언트가 끊긴 경우 등 limit 판단에 쓰지 않을 결과
+	 */
+	public void onIgnore() {
+		inFlight.decrementAndGet();
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	public long getRejectedCount() {
+		return rejected.sum();
+	}
+
+	private synchronized void update(long rtt, int inFlightAtStart, boolean didDrop) {
+		double current = estimatedLimit;
+		double newLimit;
+
+		if (didDrop) {
+			newLimit = current - log10(current);
+		} else {
+			if (--probeCountdown <= 0) { // 다운스트림의 기본 지연이 바뀌었을 수 있으니 주기적으로 rttNoLoad 를 다시 잰다
+				probeCountdown = nextProbeCountdown(current);
+				rttNoLoad = rtt;
+				return;
+			}
+			if (rttNoLoad == 0 || rtt < rttNoLoad) {
+				rttNoLoad = rtt;
+				return;
+			}
+			if (inFlightAtStart * 2 < current) { // 한도의 절반도 안 쓰고 있으면 판단할 근거가 없다
+				return;
+			}
+
+			int queueSize = (int) Math.ceil(current * (1 - (double) rttNoLoad / rtt));
+			double threshold = log10(current);
+			double alpha = 3 * threshold;
+			double beta = 6 * threshold;
+
+			if (queueSize <= threshold) {
+				newLimit = current + beta;
+			} else if (queueSize < alpha) {
+				newLimit = current + threshold;
+			} else if (queueSize > beta) {
+				newLimit = current - threshold;
+			} else {
+				return;
+			}
+		}
+
+		newLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+		estimatedLimit = (1 - smoothing) * current + smoothing * newLimit;
+		limit = (int) estimatedLimit;
+	}
+
+	private long nextProbeCountdown(double currentLimit) {
+		return (long) (probeMultiplier * currentLimit);
+	}
+
+	private static double log10(double limit) {
+		return Math.max(1, Math.log10(limit));
+	}
+}
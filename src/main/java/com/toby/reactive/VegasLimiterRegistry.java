@@ -0,0 +1,42 @@
+package com.toby.reactive;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 엔드포인트(경로)마다 VegasLimiter 를 따로 둔다. 처음 찾을 때 reactive.limit.* 설정으로 만든다.
+ * 하나를 같이 쓰면 /v3/rest6 (2초 + 2초 직렬) 같은 느린 경로의 응답시간이 빠른 경로의 rttNoLoad / queueSize 추정까지 흐린다.
+ * 키는 url-patterns 에 그대로 적힌 경로만 쓰고, 와일드카드 패턴으로 들어온 나머지 경로는 하나(SHARED)를 같이 쓴다. (경로 변수로 limiter 가 끝없이 늘지 않게)
+ */
+public class VegasLimiterRegistry {
+	public static final String SHARED = "*";
+
+	private final ConcurrencyLimitProperties properties;
+	private final Set<String> exactPaths;
+	private final Map<String, VegasLimiter> limiters = new ConcurrentHashMap<>();
+
+	public VegasLimiterRegistry(ConcurrencyLimitProperties properties) {
+		this.properties = properties;
+		Set<String> paths = new HashSet<>();
+		for (String pattern : properties.getUrlPatterns()) {
+			if (!pattern.contains("*")) {
+				paths.add(pattern);
+			}
+		}
+		this.exactPaths = Collections.unmodifiableSet(paths);
+	}
+
+	public VegasLimiter get(String path) {
+		String key = exactPaths.contains(path) ? path : SHARED;
+		VegasLimiter l = limiters.get(key); // 대부분은 이미 있으므로 computeIfAbsent 의 락을 피한다
+		return l != null ? l : limiters.computeIfAbsent(key, k -> new VegasLimiter(properties.getInitialLimit(), properties.getMinLimit(),
+				properties.getMaxLimit(), properties.getSmoothing(), properties.getProbeMultiplier()));
+	}
+
+	public Map<String, VegasLimiter> getAll() {
+		return limiters;
+	}
+}
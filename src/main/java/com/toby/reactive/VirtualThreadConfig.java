@@ -0,0 +1,41 @@
+package com.toby.reactive;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tomcat 요청 처리를 가상 쓰레드(Java 21+)로 실행하는 모드
+ * reactive.virtual-threads.enabled=true 일 때만 (./gradlew bootRun -PvirtualThreads)
+ *
+ * 요청마다 가상 쓰레드가 하나씩 만들어지기 때문에 /rest 의 blocking RestTemplate 호출도
+ * 플랫폼 쓰레드(server.tomcat.threads.max)를 점유하지 않는다. 이때 동시 처리 수의 상한은 server.tomcat.max-connections 이다.
+ *
+ * 소스 호환성은 11 이라서 Executors.newVirtualThreadPerTaskExecutor 는 리플렉션으로 찾는다.
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(prefix = "reactive.virtual-threads", name = "enabled", havingValue = "true")
+public class VirtualThreadConfig {
+
+	@Bean(destroyMethod = "shutdown")
+	public ExecutorService virtualThreadExecutor() {
+		try {
+			ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			log.info("tomcat request handling runs on virtual threads");
+			return executor;
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("virtual threads require Java 21+ (run with ./gradlew bootRun -PvirtualThreads)", e);
+		}
+	}
+
+	@Bean
+	public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer(ExecutorService virtualThreadExecutor) {
+		return protocolHandler -> protocolHandler.setExecutor(virtualThreadExecutor);
+	}
+}
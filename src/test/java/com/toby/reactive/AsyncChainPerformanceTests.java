@@ -0,0 +1,98 @@
+package com.toby.reactive;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * RemoteService 와 각 앱을 임의 포트에 띄우고 LoadTest 로 동시 사용자 CONCURRENCY 명의 부하를 건다.
+ * Tomcat 쓰레드를 TOMCAT_THREADS 개로 묶어 두었으므로
+ * - 체인이 비동기로 돌면 처리량은 동시 사용자 수 / 체인 지연 (CONCURRENCY / 200ms = 200 req/s) 에 가깝고
+ * - 어디선가 요청 쓰레드가 응답을 기다리면(직렬화) TOMCAT_THREADS / 200ms = 10 req/s 에 묶이고 p99 는 초 단위가 된다.
+ * 쓰레드 수는 부하 전후로 비교한다 : 요청마다 쓰레드를 만들거나(무제한 executor) 놓아주지 않으면 동시 사용자 수만큼 늘어난다.
+ * 기준값은 1 vCPU 에서 부하 생성기와 서버 셋이 한 JVM 에서 돌아도 넘는 수준으로 여유 있게 잡았다.
+ */
+class AsyncChainPerformanceTests {
+	static final int CONCURRENCY = 40;
+	static final int TOMCAT_THREADS = 2;
+	static final String DELAY = "fixed:100";   // service, service2 각각 -> 직렬 체인 하나에 200ms
+	static final double MIN_THROUGHPUT = 30;   // req/s : 직렬화되면 10 req/s (첫 호출만 기다려도 16 req/s)
+	static final double MAX_P99_MILLIS = 2500; // 직렬화되면 CONCURRENCY / 10 req/s = 4s 씩 기다린다
+	static final int MAX_EXTRA_THREADS = CONCURRENCY / 2;
+
+	static ConfigurableApplicationContext remote;
+
+	@BeforeAll
+	static void startRemote() {
+		remote = new SpringApplicationBuilder(RemoteService.class)
+				.run("--server.port=0", // properties() 로 주면 기본값이라 application.yml 의 8083 에 진다
+						"--remote.endpoints.service.delay=" + DELAY,
+						"--remote.endpoints.service2.delay=" + DELAY);
+	}
+
+	@AfterAll
+	static void stopRemote() {
+		remote.close();
+	}
+
+	@Test
+	void deferredResultCallbacks() throws InterruptedException {
+		assertAsyncUnderLoad(ReactiveApplication.class, "/rest4?idx={idx}");
+	}
+
+	@Test
+	void completionChain() throws InterruptedException {
+		assertAsyncUnderLoad(ReactiveApplicationV2.class, "/v2/rest6?idx={idx}");
+	}
+
+	@Test
+	void resilientCompletionChain() throws InterruptedException {
+		assertAsyncUnderLoad(ReactiveApplicationV3.class, "/v3/rest6?idx={idx}");
+	}
+
+	private void assertAsyncUnderLoad(Class<?> app, String path) throws InterruptedException {
+		try (ConfigurableApplicationContext context = new SpringApplicationBuilder(app)
+				.run("--server.port=0",
+						"--server.tomcat.threads.max=" + TOMCAT_THREADS,
+						"--server.tomcat.threads.min-spare=" + TOMCAT_THREADS,
+						"--reactive.client.remote-url=http://localhost:" + port(remote),
+						"--reactive.limit.enabled=false", // 한도 초과 503 을 빼고 체인 자체만 본다
+						"--reactive.pipeline-log.mode=off")) {
+			LoadTest.Config config = new LoadTest.Config();
+			config.setUrl("http://localhost:" + port(context) + path);
+			config.setMode("concurrency");
+			config.setConcurrency(CONCURRENCY);
+			config.setWarmup(Duration.ZERO);
+			config.setRequestTimeout(Duration.ofSeconds(10));
+
+			config.setDuration(Duration.ofSeconds(2));
+			LoadTest.run(config); // JIT, 커넥션 풀, 지연 생성되는 쓰레드들(이벤트 루프, executor)을 미리 채운다
+
+			ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+			int before = threads.getThreadCount();
+			threads.resetPeakThreadCount();
+			config.setDuration(Duration.ofSeconds(4));
+			LoadTest.Report report = LoadTest.run(config);
+			int peak = threads.getPeakThreadCount();
+
+			assertThat(report.getErrors()).as("DeferredResult timeout(503) / 요청 timeout / 연결 끊김").isEmpty();
+			assertThat(report.getOk()).isEqualTo(report.getRequests()).isPositive();
+			assertThat(report.getThroughput()).as("req/s").isGreaterThan(MIN_THROUGHPUT);
+			assertThat(report.percentileMillis(99)).as("p99 ms").isLessThan(MAX_P99_MILLIS);
+			assertThat(peak - before).as("threads created under load").isLessThan(MAX_EXTRA_THREADS);
+		}
+	}
+
+	private static int port(ConfigurableApplicationContext context) {
+		return ((WebServerApplicationContext) context).getWebServer().getPort();
+	}
+}
@@ -0,0 +1,140 @@
+package com.toby.reactive;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.ResourceLeakDetector;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.AsyncClientHttpRequest;
+import org.springframework.http.client.AsyncClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.mock.http.MockHttpOutputMessage;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * ByteBuf 경로(/v3/rest9)의 참조 카운트 : 정상 / 에러 / timeout 뒤에 온 응답 / 응답 쓰기 모두 마지막에 refCnt 가 0 이어야 한다.
+ * paranoid 로 두면 놓친 버퍼는 GC 될 때 "LEAK:" 로그가 남는다.
+ */
+class ByteBufPipelineTests {
+	static ResourceLeakDetector.Level previousLevel;
+
+	@BeforeAll
+	static void paranoidLeakDetection() {
+		previousLevel = ResourceLeakDetector.getLevel();
+		ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.PARANOID);
+	}
+
+	@AfterAll
+	static void restoreLeakDetection() {
+		ResourceLeakDetector.setLevel(previousLevel); // JVM 전역 설정 : 같은 JVM 에서 도는 다른 테스트(부하 테스트)까지 느려지지 않게
+	}
+
+	@Test
+	void bodyIsHandedOverWithoutCopyAndReleasedByTheReceiver() throws Exception {
+		ByteBuf content = pooled("hello1/service");
+		ByteBuf body = client(HttpResponseStatus.OK, content).get("http://localhost/service?req={req}", "hello1").get(1, TimeUnit.SECONDS);
+
+		assertThat(body.toString(StandardCharsets.UTF_8)).isEqualTo("hello1/service");
+		assertThat(content.refCnt()).isEqualTo(1); // 응답은 close 됐고 남은 참조는 받은 쪽의 것
+
+		body.release();
+		assertThat(content.refCnt()).isZero();
+	}
+
+	@Test
+	void errorResponseFailsAndReleasesBody() {
+		ByteBuf content = pooled("boom");
+		ListenableFuture<ByteBuf> f = client(HttpResponseStatus.INTERNAL_SERVER_ERROR, content).get("http://localhost/service");
+
+		assertThatThrownBy(() -> f.get(1, TimeUnit.SECONDS))
+				.isInstanceOf(ExecutionException.class)
+				.hasCauseInstanceOf(HttpServerErrorException.class);
+		assertThat(content.refCnt()).isZero();
+	}
+
+	@Test
+	void lateValueAfterTimeoutIsReleased() {
+		SettableListenableFuture<ByteBuf> call = new SettableListenableFuture<ByteBuf>() {
+			@Override
+			public boolean cancel(boolean mayInterruptIfRunning) {
+				return false; // 취소를 지원하지 않는 호출 : timeout 뒤에도 값이 온다
+			}
+		};
+		ListenableFuture<ByteBuf> f = Completion.timeout(call, Duration.ofMillis(10));
+		assertThatThrownBy(() -> f.get(1, TimeUnit.SECONDS)).hasCauseInstanceOf(java.util.concurrent.TimeoutException.class);
+
+		ByteBuf late = pooled("late");
+		call.set(late);
+		assertThat(late.refCnt()).isZero();
+	}
+
+	@Test
+	void composedResponseIsWrittenAndReleased() throws Exception {
+		ByteBuf body = pooled("hello1/service/service2");
+		ByteBuf composed = new ReactiveApplicationV3.Myservice().workBytes(body).get();
+		MockHttpOutputMessage out = new MockHttpOutputMessage();
+
+		new ByteBufHttpMessageConverter().write(composed, null, out);
+
+		assertThat(out.getBodyAsString(StandardCharsets.UTF_8)).isEqualTo("hello1/service/service2/asyncwork");
+		assertThat(out.getHeaders().getContentLength()).isEqualTo(33);
+		assertThat(composed.refCnt()).isZero();
+		assertThat(body.refCnt()).isZero();
+	}
+
+	@Test
+	void handOffReleasesWhenTheNextStageCannotStart() {
+		ByteBuf body = pooled("hello1");
+		assertThatThrownBy(() -> ByteBufClient.handOff(body, b -> {
+			throw new ExecutorRejectedException("myThreadPool", "queue full");
+		})).isInstanceOf(ExecutorRejectedException.class);
+		assertThat(body.refCnt()).isZero();
+	}
+
+	private static ByteBuf pooled(String s) {
+		ByteBuf buf = PooledByteBufAllocator.DEFAULT.directBuffer();
+		buf.writeCharSequence(s, StandardCharsets.UTF_8);
+		return buf;
+	}
+
+	/**
+	 * 커넥션 대신 정해진 응답을 돌려주는 팩토리. 응답 객체는 실제 팩토리와 같은 PooledNettyClientHttpResponse
+	 */
+	private static ByteBufClient client(HttpResponseStatus status, ByteBuf content) {
+		AsyncClientHttpRequestFactory factory = (uri, method) -> request(uri, method,
+				new PooledNettyClientHttpRequestFactory.PooledNettyClientHttpResponse(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, content)));
+		return new ByteBufClient(factory);
+	}
+
+	private static AsyncClientHttpRequest request(URI uri, HttpMethod method, ClientHttpResponse response) {
+		SettableListenableFuture<ClientHttpResponse> f = new SettableListenableFuture<>();
+		f.set(response);
+		AsyncClientHttpRequest request = mock(AsyncClientHttpRequest.class);
+		when(request.getURI()).thenReturn(uri);
+		when(request.getMethod()).thenReturn(method);
+		try {
+			when(request.executeAsync()).thenReturn(f);
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+		return request;
+	}
+}
@@ -0,0 +1,74 @@
+package com.toby.reactive;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+import org.springframework.web.client.AsyncRestTemplate;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * single-flight : 같은 URI 의 호출은 하나만 나가고, 기다리는 호출자 중 일부가 취소해도 나머지는 같은 호출의 결과를 받는다.
+ * 다운스트림 호출은 응답을 테스트가 직접 넣는 AsyncRestTemplate 으로 대신한다.
+ */
+class CachingAsyncClientTests {
+	final List<SettableListenableFuture<ResponseEntity<String>>> calls = new CopyOnWriteArrayList<>();
+	final AsyncRestTemplate rt = new AsyncRestTemplate() {
+		@Override
+		@SuppressWarnings("unchecked")
+		public <T> ListenableFuture<ResponseEntity<T>> getForEntity(URI url, Class<T> responseType) {
+			SettableListenableFuture<ResponseEntity<String>> call = new SettableListenableFuture<>();
+			calls.add(call);
+			return (ListenableFuture<ResponseEntity<T>>) (ListenableFuture<?>) call;
+		}
+	};
+	final CachingAsyncClient client = new CachingAsyncClient(rt, new CachingAsyncClientProperties());
+
+	@Test
+	void callersOfTheSameUriShareOneCallAndTheResultIsCached() throws Exception {
+		ListenableFuture<ResponseEntity<String>> a = client.getForEntity("http://localhost/service?req={req}", "hello");
+		ListenableFuture<ResponseEntity<String>> b = client.getForEntity("http://localhost/service?req={req}", "hello");
+		assertThat(calls).hasSize(1);
+		assertThat(client.getCoalesced()).isEqualTo(1);
+
+		calls.get(0).set(ResponseEntity.ok("hello/service"));
+
+		assertThat(a.get().getBody()).isEqualTo("hello/service");
+		assertThat(b.get().getBody()).isEqualTo("hello/service");
+		assertThat(client.getForEntity("http://localhost/service?req={req}", "hello").get().getBody()).isEqualTo("hello/service");
+		assertThat(calls).hasSize(1);
+		assertThat(client.getHits()).isEqualTo(1);
+	}
+
+	@Test
+	void cancelledCallerDoesNotCancelTheSharedCall() throws Exception {
+		ListenableFuture<ResponseEntity<String>> a = client.getForEntity("http://localhost/service?req={req}", "hello");
+		ListenableFuture<ResponseEntity<String>> b = client.getForEntity("http://localhost/service?req={req}", "hello");
+
+		b.cancel(false); // b 의 체인만 끝났다 (DeferredResult timeout 등)
+
+		assertThat(calls.get(0).isCancelled()).isFalse();
+		calls.get(0).set(ResponseEntity.ok("hello/service"));
+		assertThat(a.get().getBody()).isEqualTo("hello/service");
+	}
+
+	@Test
+	void callIsCancelledWhenEveryCallerHasCancelled() {
+		ListenableFuture<ResponseEntity<String>> a = client.getForEntity("http://localhost/service?req={req}", "hello");
+		ListenableFuture<ResponseEntity<String>> b = client.getForEntity("http://localhost/service?req={req}", "hello");
+
+		a.cancel(false);
+		b.cancel(false);
+
+		assertThat(calls.get(0).isCancelled()).isTrue();
+		assertThat(client.getInFlight()).isZero();
+
+		client.getForEntity("http://localhost/service?req={req}", "hello"); // 취소된 호출에 붙지 않고 새로 보낸다
+		assertThat(calls).hasSize(2);
+	}
+}
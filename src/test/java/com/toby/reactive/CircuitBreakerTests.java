@@ -0,0 +1,122 @@
+package com.toby.reactive;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * CLOSED -> OPEN (실패율 / 느린 호출 비율), OPEN -> HALF_OPEN (openDuration 뒤), HALF_OPEN 의 시험 호출 수와 그 결과에 따른 전이
+ */
+class CircuitBreakerTests {
+	static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+	static final long SLOW = TimeUnit.MILLISECONDS.toNanos(200);
+
+	@Test
+	void opensWhenFailureRateReachesThresholdAfterMinimumCalls() {
+		CircuitBreaker breaker = breaker(10_000);
+
+		breaker.onSuccess(FAST);
+		breaker.onSuccess(FAST);
+		breaker.onError(FAST);
+		breaker.onError(FAST);
+		assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED); // 50% 지만 아직 minimumCalls(5) 전
+
+		breaker.onError(FAST); // 3 / 5 = 60%
+		assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+		assertThat(breaker.tryAcquire()).isFalse();
+		assertThat(breaker.getNotPermitted()).isEqualTo(1);
+	}
+
+	@Test
+	void opensWhenSlowCallRateReachesThreshold() {
+		CircuitBreaker breaker = breaker(10_000);
+
+		breaker.onSuccess(FAST);
+		breaker.onSuccess(FAST);
+		breaker.onSuccess(SLOW);
+		breaker.onSuccess(SLOW);
+		breaker.onSuccess(SLOW); // 실패는 없지만 3 / 5 가 slowCall(100ms) 이상
+
+		assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+		assertThat(breaker.getFailureRate()).isZero();
+	}
+
+	@Test
+	void staysClosedBelowThresholds() {
+		CircuitBreaker breaker = breaker(10_000);
+
+		for (int i = 0; i < 20; i++) {
+			if (i % 4 == 0) {
+				breaker.onError(FAST); // 25%
+			} else {
+				breaker.onSuccess(FAST);
+			}
+		}
+
+		assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+	}
+
+	@Test
+	void halfOpenAfterOpenDurationLetsOnlyTheProbeCallsThrough() throws InterruptedException {
+		CircuitBreaker breaker = opened(breaker(50));
+		assertThat(breaker.tryAcquire()).isFalse();
+
+		TimeUnit.MILLISECONDS.sleep(80);
+
+		assertThat(breaker.tryAcquire()).isTrue();
+		assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+		assertThat(breaker.tryAcquire()).isTrue();
+		assertThat(breaker.tryAcquire()).isFalse(); // halfOpenCalls = 2
+
+		breaker.onIgnore(); // 4xx 같은 결과는 시험 호출 자리를 돌려준다
+		assertThat(breaker.tryAcquire()).isTrue();
+	}
+
+	@Test
+	void successfulProbesCloseTheBreaker() throws InterruptedException {
+		CircuitBreaker breaker = halfOpen(breaker(50));
+
+		breaker.onSuccess(FAST);
+		assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN); // 시험 호출이 모두 끝날 때까지 기다린다
+		breaker.onSuccess(FAST);
+
+		assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+		assertThat(breaker.getFailureRate()).isZero(); // 열리기 전의 실패는 잊는다
+	}
+
+	@Test
+	void failingProbesOpenTheBreakerAgain() throws InterruptedException {
+		CircuitBreaker breaker = halfOpen(breaker(50));
+
+		breaker.onSuccess(FAST);
+		breaker.onError(FAST); // 1 / 2 = 50%
+
+		assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+		assertThat(breaker.tryAcquire()).isFalse(); // openDuration 을 처음부터 다시 기다린다
+	}
+
+	/**
+	 * window 10, minimumCalls 5, 실패율 50%, 느린 호출 50% (100ms 이상), HALF_OPEN 시험 호출 2개
+	 */
+	private static CircuitBreaker breaker(long openMillis) {
+		return new CircuitBreaker(10, 5, 50, 50, 100, openMillis, TimeUnit.MILLISECONDS, 2);
+	}
+
+	private static CircuitBreaker opened(CircuitBreaker breaker) {
+		for (int i = 0; i < 5; i++) {
+			breaker.onError(FAST);
+		}
+		assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+		return breaker;
+	}
+
+	private static CircuitBreaker halfOpen(CircuitBreaker breaker) throws InterruptedException {
+		opened(breaker);
+		TimeUnit.MILLISECONDS.sleep(80);
+		assertThat(breaker.tryAcquire()).isTrue();
+		assertThat(breaker.tryAcquire()).isTrue();
+		return breaker;
+	}
+}
@@ -0,0 +1,122 @@
+package com.toby.reactive;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * andApplyAsync / andAcceptAsync : 단계가 어느 쓰레드에서 도는지, executor 가 받지 못하면 전달한 쓰레드에서 돌지 않고 에러 경로로 가는지
+ */
+class CompletionAsyncStageTests {
+	static final Executor REJECTING = task -> {
+		throw new RejectedExecutionException("queue is full");
+	};
+
+	ExecutorService stagePool;
+
+	@BeforeEach
+	void startPool() {
+		stagePool = Executors.newSingleThreadExecutor(r -> new Thread(r, "stage-pool"));
+	}
+
+	@AfterEach
+	void stopPool() throws InterruptedException {
+		stagePool.shutdownNow();
+		stagePool.awaitTermination(1, TimeUnit.SECONDS);
+	}
+
+	@Test
+	void applyAsyncRunsTheFunctionOnTheExecutor() throws InterruptedException {
+		AtomicReference<String> appliedOn = new AtomicReference<>();
+		AtomicReference<String> accepted = new AtomicReference<>();
+		CountDownLatch done = new CountDownLatch(1);
+
+		Completion.<Void, String>from(done("hello"))
+				.andApplyAsync(s -> {
+					appliedOn.set(Thread.currentThread().getName());
+					return done(s + "/work");
+				}, stagePool)
+				.andAccept(s -> {
+					accepted.set(s);
+					done.countDown();
+				});
+
+		assertThat(done.await(2, TimeUnit.SECONDS)).isTrue();
+		assertThat(appliedOn).hasValue("stage-pool");
+		assertThat(accepted).hasValue("hello/work");
+	}
+
+	@Test
+	void acceptAsyncRunsTheConsumerOnTheExecutor() throws InterruptedException {
+		AtomicReference<String> acceptedOn = new AtomicReference<>();
+		CountDownLatch done = new CountDownLatch(1);
+		SettableListenableFuture<String> call = new SettableListenableFuture<>();
+
+		Completion.<Void, String>from(call)
+				.andAcceptAsync(s -> {
+					acceptedOn.set(Thread.currentThread().getName());
+					done.countDown();
+				}, stagePool);
+		call.set("hello"); // 결과를 전달하는 쓰레드 = 테스트 쓰레드
+
+		assertThat(done.await(2, TimeUnit.SECONDS)).isTrue();
+		assertThat(acceptedOn.get()).isEqualTo("stage-pool").isNotEqualTo(Thread.currentThread().getName());
+	}
+
+	@Test
+	void rejectedApplyStageSkipsTheFunctionAndReachesError() {
+		AtomicInteger applied = new AtomicInteger();
+		List<Throwable> errors = new CopyOnWriteArrayList<>();
+		ByteBuf body = Unpooled.copiedBuffer(new byte[]{1, 2, 3});
+
+		Completion.<Void, ByteBuf>from(done(body))
+				.andApplyAsync(b -> {
+					applied.incrementAndGet();
+					return done(b);
+				}, REJECTING)
+				.andError(errors::add)
+				.andAccept(b -> applied.incrementAndGet());
+
+		assertThat(applied).hasValue(0);
+		assertThat(errors).singleElement().isInstanceOf(RejectedExecutionException.class);
+		assertThat(body.refCnt()).isZero(); // 실행되지 않은 단계에 넘어온 값은 release
+	}
+
+	@Test
+	void rejectedAcceptStageDoesNotRunInlineAndReachesError() {
+		AtomicInteger accepted = new AtomicInteger();
+		List<Throwable> errors = new CopyOnWriteArrayList<>();
+		ByteBuf body = Unpooled.copiedBuffer(new byte[]{1, 2, 3});
+
+		Completion.<Void, ByteBuf>from(done(body))
+				.andAcceptAsync(b -> accepted.incrementAndGet(), REJECTING)
+				.andError(errors::add);
+
+		assertThat(accepted).hasValue(0);
+		assertThat(errors).singleElement().isInstanceOf(RejectedExecutionException.class);
+		assertThat(body.refCnt()).isZero();
+	}
+
+	private static <T> ListenableFuture<T> done(T value) {
+		SettableListenableFuture<T> f = new SettableListenableFuture<>();
+		f.set(value);
+		return f;
+	}
+}
@@ -0,0 +1,226 @@
+package com.toby.reactive;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Completion.cancel : 마지막 단계(andAccept 가 돌려준 것)에서 거슬러 올라가며 나가 있는 호출을 취소하고 남은 단계를 막는다.
+ */
+class CompletionCancellationTests {
+
+	@Test
+	void cancelPropagatesToThePendingCallAndSkipsLaterStages() {
+		SettableListenableFuture<String> first = new SettableListenableFuture<>();
+		SettableListenableFuture<String> second = new SettableListenableFuture<>();
+		AtomicBoolean accepted = new AtomicBoolean();
+		AtomicInteger errors = new AtomicInteger();
+
+		Completion<String, Void> chain = Completion.<Void, String>from(first)
+				.andApply(s -> second)
+				.andError(e -> errors.incrementAndGet())
+				.andAccept(s -> accepted.set(true));
+
+		first.set("hello");          // 두번째 호출이 나간 상태에서
+		chain.cancel();              // DeferredResult timeout
+
+		assertThat(second.isCancelled()).isTrue();
+		second.set("late");          // 취소가 늦어서 도착한 응답
+		assertThat(accepted).isFalse();
+		assertThat(errors).hasValue(0); // CancellationException 은 에러 경로로 가지 않는다
+	}
+
+	@Test
+	void stageThatHasNotStartedIsNeverRun() {
+		SettableListenableFuture<String> first = new SettableListenableFuture<>();
+		AtomicBoolean applied = new AtomicBoolean();
+
+		Completion<String, Void> chain = Completion.<Void, String>from(first)
+				.andApply(s -> {
+					applied.set(true);
+					return new SettableListenableFuture<String>();
+				})
+				.andAccept(s -> { });
+
+		chain.cancel();
+
+		assertThat(first.isCancelled()).isTrue();
+		assertThat(applied).isFalse();
+	}
+
+	@Test
+	void valueNobodyWillReceiveIsReleased() {
+		Completion<Void, ByteBuf> waiting = Completion.from(new SettableListenableFuture<>());
+		ByteBuf early = buffer();
+		waiting.complete(early); // 다음 단계가 붙기 전에 도착해 있던 값
+		waiting.cancel();
+		assertThat(early.refCnt()).isZero();
+
+		Completion<Void, ByteBuf> cancelled = Completion.from(new SettableListenableFuture<>());
+		cancelled.cancel();
+		ByteBuf late = buffer();
+		cancelled.complete(late); // 취소된 뒤에 도착한 값
+		assertThat(late.refCnt()).isZero();
+	}
+
+	@Test
+	void timeoutCancelsTheCallItGaveUpOn() throws InterruptedException {
+		SettableListenableFuture<String> call = new SettableListenableFuture<>();
+		AtomicBoolean cancelledBeforeFailing = new AtomicBoolean();
+		CountDownLatch failed = new CountDownLatch(1);
+
+		ListenableFuture<String> f = Completion.timeout(call, Duration.ofMillis(10));
+		f.addCallback(s -> { }, e -> { // Downstream.call 이 bulkhead 를 돌려주는 자리
+			cancelledBeforeFailing.set(call.isCancelled());
+			failed.countDown();
+		});
+
+		assertThatThrownBy(() -> f.get(1, TimeUnit.SECONDS))
+				.isInstanceOf(ExecutionException.class)
+				.hasCauseInstanceOf(TimeoutException.class); // CancellationException 이 아니다 : circuit breaker 는 실패로 센다
+		assertThat(call.isCancelled()).isTrue();
+		assertThat(failed.await(1, TimeUnit.SECONDS)).isTrue(); // get 은 콜백이 돌기 전에 리턴할 수 있다
+		assertThat(cancelledBeforeFailing).isTrue();
+	}
+
+	@Test
+	void cancellationIsNotRecordedAsAFailure() {
+		AtomicInteger failures = new AtomicInteger();
+		Completion.StageObserver observer = (stage, nanos, success) -> {
+			if (!success) {
+				failures.incrementAndGet();
+			}
+		};
+		Completion.setObserver(observer);
+		try {
+			SettableListenableFuture<String> first = new SettableListenableFuture<>();
+			SettableListenableFuture<String> second = new SettableListenableFuture<>();
+			Completion<String, Void> chain = Completion.<Void, String>from(first)
+					.andApply(s -> second)
+					.andAccept(s -> { });
+			first.set("hello");
+			chain.cancel(); // 나가 있던 두번째 호출이 CancellationException 으로 끝난다
+
+			SettableListenableFuture<String> call = new SettableListenableFuture<>();
+			AtomicInteger errors = new AtomicInteger();
+			Completion.<Void, String>from(call)
+					.andError(e -> errors.incrementAndGet())
+					.andAccept(s -> { });
+			call.cancel(false); // 체인이 아니라 호출이 취소된 경우 : 에러 경로로는 가지만 실패로 세지 않는다
+
+			assertThat(second.isCancelled()).isTrue();
+			assertThat(errors).hasValue(1);
+			assertThat(failures).hasValue(0);
+		} finally {
+			Completion.clearObserver(observer);
+		}
+	}
+
+	@Test
+	void hedgeCancelsTheLosingAttempt() throws Exception {
+		List<SettableListenableFuture<String>> attempts = new CopyOnWriteArrayList<>();
+		ListenableFuture<String> result = Completion.hedge(hedgeAfter(10), () -> attempt(attempts));
+
+		awaitAttempts(attempts, 2);
+		attempts.get(1).set("hedged");
+
+		assertThat(result.get(1, TimeUnit.SECONDS)).isEqualTo("hedged");
+		assertThat(attempts.get(0).isCancelled()).isTrue(); // 늦은 쪽은 끊는다
+	}
+
+	@Test
+	void cancelledHedgeCancelsEveryAttempt() throws Exception {
+		List<SettableListenableFuture<String>> attempts = new CopyOnWriteArrayList<>();
+		ListenableFuture<String> result = Completion.hedge(hedgeAfter(10), () -> attempt(attempts));
+
+		awaitAttempts(attempts, 2);
+		result.cancel(false);
+
+		assertThat(attempts).allSatisfy(a -> assertThat(a.isCancelled()).isTrue());
+	}
+
+	@Test
+	void anyOfCancelsTheOthersOnceOneSucceedsAndReleasesLateValues() {
+		SettableListenableFuture<ByteBuf> fast = new SettableListenableFuture<>();
+		SettableListenableFuture<ByteBuf> slow = new SettableListenableFuture<>() {
+			@Override
+			public boolean cancel(boolean mayInterruptIfRunning) {
+				return false; // 취소가 늦어서 값이 그래도 도착하는 경우
+			}
+		};
+		SettableListenableFuture<ByteBuf> other = new SettableListenableFuture<>();
+		List<ByteBuf> accepted = new CopyOnWriteArrayList<>();
+
+		Completion.<Void, ByteBuf>anyOf(Arrays.asList(fast, slow, other)).andAccept(accepted::add);
+		ByteBuf winner = buffer();
+		fast.set(winner);
+
+		assertThat(other.isCancelled()).isTrue();
+		ByteBuf late = buffer();
+		slow.set(late);
+		assertThat(accepted).containsExactly(winner);
+		assertThat(late.refCnt()).isZero();
+		winner.release();
+	}
+
+	@Test
+	void allOfCancelsTheRestOnTheFirstFailure() {
+		SettableListenableFuture<String> failing = new SettableListenableFuture<>();
+		SettableListenableFuture<String> pending = new SettableListenableFuture<>();
+		List<Throwable> errors = new CopyOnWriteArrayList<>();
+		IllegalStateException boom = new IllegalStateException("boom");
+
+		Completion.<Void, String>allOf(Arrays.asList(failing, pending))
+				.andError(errors::add)
+				.andAccept(r -> { });
+		failing.setException(boom);
+
+		assertThat(pending.isCancelled()).isTrue();
+		assertThat(errors).containsExactly(boom);
+	}
+
+	/**
+	 * 지연 샘플을 채워서 delayMillis 뒤에 hedge 를 보내는 정책
+	 */
+	private static HedgePolicy hedgeAfter(long delayMillis) {
+		HedgePolicy policy = new HedgePolicy(50, delayMillis, TimeUnit.MILLISECONDS, 100, new RetryBudget(0.1, 0, 10, 2));
+		for (int i = 0; i < 100; i++) {
+			policy.record(TimeUnit.MILLISECONDS.toNanos(delayMillis));
+		}
+		return policy;
+	}
+
+	private static ListenableFuture<String> attempt(List<SettableListenableFuture<String>> attempts) {
+		SettableListenableFuture<String> f = new SettableListenableFuture<>();
+		attempts.add(f);
+		return f;
+	}
+
+	private static void awaitAttempts(List<?> attempts, int expected) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+		while (attempts.size() < expected && System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+		assertThat(attempts).hasSize(expected);
+	}
+
+	private static ByteBuf buffer() {
+		return PooledByteBufAllocator.DEFAULT.directBuffer().writeByte(1);
+	}
+}
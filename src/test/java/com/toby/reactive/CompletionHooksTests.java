@@ -0,0 +1,83 @@
+package com.toby.reactive;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Completion 의 hook 은 JVM 에 하나다. 컨텍스트가 겹쳐서 뜨고 닫힐 때(테스트) 먼저 닫히는 쪽이 나중 쪽의 hook 을 지우면 안 된다.
+ */
+class CompletionHooksTests {
+
+	@AfterEach
+	void reset() {
+		Completion.setObserver(null);
+		Completion.setRecorder(null);
+		Completion.setPipelineLog(null);
+	}
+
+	@Test
+	void closingAnOlderObserverKeepsTheNewerOne() {
+		CompletionMetrics older = new CompletionMetrics(new SimpleMeterRegistry());
+		Completion.setObserver(older);
+		AtomicInteger newer = new AtomicInteger();
+		Completion.setObserver((stage, nanos, success) -> newer.incrementAndGet());
+
+		older.close();
+		Completion.from(done("hello")).andAccept(s -> { });
+
+		assertThat(newer.get()).isPositive();
+	}
+
+	@Test
+	void closingTheCurrentObserverClearsIt() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		CompletionMetrics metrics = new CompletionMetrics(registry);
+		Completion.setObserver(metrics);
+
+		metrics.close();
+		Completion.from(done("hello")).andAccept(s -> { });
+
+		assertThat(registry.find("completion.stage").timers()).allSatisfy(t -> assertThat(t.count()).isZero());
+	}
+
+	@Test
+	void closingAnOlderRecorderKeepsTheNewerOne() {
+		TimelineRecorder older = new TimelineRecorder(16, 8, 1, 0, 0);
+		TimelineRecorder newer = new TimelineRecorder(16, 8, 1, 0, 0);
+		Completion.setRecorder(older);
+		Completion.setRecorder(newer);
+
+		older.close();
+		assertThat(Completion.recorder()).isSameAs(newer);
+
+		newer.close();
+		assertThat(Completion.recorder()).isNull();
+	}
+
+	@Test
+	void closingAnOlderPipelineLogKeepsTheNewerOne() {
+		PipelineLog older = new PipelineLog(PipelineLog.Mode.ALL, 1, 0, TimeUnit.MILLISECONDS, 100);
+		PipelineLog newer = new PipelineLog(PipelineLog.Mode.SLOW, 1, 100, TimeUnit.MILLISECONDS, 100);
+		Completion.setPipelineLog(older);
+		Completion.setPipelineLog(newer);
+
+		older.close();
+		assertThat(Completion.pipelineLog()).isSameAs(newer);
+
+		newer.close();
+		assertThat(Completion.pipelineLog()).isSameAs(PipelineLog.OFF);
+	}
+
+	private static <T> SettableListenableFuture<T> done(T value) {
+		SettableListenableFuture<T> f = new SettableListenableFuture<>();
+		f.set(value);
+		return f;
+	}
+}
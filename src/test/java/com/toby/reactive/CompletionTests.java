@@ -0,0 +1,110 @@
+package com.toby.reactive;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 결과(또는 에러)가 다음 단계가 붙기 전에 도착하는 경우 : 붙는 순간 attach 가 보관해 둔 결과를 넘기고, 콜백은 정확히 한 번씩만 돈다.
+ * 호출을 미리 끝내 두고 체인을 만들기 때문에 쓰레드 타이밍에 기대지 않는다.
+ */
+class CompletionTests {
+
+	@Test
+	void valueThatArrivedBeforeApplyIsDeliveredOnce() {
+		AtomicInteger applied = new AtomicInteger();
+		List<String> accepted = new ArrayList<>();
+
+		Completion<Void, String> first = Completion.from(done("hello"));
+		Completion<String, String> second = first.andApply(s -> {
+			applied.incrementAndGet();
+			return done(s + "/service2");
+		});
+		second.andAccept(accepted::add);
+
+		assertThat(applied).hasValue(1);
+		assertThat(accepted).containsExactly("hello/service2");
+	}
+
+	@Test
+	void valueThatArrivedBeforeAcceptIsDeliveredOnce() {
+		List<String> accepted = new ArrayList<>();
+		AtomicInteger errors = new AtomicInteger();
+
+		Completion.<Void, String>from(done("hello"))
+				.andError(e -> errors.incrementAndGet()) // 값은 그대로 지나간다
+				.andAccept(accepted::add);
+
+		assertThat(accepted).containsExactly("hello");
+		assertThat(errors).hasValue(0);
+	}
+
+	@Test
+	void errorThatArrivedBeforeApplySkipsItAndReachesErrorOnce() {
+		IllegalStateException boom = new IllegalStateException("boom");
+		AtomicInteger applied = new AtomicInteger();
+		List<Throwable> errors = new ArrayList<>();
+		AtomicInteger accepted = new AtomicInteger();
+
+		Completion.<Void, String>from(failed(boom))
+				.andApply(s -> {
+					applied.incrementAndGet();
+					return done(s);
+				})
+				.andError(errors::add)
+				.andAccept(s -> accepted.incrementAndGet());
+
+		assertThat(applied).hasValue(0);
+		assertThat(errors).containsExactly(boom);
+		assertThat(accepted).hasValue(0);
+	}
+
+	@Test
+	void errorOfAnApplyStageThatArrivedBeforeErrorIsDeliveredOnce() {
+		IllegalStateException boom = new IllegalStateException("boom");
+		List<Throwable> errors = new ArrayList<>();
+
+		Completion<String, String> second = Completion.<Void, String>from(done("hello"))
+				.andApply(s -> failed(boom)); // andApply 가 붙는 순간 실행되고, 호출은 이미 실패해 있다
+		second.andError(errors::add);
+
+		assertThat(errors).containsExactly(boom);
+	}
+
+	@Test
+	void onlyTheFirstResultIsDeliveredWhetherOrNotTheNextStageIsAttached() {
+		List<String> early = new ArrayList<>();
+		Completion<Void, String> beforeAttach = Completion.from(new SettableListenableFuture<>());
+		beforeAttach.complete("first");
+		beforeAttach.complete("second");
+		beforeAttach.error(new IllegalStateException("late"));
+		beforeAttach.andAccept(early::add);
+
+		List<String> late = new ArrayList<>();
+		Completion<Void, String> afterAttach = Completion.from(new SettableListenableFuture<>());
+		afterAttach.andAccept(late::add);
+		afterAttach.complete("first");
+		afterAttach.complete("second");
+
+		assertThat(early).containsExactly("first");
+		assertThat(late).containsExactly("first");
+	}
+
+	private static <T> ListenableFuture<T> done(T value) {
+		SettableListenableFuture<T> f = new SettableListenableFuture<>();
+		f.set(value);
+		return f;
+	}
+
+	private static <T> ListenableFuture<T> failed(Throwable e) {
+		SettableListenableFuture<T> f = new SettableListenableFuture<>();
+		f.setException(e);
+		return f;
+	}
+}
@@ -0,0 +1,141 @@
+package com.toby.reactive;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * bulkhead 의 자리 관리, Downstream.call 이 자리를 돌려주는 시점, 과부하로 거절된 호출은 재시도하지 않는 것
+ */
+class DownstreamTests {
+
+	@Test
+	void bulkheadRejectsBeyondMaxConcurrentCallsUntilOneIsReleased() {
+		Bulkhead bulkhead = new Bulkhead(2);
+
+		assertThat(bulkhead.tryAcquire()).isTrue();
+		assertThat(bulkhead.tryAcquire()).isTrue();
+		assertThat(bulkhead.tryAcquire()).isFalse();
+		assertThat(bulkhead.getRejected()).isEqualTo(1);
+
+		bulkhead.release();
+		assertThat(bulkhead.getInFlight()).isEqualTo(1);
+		assertThat(bulkhead.tryAcquire()).isTrue();
+	}
+
+	@Test
+	void fullBulkheadFailsWithoutCalling() {
+		Downstream downstream = downstream(new Bulkhead(1));
+		SettableListenableFuture<String> inFlight = new SettableListenableFuture<>();
+		downstream.call(() -> inFlight);
+		AtomicInteger calls = new AtomicInteger();
+
+		ListenableFuture<String> rejected = downstream.call(() -> {
+			calls.incrementAndGet();
+			return new SettableListenableFuture<>();
+		});
+
+		assertThat(calls).hasValue(0);
+		assertThatThrownBy(rejected::get).hasCauseInstanceOf(DownstreamUnavailableException.class);
+
+		inFlight.set("done");
+		assertThat(downstream.getBulkhead().getInFlight()).isZero();
+	}
+
+	@Test
+	void timedOutCallIsCancelledBeforeItsPermitIsReturned() throws InterruptedException {
+		SettableListenableFuture<String> transport = new SettableListenableFuture<>();
+		AtomicBoolean cancelledAtRelease = new AtomicBoolean();
+		CountDownLatch done = new CountDownLatch(1);
+		Bulkhead bulkhead = new Bulkhead(1) {
+			@Override
+			public void release() {
+				cancelledAtRelease.set(transport.isCancelled());
+				super.release();
+			}
+		};
+		Downstream downstream = downstream(bulkhead);
+
+		ListenableFuture<String> f = downstream.call(() -> Completion.timeout(transport, Duration.ofMillis(10)));
+		f.addCallback(v -> done.countDown(), e -> done.countDown()); // Downstream 의 콜백(자리 반환, breaker 기록) 다음에 돈다
+
+		assertThatThrownBy(() -> f.get(1, TimeUnit.SECONDS)).hasCauseInstanceOf(TimeoutException.class);
+		assertThat(done.await(1, TimeUnit.SECONDS)).isTrue(); // get 은 콜백보다 먼저 풀릴 수 있다
+		assertThat(bulkhead.getInFlight()).isZero();
+		assertThat(cancelledAtRelease).isTrue(); // 자리가 빌 때 전송은 이미 취소돼 있다
+		assertThat(downstream.getBreaker().getFailureRate()).isEqualTo(100); // timeout 은 breaker 에 실패로 기록된다
+	}
+
+	@Test
+	void overloadRejectionsAreNotRetried() {
+		RetryBudget budget = new RetryBudget(1, 0, 10, 3);
+		Downstream downstream = downstream(new Bulkhead(1));
+		downstream.call(() -> new SettableListenableFuture<String>()); // 자리를 다 차지하고 있다
+		AtomicInteger attempts = new AtomicInteger();
+
+		ListenableFuture<String> f = Completion.retry(budget, () -> {
+			attempts.incrementAndGet();
+			return downstream.call(() -> new SettableListenableFuture<>());
+		});
+
+		assertThatThrownBy(f::get).hasCauseInstanceOf(DownstreamUnavailableException.class);
+		assertThat(attempts).hasValue(1);
+		assertThat(budget.getRetries()).isZero(); // 예산도 쓰지 않는다
+	}
+
+	@Test
+	void failedCallsAreRetriedAfterABackoff() throws Exception {
+		RetryBudget budget = new RetryBudget(1, 0, 10, 3, 20, 20, TimeUnit.MILLISECONDS);
+		List<Long> sentAt = new ArrayList<>();
+
+		ListenableFuture<String> f = Completion.retry(budget, () -> {
+			synchronized (sentAt) {
+				sentAt.add(System.nanoTime());
+			}
+			SettableListenableFuture<String> call = new SettableListenableFuture<>();
+			if (sentAt.size() < 3) {
+				call.setException(new IllegalStateException("503"));
+			} else {
+				call.set("ok");
+			}
+			return call;
+		});
+
+		assertThat(f.get(1, TimeUnit.SECONDS)).isEqualTo("ok");
+		assertThat(sentAt).hasSize(3);
+		assertThat(budget.getRetries()).isEqualTo(2);
+	}
+
+	@Test
+	void backoffIsJitteredWithinAnExponentialCeiling() {
+		RetryBudget budget = new RetryBudget(1, 0, 10, 5, 10, 30, TimeUnit.MILLISECONDS);
+		long first = 0;
+		long third = 0;
+		for (int i = 0; i < 1000; i++) {
+			long b1 = budget.backoffNanos(1);
+			long b3 = budget.backoffNanos(3);
+			assertThat(b1).isBetween(0L, TimeUnit.MILLISECONDS.toNanos(10));
+			assertThat(b3).isBetween(0L, TimeUnit.MILLISECONDS.toNanos(30)); // 40ms 지만 maxBackoff 에서 멈춘다
+			first = Math.max(first, b1);
+			third = Math.max(third, b3);
+		}
+		assertThat(third).isGreaterThan(TimeUnit.MILLISECONDS.toNanos(10)); // 재시도가 거듭될수록 넓어진다
+		assertThat(new RetryBudget(1, 0, 10, 3).backoffNanos(1)).isZero();
+	}
+
+	private static Downstream downstream(Bulkhead bulkhead) {
+		return new Downstream("service", new CircuitBreaker(10, 5, 50, 100, 1, 1, TimeUnit.SECONDS, 2), bulkhead);
+	}
+}
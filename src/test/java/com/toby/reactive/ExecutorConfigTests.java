@@ -0,0 +1,121 @@
+package com.toby.reactive;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * executor 프로필 : 설정한 type 대로 같은 이름의 빈이 생기고, 큐(실행 중 + 대기)가 가득 차면 rejection 정책을 따른다.
+ */
+class ExecutorConfigTests {
+	final ApplicationContextRunner context = new ApplicationContextRunner()
+			.withUserConfiguration(ExecutorConfig.class);
+
+	@Test
+	void eachProfileBecomesABeanOfItsType() {
+		context.withPropertyValues(
+				"reactive.async.default-executor=io",
+				"reactive.async.executors.io.type=thread-pool",
+				"reactive.async.executors.io.core-size=2",
+				"reactive.async.executors.io.max-size=4",
+				"reactive.async.executors.cpu.type=fork-join",
+				"reactive.async.executors.cpu.parallelism=3")
+				.run(ctx -> {
+					assertThat(ctx.getBean("io")).isInstanceOf(ThreadPoolTaskExecutor.class);
+					assertThat(ctx.getBean("io", ThreadPoolTaskExecutor.class).getCorePoolSize()).isEqualTo(2);
+					assertThat(ctx.getBean("cpu")).isInstanceOf(BoundedForkJoinExecutor.class);
+					assertThat(ctx.getBean("cpu", BoundedForkJoinExecutor.class).getPool().getParallelism()).isEqualTo(3);
+					assertThat(ctx.getBean(ExecutorConfig.class).getAsyncExecutor()).isSameAs(ctx.getBean("io"));
+				});
+	}
+
+	@Test
+	void defaultExecutorIsCreatedEvenIfNotConfigured() {
+		context.run(ctx -> {
+			assertThat(ctx.getBean("myThreadPool")).isInstanceOf(ThreadPoolTaskExecutor.class);
+			assertThat(ctx.getBean(ExecutorConfig.class).getAsyncExecutor()).isSameAs(ctx.getBean("myThreadPool"));
+		});
+	}
+
+	@Test
+	void forkJoinRejectsBeyondParallelismPlusQueueCapacity() throws InterruptedException {
+		BoundedForkJoinExecutor executor = new BoundedForkJoinExecutor("cpu", 1, 1, ExecutorProperties.Rejection.FAIL_FAST);
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			executor.execute(() -> await(release)); // 실행 중
+			executor.execute(() -> { });            // 대기 중
+
+			assertThatThrownBy(() -> executor.execute(() -> { }))
+					.isInstanceOf(ExecutorRejectedException.class)
+					.hasMessageContaining("cpu");
+			assertThat(executor.getPending()).isEqualTo(2); // 거절된 작업은 세지 않는다
+		} finally {
+			release.countDown();
+			executor.shutdown();
+		}
+		assertThat(executor.getPool().awaitTermination(1, TimeUnit.SECONDS)).isTrue();
+		assertThat(executor.getPending()).isZero();
+	}
+
+	@Test
+	void callerRunsExceptOnTheEventLoop() throws InterruptedException {
+		BoundedForkJoinExecutor executor = new BoundedForkJoinExecutor("cpu", 1, 0, ExecutorProperties.Rejection.CALLER_RUNS);
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			executor.execute(() -> await(release));
+
+			AtomicReference<Thread> ranOn = new AtomicReference<>();
+			executor.execute(() -> ranOn.set(Thread.currentThread()));
+			assertThat(ranOn.get()).isSameAs(Thread.currentThread()); // 제출한 쓰레드가 실행
+
+			AtomicReference<Throwable> onEventLoop = new AtomicReference<>();
+			Thread eventLoop = new DefaultThreadFactory("event-loop").newThread(() -> { // netty 쓰레드 (FastThreadLocalThread)
+				try {
+					executor.execute(() -> { });
+				} catch (Throwable e) {
+					onEventLoop.set(e);
+				}
+			});
+			eventLoop.start();
+			eventLoop.join();
+			assertThat(onEventLoop.get()).isInstanceOf(ExecutorRejectedException.class);
+		} finally {
+			release.countDown();
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	void threadPoolProfileFailsFastWhenItsQueueIsFull() {
+		ExecutorProperties.Profile profile = new ExecutorProperties.Profile();
+		profile.setQueueCapacity(1);
+		ThreadPoolTaskExecutor executor = ExecutorConfig.threadPool("io", profile);
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			executor.execute(() -> await(release));
+			executor.execute(() -> { });
+
+			assertThatThrownBy(() -> executor.execute(() -> { }))
+					.hasRootCauseInstanceOf(ExecutorRejectedException.class); // TaskRejectedException 으로 감싸진다
+		} finally {
+			release.countDown();
+			executor.shutdown();
+		}
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
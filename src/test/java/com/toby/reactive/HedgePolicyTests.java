@@ -0,0 +1,85 @@
+package com.toby.reactive;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * hedge 지연 = 최근 window 개 응답시간의 percentile (minDelay 이상), 샘플이 모자라면 hedge 하지 않는다.
+ */
+class HedgePolicyTests {
+
+	@Test
+	void noHedgeUntilMinSamples() {
+		HedgePolicy policy = policy(95, 0, 100); // minSamples = window / 10 = 10
+
+		record(policy, 9, 1, 9);
+		assertThat(policy.getDelayNanos()).isEqualTo(Long.MAX_VALUE);
+
+		policy.record(ms(10));
+		assertThat(policy.getDelayNanos()).isEqualTo(ms(10));
+	}
+
+	@Test
+	void delayIsThePercentileOfRecentLatencies() {
+		HedgePolicy policy = policy(90, 0, 100);
+
+		record(policy, 100, 1, 100); // 1ms ~ 100ms
+
+		assertThat(policy.getDelayNanos()).isEqualTo(ms(90));
+	}
+
+	@Test
+	void delayFollowsTheWindowNotTheWholeHistory() {
+		HedgePolicy policy = policy(50, 0, 100);
+
+		record(policy, 100, 1000, 1000); // 예전에 느렸던 구간은
+		record(policy, 100, 10, 10);     // window 를 다시 채우면 빠진다
+
+		assertThat(policy.getDelayNanos()).isEqualTo(ms(10));
+	}
+
+	@Test
+	void delayIsNeverBelowMinDelay() {
+		HedgePolicy policy = policy(95, 20, 100);
+
+		record(policy, 100, 1, 1);
+
+		assertThat(policy.getDelayNanos()).isEqualTo(ms(20));
+	}
+
+	@Test
+	void hedgesAreLimitedByTheBudget() {
+		RetryBudget budget = new RetryBudget(0.1, 0, 1, 2);
+		HedgePolicy policy = new HedgePolicy(95, 0, TimeUnit.MILLISECONDS, 100, budget);
+
+		assertThat(policy.tryHedge()).isTrue();
+		assertThat(policy.tryHedge()).isFalse();
+
+		for (int i = 0; i < 10; i++) {
+			policy.onRequest();
+		}
+		assertThat(policy.tryHedge()).isTrue();
+		assertThat(policy.getHedges()).isEqualTo(2);
+	}
+
+	private static HedgePolicy policy(double percentile, long minDelayMillis, int window) {
+		return new HedgePolicy(percentile, minDelayMillis, TimeUnit.MILLISECONDS, window, new RetryBudget(0.1, 0, 10, 2));
+	}
+
+	/**
+	 * from ~ to ms 를 count 개에 고르게 나눠 기록
+	 */
+	private static void record(HedgePolicy policy, int count, long fromMillis, long toMillis) {
+		for (int i = 0; i < count; i++) {
+			long millis = count == 1 ? fromMillis : fromMillis + (toMillis - fromMillis) * i / (count - 1);
+			policy.record(ms(millis));
+		}
+	}
+
+	private static long ms(long millis) {
+		return TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+}
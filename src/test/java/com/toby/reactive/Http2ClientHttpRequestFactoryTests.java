@@ -0,0 +1,139 @@
+package com.toby.reactive;
+
+import io.netty.channel.nio.NioEventLoopGroup;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.StreamUtils;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * h2c 로 RemoteService 를 호출한다 : 여러 요청이 커넥션 하나에 stream 으로 실려서 오가고,
+ * 응답하지 않는 stream 은 responseTimeout 에 TimeoutException 으로 끝난다.
+ */
+class Http2ClientHttpRequestFactoryTests {
+	NioEventLoopGroup group;
+	AsyncClientProperties properties;
+	Http2ClientHttpRequestFactory factory;
+
+	@BeforeEach
+	void start() {
+		group = new NioEventLoopGroup(1);
+		properties = new AsyncClientProperties();
+		properties.getHttp2().setEnabled(true);
+		properties.getHttp2().setConnectionsPerHost(1);
+		factory = new Http2ClientHttpRequestFactory(group, properties);
+	}
+
+	@AfterEach
+	void stop() {
+		factory.destroy();
+		group.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+	}
+
+	@Test
+	void concurrentRequestsShareOneConnection() throws Exception {
+		try (ConfigurableApplicationContext remote = new SpringApplicationBuilder(RemoteService.class)
+				.run("--server.port=0",
+						"--remote.http2.enabled=true",
+						"--remote.endpoints.service.delay=fixed:50")) {
+			int port = ((WebServerApplicationContext) remote).getWebServer().getPort();
+
+			List<ListenableFuture<ClientHttpResponse>> responses = new ArrayList<>();
+			for (int i = 0; i < 20; i++) {
+				responses.add(factory.createAsyncRequest(URI.create("http://localhost:" + port + "/service?req=h" + i), HttpMethod.GET).executeAsync());
+			}
+
+			for (int i = 0; i < responses.size(); i++) {
+				try (ClientHttpResponse response = responses.get(i).get(5, TimeUnit.SECONDS)) {
+					assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+					assertThat(StreamUtils.copyToString(response.getBody(), StandardCharsets.UTF_8)).isEqualTo("h" + i + "/service");
+				}
+			}
+			assertThat(factory.getOpenConnections()).isEqualTo(1);
+		}
+	}
+
+	@Test
+	void cancelClosesTheStreamButNotTheConnection() throws Exception {
+		try (ConfigurableApplicationContext remote = new SpringApplicationBuilder(RemoteService.class)
+				.run("--server.port=0",
+						"--remote.http2.enabled=true",
+						"--remote.endpoints.service.delay=fixed:5000")) {
+			int port = ((WebServerApplicationContext) remote).getWebServer().getPort();
+
+			ListenableFuture<ClientHttpResponse> response = factory.createAsyncRequest(URI.create("http://localhost:" + port + "/service?req=c"), HttpMethod.GET).executeAsync();
+			awaitActiveStreams(1);
+
+			response.cancel(false); // Completion.cancel 이 나가 있는 호출을 끊을 때
+			awaitActiveStreams(0);  // 응답(5초)을 기다리지 않고 RST_STREAM 으로 닫혔다
+			assertThat(factory.getOpenConnections()).isEqualTo(1);
+		}
+	}
+
+	@Test
+	void stalledStreamTimesOutAndTheConnectionStaysUsable() throws Exception {
+		properties.setResponseTimeout(Duration.ofMillis(200));
+		try (ServerSocket server = new ServerSocket(0)) {
+			List<Socket> accepted = new CopyOnWriteArrayList<>();
+			Thread acceptor = new Thread(() -> { // 연결은 받고 아무것도 쓰지 않는다
+				try {
+					for (;;) {
+						accepted.add(server.accept());
+					}
+				} catch (IOException e) {
+					// 서버를 닫았다
+				}
+			}, "silent-server");
+			acceptor.setDaemon(true);
+			acceptor.start();
+			URI uri = URI.create("http://localhost:" + server.getLocalPort() + "/service?req=1");
+
+			ListenableFuture<ClientHttpResponse> first = factory.createAsyncRequest(uri, HttpMethod.GET).executeAsync();
+			assertThatThrownBy(() -> first.get(2, TimeUnit.SECONDS))
+					.isInstanceOf(ExecutionException.class)
+					.hasCauseInstanceOf(TimeoutException.class);
+
+			ListenableFuture<ClientHttpResponse> second = factory.createAsyncRequest(uri, HttpMethod.GET).executeAsync();
+			assertThatThrownBy(() -> second.get(2, TimeUnit.SECONDS))
+					.isInstanceOf(ExecutionException.class)
+					.hasCauseInstanceOf(TimeoutException.class);
+			assertThat(accepted).hasSize(1); // stream 만 닫고 커넥션은 다시 쓴다
+
+			server.close();
+			for (Socket s : accepted) {
+				s.close();
+			}
+		}
+	}
+
+	private void awaitActiveStreams(int expected) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+		while (factory.getActiveStreams() != expected && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(factory.getActiveStreams()).isEqualTo(expected);
+	}
+}
@@ -0,0 +1,45 @@
+package com.toby.reactive;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 과부하에서의 리포트 : 처리량은 구간 안에 성공한 요청만, 보내지 못한 요청은 requestTimeout 만큼 걸린 실패로 센다.
+ */
+class LoadTestTests {
+
+	@Test
+	void throughputCountsOnlySuccessesInsideTheWindow() {
+		LoadTest.Phase phase = new LoadTest.Phase();
+		long now = System.nanoTime();
+		phase.record(now, 200, null);
+		phase.record(now, 503, null);                                // 에러는 보낸 요청이지만 처리한 요청은 아니다
+		phase.record(now, 0, new IllegalStateException("timeout"));
+		phase.closeWindow();
+		phase.record(now, 200, null);                                // drain 중에 끝난 요청
+
+		LoadTest.Report report = new LoadTest.Report(new LoadTest.Config(), phase, 1.0, 0);
+
+		assertThat(report.getRequests()).isEqualTo(4);
+		assertThat(report.getOk()).isEqualTo(2);
+		assertThat(report.getServed()).isEqualTo(1);
+		assertThat(report.getThroughput()).isEqualTo(1.0);
+	}
+
+	@Test
+	void droppedRequestsAreRecordedAtTheRequestTimeout() {
+		LoadTest.Phase phase = new LoadTest.Phase();
+		for (int i = 0; i < 9; i++) {
+			phase.record(System.nanoTime(), 200, null);
+		}
+		phase.drop(Duration.ofSeconds(60));
+
+		LoadTest.Report report = new LoadTest.Report(new LoadTest.Config(), phase, 1.0, 0);
+
+		assertThat(report.getErrors()).containsEntry("GeneratorOverflow", 1L);
+		assertThat(report.percentileMillis(99)).isGreaterThanOrEqualTo(60_000); // 빠른 응답 9개 뒤에 숨지 않는다
+	}
+}
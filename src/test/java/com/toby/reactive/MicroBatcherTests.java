@@ -0,0 +1,150 @@
+package com.toby.reactive;
+
+import io.netty.channel.DefaultEventLoop;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+import org.springframework.web.client.AsyncRestTemplate;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * window 가 지나거나 maxBatchSize 개가 차면 배치 하나로 보내고, 배치 응답을 항목 순서대로 각 호출자에게 나눠준다.
+ * 배치 엔드포인트는 보낸 배치를 큐에 넣고 응답은 테스트가 직접 넣는 AsyncRestTemplate 으로 대신한다.
+ */
+class MicroBatcherTests {
+	final DefaultEventLoop scheduler = new DefaultEventLoop();
+	final BlockingQueue<SentBatch> sent = new LinkedBlockingQueue<>();
+	final AsyncRestTemplate rt = new AsyncRestTemplate() {
+		@Override
+		@SuppressWarnings("unchecked")
+		public <T> ListenableFuture<ResponseEntity<T>> postForEntity(String url, HttpEntity<?> request, Class<T> responseType, Object... uriVariables) {
+			SentBatch batch = new SentBatch((List<String>) request.getBody());
+			sent.add(batch);
+			return (ListenableFuture<ResponseEntity<T>>) (ListenableFuture<?>) batch.response;
+		}
+	};
+
+	@AfterEach
+	void stop() {
+		scheduler.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+	}
+
+	@Test
+	void flushesWhenTheWindowExpires() throws InterruptedException {
+		MicroBatcher batcher = new MicroBatcher(rt, "/service/batch", scheduler, 10, Duration.ofMillis(50));
+
+		batcher.submit("a");
+		batcher.submit("b");
+		assertThat(sent).isEmpty(); // window 동안은 모은다
+
+		SentBatch batch = sent.poll(1, TimeUnit.SECONDS);
+		assertThat(batch).isNotNull();
+		assertThat(batch.reqs).containsExactly("a", "b");
+		assertThat(batcher.getFullBatches()).isZero();
+	}
+
+	@Test
+	void flushesAsSoonAsMaxBatchSizeIsReached() {
+		MicroBatcher batcher = new MicroBatcher(rt, "/service/batch", scheduler, 3, Duration.ofSeconds(10));
+
+		batcher.submit("a");
+		batcher.submit("b");
+		assertThat(sent).isEmpty();
+		batcher.submit("c"); // window 를 기다리지 않는다
+		batcher.submit("d"); // 다음 배치
+
+		assertThat(sent).hasSize(1);
+		assertThat(sent.peek().reqs).containsExactly("a", "b", "c");
+		assertThat(batcher.getFullBatches()).isEqualTo(1);
+		assertThat(batcher.getBatches()).isEqualTo(1);
+	}
+
+	@Test
+	void batchResponseIsSplitPerCallerInOrder() throws Exception {
+		MicroBatcher batcher = new MicroBatcher(rt, "/service/batch", scheduler, 3, Duration.ofSeconds(10));
+
+		ListenableFuture<ResponseEntity<String>> a = batcher.submit("a");
+		ListenableFuture<ResponseEntity<String>> b = batcher.submit("b");
+		ListenableFuture<ResponseEntity<String>> c = batcher.submit("c");
+		sent.poll().respond(new RemoteService.BatchItem(200, "a/done"),
+				new RemoteService.BatchItem(503, "overloaded"),
+				new RemoteService.BatchItem(404, "no such item"));
+
+		assertThat(a.get().getBody()).isEqualTo("a/done");
+		assertThatThrownBy(b::get).isInstanceOf(ExecutionException.class).hasCauseInstanceOf(HttpServerErrorException.class);
+		assertThatThrownBy(c::get).isInstanceOf(ExecutionException.class).hasCauseInstanceOf(HttpClientErrorException.class);
+	}
+
+	@Test
+	void failedOrMismatchedBatchFailsEveryCaller() {
+		MicroBatcher batcher = new MicroBatcher(rt, "/service/batch", scheduler, 2, Duration.ofSeconds(10));
+
+		ListenableFuture<ResponseEntity<String>> a = batcher.submit("a");
+		ListenableFuture<ResponseEntity<String>> b = batcher.submit("b");
+		sent.poll().respond(new RemoteService.BatchItem(200, "a/done")); // 항목이 하나 모자란다
+
+		assertThatThrownBy(a::get).hasCauseInstanceOf(IllegalStateException.class);
+		assertThatThrownBy(b::get).hasCauseInstanceOf(IllegalStateException.class);
+	}
+
+	@Test
+	void closeSendsWhatIsBeingCollected() {
+		MicroBatcher batcher = new MicroBatcher(rt, "/service/batch", scheduler, 10, Duration.ofSeconds(10));
+
+		batcher.submit("a");
+		batcher.close();
+
+		assertThat(sent).hasSize(1);
+		assertThat(sent.peek().reqs).containsExactly("a");
+	}
+
+	@Test
+	void cancelledCallerIsWithdrawnFromTheBatchBeingCollected() {
+		MicroBatcher batcher = new MicroBatcher(rt, "/service/batch", scheduler, 10, Duration.ofSeconds(10));
+
+		ListenableFuture<ResponseEntity<String>> a = batcher.submit("a");
+		batcher.submit("b");
+		a.cancel(false);
+		batcher.close();
+
+		assertThat(sent).hasSize(1);
+		assertThat(sent.peek().reqs).containsExactly("b");
+	}
+
+	@Test
+	void batchEveryCallerWithdrewFromIsNotSent() throws InterruptedException {
+		MicroBatcher batcher = new MicroBatcher(rt, "/service/batch", scheduler, 10, Duration.ofMillis(50));
+
+		batcher.submit("a").cancel(false);
+
+		assertThat(sent.poll(300, TimeUnit.MILLISECONDS)).isNull(); // window 가 지나도 빈 배치는 보내지 않는다
+		assertThat(batcher.getBatches()).isZero();
+	}
+
+	static class SentBatch {
+		final List<String> reqs;
+		final SettableListenableFuture<ResponseEntity<RemoteService.BatchItem[]>> response = new SettableListenableFuture<>();
+
+		SentBatch(List<String> reqs) {
+			this.reqs = reqs;
+		}
+
+		void respond(RemoteService.BatchItem... items) {
+			response.set(ResponseEntity.ok(items));
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package com.toby.reactive;
+
+import io.netty.channel.nio.NioEventLoopGroup;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * 응답하지 않는 서버(연결은 받고 아무것도 쓰지 않는다)를 상대로 : 멈춘 호출도, 취소된 호출도 풀의 커넥션을 계속 쥐고 있지 않아야 한다.
+ */
+class PooledNettyClientHttpRequestFactoryTests {
+	NioEventLoopGroup group;
+	ServerSocket server;
+	List<Socket> accepted = new CopyOnWriteArrayList<>();
+
+	@BeforeEach
+	void startSilentServer() throws IOException {
+		group = new NioEventLoopGroup(1);
+		server = new ServerSocket(0);
+		Thread acceptor = new Thread(() -> {
+			try {
+				for (;;) {
+					accepted.add(server.accept());
+				}
+			} catch (IOException e) {
+				// 서버를 닫았다
+			}
+		}, "silent-server");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	@AfterEach
+	void stop() throws IOException {
+		server.close();
+		for (Socket s : accepted) {
+			s.close();
+		}
+		group.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+	}
+
+	@Test
+	void stalledResponseTimesOutAndFreesTheConnection() throws Exception {
+		AsyncClientProperties properties = new AsyncClientProperties();
+		properties.setMaxConnectionsPerHost(1); // 커넥션이 풀로 돌아오지 않으면 두번째 요청은 acquire 에서 막힌다
+		properties.setAcquireTimeout(Duration.ofSeconds(5));
+		properties.setResponseTimeout(Duration.ofMillis(200));
+		PooledNettyClientHttpRequestFactory factory = new PooledNettyClientHttpRequestFactory(group, properties);
+		try {
+			URI uri = URI.create("http://localhost:" + server.getLocalPort() + "/service?req=1");
+
+			ListenableFuture<ClientHttpResponse> first = factory.createAsyncRequest(uri, HttpMethod.GET).executeAsync();
+			assertThatThrownBy(() -> first.get(2, TimeUnit.SECONDS))
+					.isInstanceOf(ExecutionException.class)
+					.hasCauseInstanceOf(TimeoutException.class);
+
+			ListenableFuture<ClientHttpResponse> second = factory.createAsyncRequest(uri, HttpMethod.GET).executeAsync();
+			assertThatThrownBy(() -> second.get(2, TimeUnit.SECONDS)) // acquireTimeout(5s) 전에 같은 이유로 끝난다
+					.isInstanceOf(ExecutionException.class)
+					.hasCauseInstanceOf(TimeoutException.class);
+		} finally {
+			factory.destroy();
+		}
+	}
+
+	@Test
+	void cancelledCallGivesItsConnectionBack() throws Exception {
+		AsyncClientProperties properties = new AsyncClientProperties();
+		properties.setMaxConnectionsPerHost(1);
+		properties.setAcquireTimeout(Duration.ofMillis(500)); // 돌려받지 못하면 두번째 요청은 여기서 실패한다
+		properties.setResponseTimeout(Duration.ofSeconds(10));
+		PooledNettyClientHttpRequestFactory factory = new PooledNettyClientHttpRequestFactory(group, properties);
+		try {
+			URI uri = URI.create("http://localhost:" + server.getLocalPort() + "/service?req=1");
+
+			ListenableFuture<ClientHttpResponse> first = factory.createAsyncRequest(uri, HttpMethod.GET).executeAsync();
+			awaitAccepted(1);
+			first.cancel(false); // 응답 중간의 커넥션은 닫고 자리만 돌려준다
+
+			ListenableFuture<ClientHttpResponse> second = factory.createAsyncRequest(uri, HttpMethod.GET).executeAsync();
+			awaitAccepted(2);
+			assertThatThrownBy(() -> second.get(1, TimeUnit.SECONDS)) // acquireTimeout 으로 실패하지 않고 응답을 기다리는 중
+					.isInstanceOf(TimeoutException.class);
+			second.cancel(false);
+		} finally {
+			factory.destroy();
+		}
+	}
+
+	private void awaitAccepted(int expected) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+		while (accepted.size() < expected && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(accepted).hasSize(expected);
+	}
+}
@@ -3,7 +3,7 @@ package com.toby.reactive;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+@SpringBootTest(classes = ReactiveApplication.class) // 같은 패키지에 @SpringBootApplication 이 여럿이라 하나를 지정한다
 class ReactiveApplicationTests {
 
 	@Test
@@ -0,0 +1,65 @@
+package com.toby.reactive;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * V4 (WebFlux) 를 RemoteService 앞에 띄워서 : body 를 String 으로 바꾸지 않는 rest9 가 rest6 과 같은 응답을 낸다.
+ */
+class ReactiveApplicationV4Tests {
+	static ConfigurableApplicationContext remote;
+	static ConfigurableApplicationContext app;
+	static final HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(2)).build();
+
+	@BeforeAll
+	static void start() {
+		remote = new SpringApplicationBuilder(RemoteService.class)
+				.run("--server.port=0",
+						"--remote.endpoints.service.delay=fixed:5",
+						"--remote.endpoints.service2.delay=fixed:5");
+		app = new SpringApplicationBuilder(ReactiveApplicationV4.class)
+				.web(WebApplicationType.REACTIVE)
+				.run("--server.port=0",
+						"--reactive.client.remote-url=http://localhost:" + port(remote));
+	}
+
+	@AfterAll
+	static void stop() {
+		app.close();
+		remote.close();
+	}
+
+	@Test
+	void pooledBufferPathAnswersLikeTheStringPath() throws Exception {
+		for (int idx = 0; idx < 20; idx++) {
+			HttpResponse<String> buffers = get("/v4/rest9?idx=" + idx);
+			HttpResponse<String> strings = get("/v4/rest6?idx=" + idx);
+
+			assertThat(buffers.statusCode()).isEqualTo(200);
+			assertThat(buffers.body()).isEqualTo("hello" + idx + "/service/service2/asyncwork").isEqualTo(strings.body());
+			assertThat(buffers.headers().firstValue("Content-Type")).hasValueSatisfying(v -> assertThat(v).startsWith("text/plain"));
+		}
+	}
+
+	private static HttpResponse<String> get(String path) throws Exception {
+		HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port(app) + path)).timeout(Duration.ofSeconds(5)).build();
+		return http.send(request, HttpResponse.BodyHandlers.ofString());
+	}
+
+	private static int port(ConfigurableApplicationContext context) {
+		return ((WebServerApplicationContext) context).getWebServer().getPort();
+	}
+}
@@ -0,0 +1,78 @@
+package com.toby.reactive;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 재시도 예산 : 원래 요청 ratio 개마다 재시도 한 번, 다 쓰면 재시도하지 않는다.
+ * minRetriesPerSecond = 0 으로 두어 시간 기반 충전 없이 적립 / 인출만 본다.
+ */
+class RetryBudgetTests {
+
+	@Test
+	void startsFullAndStopsRetryingWhenExhausted() {
+		RetryBudget budget = new RetryBudget(0.1, 0, 3, 3);
+
+		assertThat(budget.tryWithdraw()).isTrue();
+		assertThat(budget.tryWithdraw()).isTrue();
+		assertThat(budget.tryWithdraw()).isTrue();
+		assertThat(budget.tryWithdraw()).isFalse();
+
+		assertThat(budget.getRetries()).isEqualTo(3);
+		assertThat(budget.getExhausted()).isEqualTo(1);
+	}
+
+	@Test
+	void oneRetryPerTenRequestsAtRatioPointOne() {
+		RetryBudget budget = drained(new RetryBudget(0.1, 0, 10, 3));
+
+		for (int i = 0; i < 9; i++) {
+			budget.deposit();
+		}
+		assertThat(budget.tryWithdraw()).isFalse(); // 0.9 개 : 아직 한 번도 안 된다
+
+		budget.deposit();
+		assertThat(budget.tryWithdraw()).isTrue();
+		assertThat(budget.tryWithdraw()).isFalse();
+
+		for (int i = 0; i < 100; i++) {
+			budget.deposit();
+		}
+		int allowed = 0;
+		while (budget.tryWithdraw()) {
+			allowed++;
+		}
+		assertThat(allowed).isEqualTo(10); // 요청 100 개 -> 재시도 10 번
+	}
+
+	@Test
+	void balanceIsCappedAtMaxBalance() {
+		RetryBudget budget = new RetryBudget(0.5, 0, 2, 3);
+
+		for (int i = 0; i < 1000; i++) {
+			budget.deposit(); // 조용한 시간에 쌓인 예산이
+		}
+
+		assertThat(budget.getBalance()).isEqualTo(2.0); // 장애가 나는 순간 한꺼번에 쏟아지지 않게
+	}
+
+	@Test
+	void minRetriesPerSecondRefillsWithoutRequests() throws InterruptedException {
+		RetryBudget budget = drained(new RetryBudget(0, 100, 1, 3));
+
+		TimeUnit.MILLISECONDS.sleep(50); // 초당 100 개 : 50ms 면 5 개지만 maxBalance 가 1
+
+		assertThat(budget.tryWithdraw()).isTrue();
+		assertThat(budget.tryWithdraw()).isFalse();
+	}
+
+	private static RetryBudget drained(RetryBudget budget) {
+		while (budget.tryWithdraw()) {
+			// 시작할 때 채워져 있는 예산을 비운다
+		}
+		return budget;
+	}
+}
@@ -0,0 +1,102 @@
+package com.toby.reactive;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 응답시간이 rttNoLoad 에 머물면 limit 이 오르고, 밀리기 시작하면(rtt 증가) 또는 drop 이 나면 내려간다.
+ */
+class VegasLimiterTests {
+	static final long NO_LOAD = TimeUnit.MILLISECONDS.toNanos(100);
+
+	@Test
+	void limitRisesWhileLatencyStaysAtNoLoad() {
+		VegasLimiter limiter = limiter(20);
+		respond(limiter, NO_LOAD, 20); // 첫 응답은 rttNoLoad 로만 쓰인다
+
+		for (int i = 0; i < 10; i++) {
+			respond(limiter, NO_LOAD, limiter.getLimit());
+		}
+
+		assertThat(limiter.getLimit()).isGreaterThan(20);
+	}
+
+	@Test
+	void limitFallsWhenLatencyGrowsAndOnDrops() {
+		VegasLimiter limiter = limiter(100);
+		respond(limiter, NO_LOAD, 100);
+
+		respond(limiter, NO_LOAD * 10, 100); // 요청 대부분이 큐에 있다 : queueSize = 100 * 0.9 > beta
+		int afterQueueing = limiter.getLimit();
+		assertThat(afterQueueing).isLessThan(100);
+
+		limiter.tryAcquire();
+		limiter.onDropped();
+		assertThat(limiter.getLimit()).isLessThan(afterQueueing);
+	}
+
+	@Test
+	void limitDoesNotMoveWhenMostOfItIsUnused() {
+		VegasLimiter limiter = limiter(100);
+		respond(limiter, NO_LOAD, 100);
+
+		for (int i = 0; i < 10; i++) {
+			respond(limiter, NO_LOAD, 10); // 한도의 절반도 안 쓰고 있다 : 늘릴 근거가 없다
+		}
+
+		assertThat(limiter.getLimit()).isEqualTo(100);
+	}
+
+	@Test
+	void callsBeyondTheLimitAreRejectedWithoutWaiting() {
+		VegasLimiter limiter = limiter(10);
+		for (int i = 0; i < 10; i++) {
+			assertThat(limiter.tryAcquire()).isTrue();
+		}
+
+		assertThat(limiter.tryAcquire()).isFalse();
+		assertThat(limiter.getRejectedCount()).isEqualTo(1);
+
+		limiter.onIgnore();
+		assertThat(limiter.tryAcquire()).isTrue();
+	}
+
+	@Test
+	void eachEndpointHasItsOwnLimit() throws Exception {
+		ConcurrencyLimitProperties properties = new ConcurrencyLimitProperties();
+		properties.setInitialLimit(1);
+		properties.setMinLimit(1);
+		properties.setUrlPatterns(Arrays.asList("/v3/rest6", "/v3/rest7"));
+		VegasLimiterRegistry limiters = new VegasLimiterRegistry(properties);
+		ConcurrencyLimitFilter filter = new ConcurrencyLimitFilter(limiters);
+
+		limiters.get("/v3/rest6").tryAcquire(); // 느린 경로가 한도를 다 쓰고 있어도
+
+		assertThat(status(filter, "/v3/rest6")).isEqualTo(503);
+		assertThat(status(filter, "/v3/rest7")).isEqualTo(200); // 다른 경로는 들어간다
+		assertThat(limiters.get("/v3/rest6")).isNotSameAs(limiters.get("/v3/rest7"));
+		assertThat(limiters.get("/v3/rest6/1")).isSameAs(limiters.get("/v3/other")); // 패턴에 없는 경로는 하나를 같이 쓴다
+	}
+
+	private static VegasLimiter limiter(int initialLimit) {
+		return new VegasLimiter(initialLimit, 1, 1000, 1.0, 1000);
+	}
+
+	private static void respond(VegasLimiter limiter, long rttNanos, int inFlightAtStart) {
+		limiter.tryAcquire();
+		limiter.onSuccess(rttNanos, inFlightAtStart);
+	}
+
+	private static int status(ConcurrencyLimitFilter filter, String path) throws Exception {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		filter.doFilter(new MockHttpServletRequest("GET", path), response, new MockFilterChain());
+		return response.getStatus();
+	}
+}